@@ -1,94 +1,95 @@
 package ru.practicum.aggregator;
 
 import ru.practicum.aggregator.config.AggregatorKafkaConsumerConfig;
+import ru.practicum.aggregator.config.AggregatorKafkaProducerConfig;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
-import org.apache.kafka.clients.consumer.OffsetAndMetadata;
-import org.apache.kafka.common.TopicPartition;
-import org.apache.kafka.common.errors.WakeupException;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Component;
 import ru.practicum.aggregator.kafka.KafkaSnapshotProducer;
-import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+import ru.practicum.aggregator.kafka.TransactionalSnapshotProducer;
+import ru.practicum.aggregator.query.HubStateView;
 import ru.practicum.aggregator.service.SensorSnapshotService;
+import ru.practicum.aggregator.service.SnapshotStateMetrics;
+import ru.practicum.aggregator.store.SnapshotStateStore;
 
-import java.time.Duration;
-import java.util.Collections;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class AggregationStarter {
-    KafkaConsumer<String, SensorEventAvro> consumer;
     KafkaSnapshotProducer producer;
     SensorSnapshotService snapshotService;
+    SnapshotStateStore stateStore;
+    SnapshotStateMetrics metrics;
+    ObjectProvider<HubStateView> liveState;
     AggregatorKafkaConsumerConfig config;
-    Map<TopicPartition, OffsetAndMetadata> currentOffsets = new ConcurrentHashMap<>();
+    AggregatorKafkaProducerConfig producerConfig;
 
     public void start() {
-        log.info("Kafka consumer успешно внедрён");
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            log.info("Сигнал завершения получен, пробуждаем consumer");
-            consumer.wakeup();
-        }));
-
-        try {
-            String topic = config.getSensorTopic();
-            consumer.subscribe(Collections.singletonList(topic));
-            log.info("Подписка на топик: {}", topic);
+        int workerCount = Math.max(1, config.getWorkers());
+        log.info("Запуск агрегации, количество воркеров: {}, транзакции: {}",
+                workerCount, producerConfig.isTransactionsEnabled());
 
-            while (true) {
-                log.debug("Ожидание новых сообщений");
-                ConsumerRecords<String, SensorEventAvro> records =
-                        consumer.poll(Duration.ofMillis(config.getFetchMaxWaitMs()));
-                handleMessages(records);
-            }
-
-        } catch (WakeupException ignored) {
-            log.info("Consumer пробуждён, выходим из цикла");
-        } catch (Exception e) {
-            log.error("Неожиданная ошибка в цикле consumer", e);
-        } finally {
-            commitOffsets();
+        List<AggregationWorker> workers = new ArrayList<>(workerCount);
+        List<Thread> threads = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            AggregationWorker worker = new AggregationWorker(i, config.kafkaConsumer(i), producer,
+                    transactionalProducer(i), snapshotService, stateStore, metrics, liveState.getIfAvailable(), config);
+            workers.add(worker);
+            threads.add(new Thread(worker, "aggregator-worker-" + i));
         }
-    }
 
-    private void handleMessages(ConsumerRecords<String, SensorEventAvro> records) {
-        for (ConsumerRecord<String, SensorEventAvro> record : records) {
-            log.debug("Получена запись: partition={}, offset={}, value={}", record.partition(), record.offset(), record.value());
-            SensorEventAvro avroSensorEvent = record.value();
+        HubEventsListener hubEventsListener = config.isDeviceRemovalEnabled()
+                ? new HubEventsListener(config.hubEventsConsumer(), config.getHubTopic(), workers,
+                config.getFetchMaxWaitMs())
+                : null;
+        Thread hubEventsThread = hubEventsListener != null
+                ? new Thread(hubEventsListener, "aggregator-hub-events")
+                : null;
 
-            snapshotService.updateSnapshot(avroSensorEvent).ifPresent(snapshot -> {
-                producer.send(snapshot);
-                currentOffsets.put(new TopicPartition(record.topic(), record.partition()), new OffsetAndMetadata(record.offset() + 1));
-            });
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            log.info("Сигнал завершения получен, пробуждаем воркеры");
+            workers.forEach(AggregationWorker::shutdown);
+            joinAll(threads);
+        }));
+
+        threads.forEach(Thread::start);
+        if (hubEventsThread != null) {
+            hubEventsThread.start();
         }
+        joinAll(threads);
+        if (hubEventsListener != null) {
+            hubEventsListener.shutdown();
+            joinAll(List.of(hubEventsThread));
+        }
+        log.info("Все воркеры агрегации остановлены");
+    }
 
-        if (!currentOffsets.isEmpty()) {
-            consumer.commitAsync(currentOffsets, (offsets, ex) -> {
-                if (ex != null) {
-                    log.error("Ошибка при коммите оффсетов {}", offsets, ex);
-                }
-            });
+    private TransactionalSnapshotProducer transactionalProducer(int workerIndex) {
+        if (!producerConfig.isTransactionsEnabled()) {
+            return null;
         }
+        return new TransactionalSnapshotProducer(producerConfig.transactionalProducer(workerIndex),
+                producerConfig.getSnapshotsTopic(), producerConfig.getDeltasTopic(),
+                producerConfig.getLateEventsTopic(), producerConfig.getRollupsTopic(),
+                producerConfig.getTransactionMaxRecords(), producerConfig.getTransactionMaxMs());
     }
 
-    private void commitOffsets() {
-        try {
-            log.info("Коммитим финальные оффсеты");
-            consumer.commitSync(currentOffsets);
-        } catch (Exception e) {
-            log.error("Ошибка при коммите финальных оффсетов", e);
-        } finally {
-            log.info("Закрываем консьюмер");
-            consumer.close();
+    private void joinAll(List<Thread> threads) {
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Ожидание остановки воркера {} прервано", thread.getName());
+                return;
+            }
         }
     }
 }
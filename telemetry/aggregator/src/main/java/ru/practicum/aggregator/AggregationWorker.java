@@ -0,0 +1,647 @@
+package ru.practicum.aggregator;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import ru.practicum.aggregator.config.AggregatorKafkaConsumerConfig;
+import ru.practicum.aggregator.kafka.KafkaSnapshotProducer;
+import ru.practicum.aggregator.kafka.TransactionalSnapshotProducer;
+import ru.practicum.aggregator.query.HubStateView;
+import ru.practicum.aggregator.service.HubActivityTracker;
+import ru.practicum.aggregator.service.SensorRollupTracker;
+import ru.practicum.aggregator.service.SensorSnapshotService;
+import ru.practicum.aggregator.service.SnapshotCoalescer;
+import ru.practicum.aggregator.service.SnapshotDeltaTracker;
+import ru.practicum.aggregator.service.SnapshotFormat;
+import ru.practicum.aggregator.service.SnapshotStateMetrics;
+import ru.practicum.aggregator.store.SnapshotStateStore;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorRollupAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotDeltaAvro;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Воркер агрегации: собственный consumer, собственный набор партиций и собственные оффсеты.
+ * Хабы привязаны к партициям ключом сообщения, поэтому воркеры работают с непересекающимися хабами.
+ * <p>
+ * Если задан {@code txProducer}, снимки и оффсеты фиксируются одной транзакцией, а при её откате
+ * воркер возвращает состояние и позиции партиций к последнему зафиксированному оффсету.
+ * Без транзакций оффсеты фиксируются только после подтверждения брокером всех отправленных записей.
+ * Если отправка не удалась, партиции так же возвращаются к зафиксированному оффсету и перечитываются.
+ * <p>
+ * Если включено объединение, снимки хабов копятся в окне и отправляются по одному на хаб.
+ * Оффсеты и хранилище фиксируются только при пустом окне, чтобы не подтвердить неотправленные изменения.
+ * <p>
+ * После каждой порции воркер применяет удаления устройств, полученные от {@link HubEventsListener},
+ * и вытесняет хабы по TTL и лимиту количества.
+ * <p>
+ * Если включены запросы на чтение, в конце порции изменённые хабы публикуются в {@link HubStateView}.
+ * Если включены агрегаты, показания копятся в {@link SensorRollupTracker}, а закрытые окна отправляются
+ * в топик агрегатов после каждой порции
+ */
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class AggregationWorker implements Runnable, ConsumerRebalanceListener {
+    int index;
+    KafkaConsumer<String, SensorEventAvro> consumer;
+    KafkaSnapshotProducer producer;
+    TransactionalSnapshotProducer txProducer;
+    SensorSnapshotService snapshotService;
+    SnapshotStateStore stateStore;
+    AggregatorKafkaConsumerConfig config;
+    SnapshotCoalescer coalescer;
+    SnapshotFormat snapshotFormat;
+    SnapshotDeltaTracker deltaTracker;
+    HubActivityTracker activityTracker;
+    SensorRollupTracker rollupTracker;
+    SnapshotStateMetrics metrics;
+    HubStateView liveState;
+    Set<String> changedHubs = new HashSet<>();
+    Queue<DeviceRemoval> deviceRemovals = new ConcurrentLinkedQueue<>();
+    Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
+    Map<TopicPartition, Set<String>> hubsByPartition = new HashMap<>();
+    /**
+     * Партиции, которые перечитываются от контрольной точки хранилища до зафиксированного оффсета:
+     * записи ниже границы только восстанавливают состояние, снимки по ним повторно не отправляются
+     */
+    Map<TopicPartition, Long> replayUntil = new HashMap<>();
+    Set<TopicPartition> uncommittedPartitions = new HashSet<>();
+    /**
+     * Число неудачных отправок producer'а на момент последней фиксации оффсетов
+     */
+    @NonFinal
+    long sendFailures;
+
+    public AggregationWorker(int index,
+                             KafkaConsumer<String, SensorEventAvro> consumer,
+                             KafkaSnapshotProducer producer,
+                             TransactionalSnapshotProducer txProducer,
+                             SensorSnapshotService snapshotService,
+                             SnapshotStateStore stateStore,
+                             SnapshotStateMetrics metrics,
+                             HubStateView liveState,
+                             AggregatorKafkaConsumerConfig config) {
+        this.index = index;
+        this.consumer = consumer;
+        this.producer = producer;
+        this.txProducer = txProducer;
+        this.snapshotService = snapshotService;
+        this.stateStore = stateStore;
+        this.metrics = metrics;
+        this.liveState = liveState;
+        this.config = config;
+        this.coalescer = config.isCoalescingEnabled()
+                ? new SnapshotCoalescer(config.getCoalescingMaxDelayMs())
+                : null;
+        this.snapshotFormat = config.getSnapshotFormat();
+        this.deltaTracker = snapshotFormat.includesDelta()
+                ? new SnapshotDeltaTracker(config.getKeyframeInterval())
+                : null;
+        this.activityTracker = config.getHubTtlMs() > 0 || config.getMaxHubs() > 0
+                ? new HubActivityTracker(config.getHubTtlMs(), maxHubsPerWorker(config))
+                : null;
+        this.rollupTracker = config.isRollupEnabled()
+                ? new SensorRollupTracker(config.getRollupWindows(), config.getRollupGraceMs(),
+                config.getRollupCheckIntervalMs(), config.getMaxClockSkewMs())
+                : null;
+    }
+
+    private static int maxHubsPerWorker(AggregatorKafkaConsumerConfig config) {
+        if (config.getMaxHubs() <= 0) {
+            return 0;
+        }
+        int workers = Math.max(1, config.getWorkers());
+        return Math.max(1, (config.getMaxHubs() + workers - 1) / workers);
+    }
+
+    @Override
+    public void run() {
+        try {
+            String topic = config.getSensorTopic();
+            consumer.subscribe(Collections.singletonList(topic), this);
+            log.info("Воркер {}: подписка на топик: {}, транзакции: {}", index, topic, txProducer != null);
+
+            Duration pollTimeout = Duration.ofMillis(coalescer != null && config.getCoalescingMaxDelayMs() > 0
+                    ? Math.min(config.getFetchMaxWaitMs(), config.getCoalescingMaxDelayMs())
+                    : config.getFetchMaxWaitMs());
+
+            while (true) {
+                log.debug("Воркер {}: ожидание новых сообщений", index);
+                ConsumerRecords<String, SensorEventAvro> records = consumer.poll(pollTimeout);
+                handleMessages(records);
+            }
+
+        } catch (WakeupException ignored) {
+            log.info("Воркер {}: consumer пробуждён, выходим из цикла", index);
+        } catch (Exception e) {
+            log.error("Воркер {}: неожиданная ошибка в цикле consumer", index, e);
+        } finally {
+            commitOffsets();
+        }
+    }
+
+    /**
+     * Прерывает ожидание в poll. Безопасно вызывать из другого потока
+     */
+    public void shutdown() {
+        consumer.wakeup();
+    }
+
+    /**
+     * Ставит в очередь удаление устройства. Безопасно вызывать из другого потока:
+     * удаление применит сам воркер, если хаб принадлежит ему
+     */
+    public void deviceRemoved(String hubId, String sensorId) {
+        deviceRemovals.offer(new DeviceRemoval(hubId, sensorId));
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        log.info("Воркер {}: назначены партиции {}", index, partitions);
+        restorePartitions(partitions);
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        log.info("Воркер {}: отзываются партиции {}", index, partitions);
+        flushPending();
+        if (rollupTracker != null) {
+            for (TopicPartition partition : partitions) {
+                Set<String> hubIds = hubsByPartition.get(partition);
+                if (hubIds != null) {
+                    rollupTracker.flush(hubIds).forEach(this::sendRollup);
+                }
+            }
+        }
+
+        if (txProducer != null) {
+            commitTransaction();
+            partitions.forEach(currentOffsets::remove);
+        } else {
+            Map<TopicPartition, OffsetAndMetadata> revokedOffsets = new HashMap<>();
+            for (TopicPartition partition : partitions) {
+                OffsetAndMetadata offset = currentOffsets.remove(partition);
+                if (offset != null) {
+                    revokedOffsets.put(partition, offset);
+                }
+            }
+            if (!revokedOffsets.isEmpty()) {
+                try {
+                    if (drainProducer()) {
+                        stateStore.flush(revokedOffsets);
+                        consumer.commitSync(revokedOffsets);
+                    } else {
+                        rewind(remaining(partitions));
+                    }
+                } catch (Exception e) {
+                    log.error("Воркер {}: ошибка при коммите оффсетов отзываемых партиций {}", index, revokedOffsets, e);
+                }
+            }
+        }
+
+        releasePartitions(partitions);
+    }
+
+    @Override
+    public void onPartitionsLost(Collection<TopicPartition> partitions) {
+        log.warn("Воркер {}: потеряны партиции {}", index, partitions);
+        partitions.forEach(currentOffsets::remove);
+        releasePartitions(partitions);
+
+        if (txProducer != null && txProducer.isActive()) {
+            // в открытой транзакции есть снимки и по оставшимся партициям — откатываем их вместе
+            txProducer.abort();
+            rewind(new HashSet<>(hubsByPartition.keySet()));
+        }
+    }
+
+    private void handleMessages(ConsumerRecords<String, SensorEventAvro> records) {
+        if (txProducer != null && !records.isEmpty()) {
+            txProducer.begin();
+        }
+
+        long now = System.currentTimeMillis();
+        for (ConsumerRecord<String, SensorEventAvro> record : records) {
+            log.debug("Воркер {}: получена запись: partition={}, offset={}, value={}",
+                    index, record.partition(), record.offset(), record.value());
+            SensorEventAvro avroSensorEvent = record.value();
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            boolean replaying = isReplaying(partition, record.offset());
+
+            hubsByPartition.computeIfAbsent(partition, p -> new HashSet<>()).add(avroSensorEvent.getHubId());
+            if (activityTracker != null) {
+                activityTracker.touch(avroSensorEvent.getHubId(), partition, now);
+            }
+            SensorsSnapshotAvro snapshot = null;
+            if (snapshotService.isFuture(avroSensorEvent, now, config.getMaxClockSkewMs())) {
+                if (!replaying) {
+                    futureEvent(avroSensorEvent);
+                }
+            } else if (snapshotService.isLate(avroSensorEvent, config.getAllowedLatenessMs())) {
+                if (!replaying) {
+                    lateEvent(avroSensorEvent);
+                }
+            } else {
+                snapshot = snapshotService.updateSnapshot(avroSensorEvent);
+                if (rollupTracker != null && !replaying && !rollupTracker.add(avroSensorEvent, now)) {
+                    metrics.rollupLateEvent();
+                }
+            }
+            if (snapshot != null) {
+                if (!replaying) {
+                    if (deltaTracker != null) {
+                        deltaTracker.sensorChanged(snapshot.getHubId(), avroSensorEvent.getId());
+                    }
+                    emit(snapshot);
+                }
+                stateStore.put(partition, snapshot);
+                changedHubs.add(snapshot.getHubId());
+            }
+            currentOffsets.put(partition, new OffsetAndMetadata(record.offset() + 1));
+            uncommittedPartitions.add(partition);
+        }
+
+        applyDeviceRemovals();
+        evictHubs(now);
+        publishChangedHubs();
+        if (rollupTracker != null) {
+            rollupTracker.closeDue(now).forEach(this::sendRollup);
+        }
+
+        if (coalescer != null && coalescer.isDue()) {
+            flushPending();
+        }
+        boolean windowClosed = coalescer == null || coalescer.isEmpty();
+
+        if (txProducer != null) {
+            txProducer.recordsProcessed(records.count());
+            if (windowClosed && txProducer.shouldCommit()) {
+                commitTransaction();
+            }
+        } else if (windowClosed && !uncommittedPartitions.isEmpty()) {
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            for (TopicPartition partition : uncommittedPartitions) {
+                offsets.put(partition, currentOffsets.get(partition));
+            }
+            if (!drainProducer()) {
+                rewind(new HashSet<>(hubsByPartition.keySet()));
+                return;
+            }
+            uncommittedPartitions.clear();
+            stateStore.flush(offsets);
+            consumer.commitAsync(offsets, (committed, ex) -> {
+                if (ex != null) {
+                    log.error("Воркер {}: ошибка при коммите оффсетов {}", index, committed, ex);
+                }
+            });
+        }
+    }
+
+    /**
+     * Отправляет накопленные в окне объединения снимки
+     */
+    private void flushPending() {
+        if (coalescer == null || coalescer.isEmpty()) {
+            return;
+        }
+        coalescer.drain().forEach(this::send);
+    }
+
+    private void emit(SensorsSnapshotAvro snapshot) {
+        if (coalescer != null) {
+            coalescer.add(snapshot);
+        } else {
+            send(snapshot);
+        }
+    }
+
+    private void send(SensorsSnapshotAvro snapshot) {
+        if (txProducer != null) {
+            txProducer.begin();
+        }
+        if (snapshotFormat.includesFull()) {
+            if (txProducer != null) {
+                txProducer.send(snapshot);
+            } else {
+                producer.send(snapshot);
+            }
+        }
+        if (deltaTracker != null) {
+            SensorsSnapshotDeltaAvro delta = deltaTracker.nextDelta(snapshot);
+            if (txProducer != null) {
+                txProducer.sendDelta(delta);
+            } else {
+                producer.sendDelta(delta);
+            }
+        }
+    }
+
+    private void sendRollup(SensorRollupAvro rollup) {
+        metrics.rollupEmitted();
+        if (txProducer != null) {
+            txProducer.begin();
+            txProducer.sendRollup(rollup);
+        } else {
+            producer.sendRollup(rollup);
+        }
+    }
+
+    private void futureEvent(SensorEventAvro avroSensorEvent) {
+        log.debug("Воркер {}: событие сенсора: {} хаба: {} из будущего, время: {}",
+                index, avroSensorEvent.getId(), avroSensorEvent.getHubId(), avroSensorEvent.getTimestamp());
+        metrics.futureEvent();
+    }
+
+    private void lateEvent(SensorEventAvro avroSensorEvent) {
+        log.debug("Воркер {}: опоздавшее событие сенсора: {} хаба: {}, время: {}",
+                index, avroSensorEvent.getId(), avroSensorEvent.getHubId(), avroSensorEvent.getTimestamp());
+        metrics.lateEvent();
+        if (txProducer != null) {
+            txProducer.begin();
+            txProducer.sendLateEvent(avroSensorEvent);
+        } else {
+            producer.sendLateEvent(avroSensorEvent);
+        }
+    }
+
+    private void applyDeviceRemovals() {
+        DeviceRemoval removal;
+        while ((removal = deviceRemovals.poll()) != null) {
+            TopicPartition partition = partitionOf(removal.hubId());
+            if (partition == null) {
+                continue;
+            }
+            SensorsSnapshotAvro snapshot = snapshotService.removeSensor(removal.hubId(), removal.sensorId());
+            if (snapshot == null) {
+                continue;
+            }
+            log.info("Воркер {}: удалено состояние сенсора: {} хаба: {}", index, removal.sensorId(), removal.hubId());
+            metrics.sensorRemoved();
+            if (deltaTracker != null) {
+                deltaTracker.sensorRemoved(removal.hubId(), removal.sensorId());
+            }
+            stateStore.put(partition, snapshot);
+            changedHubs.add(removal.hubId());
+            emit(snapshot);
+        }
+    }
+
+    /**
+     * Публикует копии хабов, изменённых за порцию. Копия снимается один раз на хаб,
+     * сколько бы событий по нему ни пришло
+     */
+    private void publishChangedHubs() {
+        if (liveState == null || changedHubs.isEmpty()) {
+            changedHubs.clear();
+            return;
+        }
+        for (String hubId : changedHubs) {
+            SensorsSnapshotAvro snapshot = snapshotService.getSnapshot(hubId);
+            if (snapshot != null) {
+                liveState.publish(snapshot);
+            }
+        }
+        changedHubs.clear();
+    }
+
+    private TopicPartition partitionOf(String hubId) {
+        for (Map.Entry<TopicPartition, Set<String>> entry : hubsByPartition.entrySet()) {
+            if (entry.getValue().contains(hubId)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Вытесняет хабы по TTL и лимиту количества. Вытесненный хаб удаляется и из хранилища:
+     * его следующее событие начнёт снимок заново
+     */
+    private void evictHubs(long now) {
+        if (activityTracker == null) {
+            return;
+        }
+        for (HubActivityTracker.EvictedHub hub : activityTracker.evict(now)) {
+            log.info("Воркер {}: хаб {} вытеснен, причина: {}", index, hub.hubId(), hub.reason());
+            List<String> hubIds = List.of(hub.hubId());
+            snapshotService.evict(hubIds);
+            stateStore.remove(hub.partition(), hub.hubId());
+            if (liveState != null) {
+                liveState.remove(hubIds);
+            }
+            Set<String> partitionHubs = hubsByPartition.get(hub.partition());
+            if (partitionHubs != null) {
+                partitionHubs.remove(hub.hubId());
+            }
+            if (coalescer != null) {
+                coalescer.discard(hubIds);
+            }
+            if (deltaTracker != null) {
+                deltaTracker.evict(hubIds);
+            }
+            if (rollupTracker != null) {
+                rollupTracker.evict(hubIds);
+            }
+            metrics.hubEvicted(hub.reason());
+        }
+    }
+
+    private boolean isReplaying(TopicPartition partition, long offset) {
+        Long until = replayUntil.get(partition);
+        if (until == null) {
+            return false;
+        }
+        if (offset >= until) {
+            replayUntil.remove(partition);
+            log.info("Воркер {}: партиция {} догнала зафиксированный оффсет {}", index, partition, until);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Фиксирует открытую транзакцию вместе с оффсетами. Хранилище сбрасывается только после
+     * успешной фиксации, чтобы его контрольная точка не опережала оффсеты группы.
+     * При ошибке транзакция откатывается, а назначенные партиции перечитываются
+     */
+    private void commitTransaction() {
+        if (!txProducer.isActive()) {
+            return;
+        }
+        try {
+            txProducer.commit(new HashMap<>(currentOffsets), consumer.groupMetadata());
+            uncommittedPartitions.clear();
+            stateStore.flush(currentOffsets);
+        } catch (KafkaException e) {
+            log.error("Воркер {}: ошибка при фиксации транзакции, откатываем", index, e);
+            txProducer.abort();
+            rewind(new HashSet<>(hubsByPartition.keySet()));
+        }
+    }
+
+    /**
+     * Дожидается подтверждения отправленных записей перед фиксацией оффсетов без транзакций.
+     * Producer общий, поэтому ошибка отправки другого воркера тоже откатывает партиции: лишнее перечитывание
+     * вместо потерянных записей
+     *
+     * @return {@code false}, если с прошлой фиксации часть записей не отправлена и оффсеты фиксировать нельзя
+     */
+    private boolean drainProducer() {
+        long failures = producer.flush();
+        if (failures == sendFailures) {
+            return true;
+        }
+        log.error("Воркер {}: с прошлой фиксации не отправлено записей: {}, оффсеты не фиксируются", index,
+                failures - sendFailures);
+        sendFailures = failures;
+        return false;
+    }
+
+    private Set<TopicPartition> remaining(Collection<TopicPartition> revoked) {
+        Set<TopicPartition> partitions = new HashSet<>(hubsByPartition.keySet());
+        partitions.removeAll(revoked);
+        return partitions;
+    }
+
+    /**
+     * Отбрасывает незафиксированное состояние партиций и возвращает consumer к зафиксированным оффсетам
+     */
+    private void rewind(Collection<TopicPartition> partitions) {
+        if (partitions.isEmpty()) {
+            return;
+        }
+        log.warn("Воркер {}: возврат партиций {} к зафиксированному состоянию", index, partitions);
+        releasePartitions(partitions);
+        restorePartitions(partitions);
+    }
+
+    /**
+     * Восстанавливает снимки хабов из хранилища и выставляет позицию чтения. Если контрольная точка
+     * хранилища отстаёт от оффсета группы, партиция дочитывается от неё в режиме восстановления
+     */
+    private void restorePartitions(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(new HashSet<>(partitions));
+        long now = System.currentTimeMillis();
+        if (liveState != null) {
+            liveState.assigned(partitions);
+        }
+
+        for (TopicPartition partition : partitions) {
+            Set<String> hubIds = hubsByPartition.computeIfAbsent(partition, p -> new HashSet<>());
+            for (SensorsSnapshotAvro snapshot : stateStore.restore(partition)) {
+                snapshotService.restore(snapshot);
+                hubIds.add(snapshot.getHubId());
+                if (activityTracker != null) {
+                    activityTracker.touch(snapshot.getHubId(), partition, now);
+                }
+                if (liveState != null) {
+                    liveState.publish(snapshot);
+                }
+            }
+
+            long checkpoint = stateStore.checkpointOffset(partition);
+            OffsetAndMetadata groupOffset = committed.get(partition);
+            replayUntil.remove(partition);
+
+            if (groupOffset == null) {
+                currentOffsets.remove(partition);
+                if (checkpoint >= 0) {
+                    consumer.seek(partition, checkpoint);
+                }
+                continue;
+            }
+
+            currentOffsets.put(partition, groupOffset);
+            if (checkpoint >= 0 && checkpoint < groupOffset.offset()) {
+                log.info("Воркер {}: партиция {} восстанавливается с оффсета {} до {}",
+                        index, partition, checkpoint, groupOffset.offset());
+                replayUntil.put(partition, groupOffset.offset());
+                consumer.seek(partition, checkpoint);
+            } else {
+                consumer.seek(partition, groupOffset);
+            }
+        }
+    }
+
+    /**
+     * Состояние хабов отданных партиций больше не принадлежит воркеру: при повторном
+     * назначении оно будет восстановлено из хранилища, а не продолжит устаревшую версию в памяти
+     */
+    private void releasePartitions(Collection<TopicPartition> partitions) {
+        stateStore.close(partitions);
+        if (liveState != null) {
+            liveState.released(partitions);
+        }
+        for (TopicPartition partition : partitions) {
+            replayUntil.remove(partition);
+            uncommittedPartitions.remove(partition);
+            Set<String> hubIds = hubsByPartition.remove(partition);
+            if (hubIds != null) {
+                if (coalescer != null) {
+                    coalescer.discard(hubIds);
+                }
+                if (deltaTracker != null) {
+                    deltaTracker.evict(hubIds);
+                }
+                if (activityTracker != null) {
+                    activityTracker.forget(hubIds);
+                }
+                if (rollupTracker != null) {
+                    rollupTracker.evict(hubIds);
+                }
+                if (liveState != null) {
+                    liveState.remove(hubIds);
+                }
+                changedHubs.removeAll(hubIds);
+                snapshotService.evict(hubIds);
+            }
+        }
+    }
+
+    private void commitOffsets() {
+        try {
+            log.info("Воркер {}: коммитим финальные оффсеты", index);
+            flushPending();
+            if (rollupTracker != null) {
+                rollupTracker.flushAll().forEach(this::sendRollup);
+            }
+            if (txProducer != null) {
+                commitTransaction();
+            } else if (drainProducer()) {
+                stateStore.flush(currentOffsets);
+                consumer.commitSync(currentOffsets);
+            }
+        } catch (Exception e) {
+            log.error("Воркер {}: ошибка при коммите финальных оффсетов", index, e);
+        } finally {
+            log.info("Воркер {}: закрываем консьюмер", index);
+            if (txProducer != null) {
+                txProducer.close();
+            }
+            consumer.close();
+        }
+    }
+
+    private record DeviceRemoval(String hubId, String sensorId) {
+    }
+}
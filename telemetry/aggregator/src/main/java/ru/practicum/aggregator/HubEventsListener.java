@@ -0,0 +1,74 @@
+package ru.practicum.aggregator;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import ru.yandex.practicum.kafka.telemetry.event.DeviceRemovedEventAvro;
+import ru.yandex.practicum.kafka.telemetry.event.HubEventAvro;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Читает топик хабов и раздаёт события удаления устройств воркерам. Каждый воркер
+ * применяет только события своих хабов, поэтому состояние по-прежнему меняет один поток.
+ * Чтение начинается с конца топика: удаления, пропущенные во время простоя, не применяются
+ */
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class HubEventsListener implements Runnable {
+    KafkaConsumer<String, HubEventAvro> consumer;
+    String topic;
+    List<AggregationWorker> workers;
+    long pollTimeoutMs;
+
+    public HubEventsListener(KafkaConsumer<String, HubEventAvro> consumer,
+                             String topic,
+                             List<AggregationWorker> workers,
+                             long pollTimeoutMs) {
+        this.consumer = consumer;
+        this.topic = topic;
+        this.workers = workers;
+        this.pollTimeoutMs = pollTimeoutMs;
+    }
+
+    @Override
+    public void run() {
+        try {
+            List<TopicPartition> partitions = consumer.partitionsFor(topic).stream()
+                    .map(info -> new TopicPartition(info.topic(), info.partition()))
+                    .toList();
+            consumer.assign(partitions);
+            consumer.seekToEnd(partitions);
+            log.info("Чтение удалений устройств из топика: {}, партиции: {}", topic, partitions);
+
+            while (true) {
+                ConsumerRecords<String, HubEventAvro> records = consumer.poll(Duration.ofMillis(pollTimeoutMs));
+                for (ConsumerRecord<String, HubEventAvro> record : records) {
+                    HubEventAvro event = record.value();
+                    if (event != null && event.getPayload() instanceof DeviceRemovedEventAvro removed) {
+                        log.debug("Удаление устройства: {} хаба: {}", removed.getId(), event.getHubId());
+                        for (AggregationWorker worker : workers) {
+                            worker.deviceRemoved(event.getHubId(), removed.getId());
+                        }
+                    }
+                }
+            }
+        } catch (WakeupException ignored) {
+            log.info("Consumer топика хабов пробуждён, выходим из цикла");
+        } catch (Exception e) {
+            log.error("Неожиданная ошибка в цикле consumer топика хабов", e);
+        } finally {
+            consumer.close();
+        }
+    }
+
+    public void shutdown() {
+        consumer.wakeup();
+    }
+}
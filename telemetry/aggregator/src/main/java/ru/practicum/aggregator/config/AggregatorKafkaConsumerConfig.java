@@ -3,14 +3,19 @@ package ru.practicum.aggregator.config;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import ru.practicum.kafka.deserializer.BaseAvroDeserializer;
+import ru.practicum.kafka.deserializer.HubEventAvroDeserializer;
+import ru.practicum.aggregator.service.SnapshotFormat;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import lombok.experimental.FieldDefaults;
+import ru.yandex.practicum.kafka.telemetry.event.HubEventAvro;
 import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Properties;
 
 @Configuration
@@ -30,6 +35,9 @@ public class AggregatorKafkaConsumerConfig {
     @Value("${aggregator.kafka.topic.sensors}")
     String sensorTopic;
 
+    @Value("${aggregator.kafka.topic.hubs}")
+    String hubTopic;
+
     @Value("${spring.kafka.consumer.group-id}")
     String clientGroupId;
 
@@ -48,9 +56,119 @@ public class AggregatorKafkaConsumerConfig {
     @Value("${spring.kafka.consumer.properties.max.partition.fetch.bytes}")
     int maxPartitionFetchBytes;
 
-    @Bean
-    public KafkaConsumer<String, SensorEventAvro> kafkaConsumer() {
+    /**
+     * Каталог схем писателей других версий для чтения кадрированных записей
+     */
+    @Value("${aggregator.kafka.schema-registry-dir:}")
+    String schemaRegistryDir;
+
+    /**
+     * Количество воркеров агрегации. Каждый воркер - отдельный consumer той же группы,
+     * поэтому партиции топика сенсоров (а значит и хабы) делятся между ними без пересечений
+     */
+    @Value("${aggregator.workers:1}")
+    int workers;
+
+    /**
+     * Объединение изменений хаба: вместо снимка на каждое изменение отправляется один снимок
+     * на хаб за окно
+     */
+    @Value("${aggregator.coalescing.enabled:false}")
+    boolean coalescingEnabled;
+
+    /**
+     * Максимальная задержка отправки объединённого снимка. 0 - окно равно одной порции poll
+     */
+    @Value("${aggregator.coalescing.max-delay-ms:0}")
+    long coalescingMaxDelayMs;
+
+    @Value("${aggregator.snapshot.format:FULL}")
+    SnapshotFormat snapshotFormat;
+
+    /**
+     * Каждая N-я дельта хаба отправляется ключевым кадром с полным состоянием
+     */
+    @Value("${aggregator.snapshot.keyframe-interval:100}")
+    int keyframeInterval;
+
+    /**
+     * Допустимое опоздание события относительно водяного знака хаба (максимального времени его событий).
+     * Более поздние события отбрасываются и уходят в топик опоздавших, если он задан. -1 - без ограничения
+     */
+    @Value("${aggregator.event-time.allowed-lateness-ms:-1}")
+    long allowedLatenessMs;
+
+    /**
+     * Событие, время которого опережает часы воркера больше чем на это значение, отбрасывается: иначе
+     * сенсор с убежавшими часами сдвинул бы водяной знак хаба вперёд. -1 - без ограничения
+     */
+    @Value("${aggregator.event-time.max-clock-skew-ms:60000}")
+    long maxClockSkewMs;
+
+    /**
+     * Хаб без событий дольше этого времени вытесняется из памяти и хранилища. 0 - без ограничения
+     */
+    @Value("${aggregator.eviction.hub-ttl-ms:0}")
+    long hubTtlMs;
+
+    /**
+     * Максимальное количество хабов в памяти экземпляра, делится поровну между воркерами.
+     * Сверх лимита вытесняются хабы с самым давним событием. 0 - без ограничения
+     */
+    @Value("${aggregator.eviction.max-hubs:0}")
+    int maxHubs;
+
+    /**
+     * Удалять состояние сенсора при событии DeviceRemovedEventAvro из топика хабов
+     */
+    @Value("${aggregator.eviction.device-removal.enabled:false}")
+    boolean deviceRemovalEnabled;
+
+    /**
+     * Агрегаты показаний сенсоров (min/max/avg/count) в неперекрывающихся окнах по времени события
+     */
+    @Value("${aggregator.rollup.enabled:false}")
+    boolean rollupEnabled;
+
+    @Value("${aggregator.rollup.windows:1m,5m,1h}")
+    List<Duration> rollupWindows;
+
+    /**
+     * Окно закрывается, когда водяной знак хаба уходит за его границу на это время
+     */
+    @Value("${aggregator.rollup.grace-ms:60000}")
+    long rollupGraceMs;
+
+    /**
+     * Как часто воркер ищет окна, готовые к закрытию
+     */
+    @Value("${aggregator.rollup.check-interval-ms:1000}")
+    long rollupCheckIntervalMs;
+
+    /**
+     * Создаёт отдельный consumer для воркера с заданным номером
+     */
+    public KafkaConsumer<String, SensorEventAvro> kafkaConsumer(int workerIndex) {
         Properties properties = getConsumerProperties();
+        properties.put(ConsumerConfig.CLIENT_ID_CONFIG, clientGroupId + "-worker-" + workerIndex);
+        return new KafkaConsumer<>(properties);
+    }
+
+    /**
+     * Consumer топика хабов без группы: каждый экземпляр читает все партиции сам
+     * и получает события удаления устройств для любого из своих хабов
+     */
+    public KafkaConsumer<String, HubEventAvro> hubEventsConsumer() {
+        Properties properties = new Properties();
+
+        properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        properties.put(ConsumerConfig.CLIENT_ID_CONFIG, clientGroupId + "-hub-events");
+        properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, keyDeserializer);
+        properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, HubEventAvroDeserializer.class);
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        properties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        properties.put(BaseAvroDeserializer.SCHEMA_REGISTRY_DIR_CONFIG, schemaRegistryDir);
+
         return new KafkaConsumer<>(properties);
     }
 
@@ -66,6 +184,7 @@ public class AggregatorKafkaConsumerConfig {
         properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, enableAutoCommit);
         properties.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, fetchMaxWaitMs);
         properties.put(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG, maxPartitionFetchBytes);
+        properties.put(BaseAvroDeserializer.SCHEMA_REGISTRY_DIR_CONFIG, schemaRegistryDir);
 
         return properties;
     }
@@ -0,0 +1,173 @@
+package ru.practicum.aggregator.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.kafka.KafkaClientMetrics;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerProducerListener;
+import org.springframework.kafka.core.ProducerFactory;
+import ru.practicum.kafka.serializer.GeneralAvroSerializer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+@Configuration
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Slf4j
+@Getter
+@RequiredArgsConstructor
+public class AggregatorKafkaProducerConfig {
+    final MeterRegistry meterRegistry;
+
+    @Value("${spring.kafka.producer.bootstrap-servers}")
+    String bootstrapServers;
+
+    @Value("${spring.kafka.producer.key-serializer}")
+    String keySerializer;
+
+    @Value("${spring.kafka.producer.value-serializer}")
+    String valueSerializer;
+
+    @Value("${aggregator.kafka.topic.snapshots}")
+    String snapshotsTopic;
+
+    @Value("${aggregator.kafka.topic.snapshot-deltas}")
+    String deltasTopic;
+
+    @Value("${aggregator.kafka.topic.late-events:}")
+    String lateEventsTopic;
+
+    @Value("${aggregator.kafka.topic.rollups:}")
+    String rollupsTopic;
+
+    @Value("${aggregator.producer.acks:all}")
+    String acks;
+
+    @Value("${aggregator.producer.enable-idempotence:true}")
+    boolean enableIdempotence;
+
+    @Value("${aggregator.producer.linger-ms:20}")
+    int lingerMs;
+
+    @Value("${aggregator.producer.batch-size:131072}")
+    int batchSize;
+
+    /**
+     * none, gzip, snappy, lz4 или zstd
+     */
+    @Value("${aggregator.producer.compression-type:lz4}")
+    String compressionType;
+
+    /**
+     * Кадрировать записи заголовком с отпечатком схемы для независимого обновления сервисов
+     */
+    @Value("${aggregator.producer.single-object-encoding:false}")
+    boolean singleObjectEncoding;
+
+    /**
+     * Предел записей, отправленных без подтверждения брокера. При его достижении воркер ждёт
+     */
+    @Value("${aggregator.producer.max-in-flight:10000}")
+    int maxInFlight;
+
+    /**
+     * На уровне INFO логируется каждая N-я подтверждённая запись
+     */
+    @Value("${aggregator.producer.log-sample-rate:1000}")
+    int logSampleRate;
+
+    /**
+     * Режим exactly-once: снимки и оффсеты consumer'а фиксируются одной транзакцией Kafka
+     */
+    @Value("${aggregator.transactions.enabled:false}")
+    boolean transactionsEnabled;
+
+    @Value("${aggregator.transactions.transactional-id-prefix:aggregator-tx}")
+    String transactionalIdPrefix;
+
+    /**
+     * Транзакция фиксируется, как только обработано столько записей...
+     */
+    @Value("${aggregator.transactions.max-records:500}")
+    int transactionMaxRecords;
+
+    /**
+     * ...или прошло столько миллисекунд с её начала
+     */
+    @Value("${aggregator.transactions.max-ms:100}")
+    long transactionMaxMs;
+
+    @Value("${aggregator.transactions.timeout-ms:60000}")
+    int transactionTimeoutMs;
+
+    /**
+     * Идентификатор экземпляра в transactional.id. Фенсинг зомби обеспечивается метаданными группы
+     * в sendOffsetsToTransaction, поэтому идентификатору достаточно быть уникальным
+     */
+    final String instanceId = UUID.randomUUID().toString();
+
+    @Bean
+    public ProducerFactory<String, SpecificRecordBase> snapshotProducerFactory() {
+        Map<String, Object> props = getProducerProperties();
+
+        log.debug("Создание snapshotProducerFactory с конфигурацией: {}", props);
+
+        DefaultKafkaProducerFactory<String, SpecificRecordBase> factory = new DefaultKafkaProducerFactory<>(props);
+        factory.addListener(new MicrometerProducerListener<>(meterRegistry));
+        return factory;
+    }
+
+    @Bean
+    public KafkaTemplate<String, SpecificRecordBase> snapshotKafkaTemplate() {
+        return new KafkaTemplate<>(snapshotProducerFactory());
+    }
+
+    /**
+     * Создаёт транзакционный producer для воркера с заданным номером
+     */
+    public KafkaProducer<String, SpecificRecordBase> transactionalProducer(int workerIndex) {
+        Properties properties = new Properties();
+
+        properties.putAll(getProducerProperties());
+        properties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        properties.put(ProducerConfig.ACKS_CONFIG, "all");
+        properties.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG,
+                transactionalIdPrefix + "-" + instanceId + "-" + workerIndex);
+        properties.put(ProducerConfig.TRANSACTION_TIMEOUT_CONFIG, transactionTimeoutMs);
+
+        log.debug("Создание транзакционного producer'а воркера {} с конфигурацией: {}", workerIndex, properties);
+
+        KafkaProducer<String, SpecificRecordBase> producer = new KafkaProducer<>(properties);
+        new KafkaClientMetrics(producer).bindTo(meterRegistry);
+        return producer;
+    }
+
+    private Map<String, Object> getProducerProperties() {
+        Map<String, Object> props = new HashMap<>();
+
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, keySerializer);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, valueSerializer);
+        props.put(ProducerConfig.ACKS_CONFIG, acks);
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, enableIdempotence);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        props.put(GeneralAvroSerializer.SINGLE_OBJECT_CONFIG, singleObjectEncoding);
+
+        return props;
+    }
+}
@@ -0,0 +1,141 @@
+package ru.practicum.aggregator.controller;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import lombok.AccessLevel;
+import lombok.extern.slf4j.Slf4j;
+import lombok.experimental.FieldDefaults;
+import net.devh.boot.grpc.server.service.GrpcService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import ru.practicum.aggregator.query.HubStateProtoMapper;
+import ru.practicum.aggregator.query.HubStateView;
+import ru.practicum.aggregator.query.PartitionOwnerResolver;
+import ru.yandex.practicum.grpc.telemetry.aggregator.AggregatorQueryGrpc;
+import ru.yandex.practicum.grpc.telemetry.aggregator.ChangedHubsProto;
+import ru.yandex.practicum.grpc.telemetry.aggregator.ChangedHubsRequestProto;
+import ru.yandex.practicum.grpc.telemetry.aggregator.HubSnapshotProto;
+import ru.yandex.practicum.grpc.telemetry.aggregator.HubSnapshotRequestProto;
+import ru.yandex.practicum.grpc.telemetry.aggregator.SensorStateProto;
+import ru.yandex.practicum.grpc.telemetry.aggregator.SensorStateRequestProto;
+import ru.yandex.practicum.kafka.telemetry.event.SensorStateAvro;
+
+import java.util.List;
+
+/**
+ * Запросы на чтение состояния хабов. Ответы строятся из {@link HubStateView} без обращения к воркерам.
+ * Хаб чужой партиции не проксируется: клиент получает NOT_FOUND с адресом владельца в trailer-метаданных
+ */
+@Slf4j
+@GrpcService
+@ConditionalOnProperty(name = "aggregator.query.enabled", havingValue = "true")
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@SuppressWarnings("unused")
+public class AggregatorQueryController extends AggregatorQueryGrpc.AggregatorQueryImplBase {
+    public static final Metadata.Key<String> OWNER_KEY =
+            Metadata.Key.of("aggregator-owner", Metadata.ASCII_STRING_MARSHALLER);
+
+    HubStateView view;
+    PartitionOwnerResolver ownerResolver;
+    HubStateProtoMapper mapper;
+    int maxChangedHubs;
+
+    public AggregatorQueryController(HubStateView view,
+                                     PartitionOwnerResolver ownerResolver,
+                                     HubStateProtoMapper mapper,
+                                     @Value("${aggregator.query.max-changed-hubs:1000}") int maxChangedHubs) {
+        this.view = view;
+        this.ownerResolver = ownerResolver;
+        this.mapper = mapper;
+        this.maxChangedHubs = maxChangedHubs;
+    }
+
+    @Override
+    public void getHubSnapshot(HubSnapshotRequestProto request, StreamObserver<HubSnapshotProto> responseObserver) {
+        try {
+            HubStateView.HubState state = findHub(request.getHubId());
+            responseObserver.onNext(mapper.toProto(state));
+            responseObserver.onCompleted();
+        } catch (StatusRuntimeException e) {
+            responseObserver.onError(e);
+        } catch (Exception e) {
+            responseObserver.onError(new StatusRuntimeException(Status.INTERNAL.withDescription(e.getMessage())
+                    .withCause(e)));
+        }
+    }
+
+    @Override
+    public void getSensorState(SensorStateRequestProto request, StreamObserver<SensorStateProto> responseObserver) {
+        try {
+            HubStateView.HubState state = findHub(request.getHubId());
+            SensorStateAvro sensorState = state.sensors().get(request.getSensorId());
+            if (sensorState == null) {
+                throw new StatusRuntimeException(Status.NOT_FOUND.withDescription(
+                        "Сенсор " + request.getSensorId() + " хаба " + request.getHubId() + " не найден"));
+            }
+            responseObserver.onNext(mapper.toProto(request.getSensorId(), sensorState));
+            responseObserver.onCompleted();
+        } catch (StatusRuntimeException e) {
+            responseObserver.onError(e);
+        } catch (Exception e) {
+            responseObserver.onError(new StatusRuntimeException(Status.INTERNAL.withDescription(e.getMessage())
+                    .withCause(e)));
+        }
+    }
+
+    @Override
+    public void listChangedHubs(ChangedHubsRequestProto request, StreamObserver<ChangedHubsProto> responseObserver) {
+        try {
+            long since = request.hasSince() ? HubStateProtoMapper.epochMicros(request.getSince()) : 0;
+            int limit = request.getLimit() > 0 ? Math.min(request.getLimit(), maxChangedHubs) : maxChangedHubs;
+            // изменения позже водяного знака вернутся и в следующем ответе: клиент их перезапишет
+            long asOf = Math.max(since, view.watermark());
+
+            // на один хаб больше предела, чтобы понять, обрезан ли список
+            List<HubStateView.HubState> changed = view.changedSince(since, limit + 1);
+            boolean truncated = changed.size() > limit;
+            if (truncated) {
+                changed = changed.subList(0, limit);
+                // продолжение списка начнётся после последнего отданного хаба
+                asOf = changed.getLast().updatedAt();
+            }
+
+            ChangedHubsProto.Builder builder = ChangedHubsProto.newBuilder()
+                    .setAsOf(HubStateProtoMapper.timestamp(asOf))
+                    .setTruncated(truncated);
+            changed.forEach(state -> builder.addHubs(mapper.toChangedProto(state)));
+            responseObserver.onNext(builder.build());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(new StatusRuntimeException(Status.INTERNAL.withDescription(e.getMessage())
+                    .withCause(e)));
+        }
+    }
+
+    /**
+     * Снимок хаба этого экземпляра. Для хаба чужой партиции бросает NOT_FOUND с адресом владельца
+     */
+    private HubStateView.HubState findHub(String hubId) {
+        HubStateView.HubState state = view.get(hubId);
+        if (state != null) {
+            return state;
+        }
+
+        int partition = ownerResolver.partitionOf(hubId);
+        if (partition >= 0 && view.owns(partition)) {
+            throw new StatusRuntimeException(Status.NOT_FOUND.withDescription("Хаб " + hubId + " не найден"));
+        }
+        String owner = ownerResolver.ownerOf(hubId);
+        if (owner == null) {
+            throw new StatusRuntimeException(Status.UNAVAILABLE.withDescription(
+                    "Экземпляр, обслуживающий хаб " + hubId + ", неизвестен"));
+        }
+        log.debug("Хаб {} обслуживается экземпляром {}", hubId, owner);
+        Metadata trailers = new Metadata();
+        trailers.put(OWNER_KEY, owner);
+        throw new StatusRuntimeException(Status.NOT_FOUND.withDescription(
+                "Хаб " + hubId + " обслуживается экземпляром " + owner), trailers);
+    }
+}
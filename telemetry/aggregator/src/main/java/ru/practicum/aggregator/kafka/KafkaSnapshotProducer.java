@@ -1,37 +1,157 @@
 package ru.practicum.aggregator.kafka;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import org.apache.avro.specific.SpecificRecordBase;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Component;
+import ru.practicum.aggregator.config.AggregatorKafkaProducerConfig;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorRollupAvro;
 import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotDeltaAvro;
 
+import java.time.Instant;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Нетранзакционная отправка снимков. Число неподтверждённых записей ограничено: при исчерпании
+ * лимита {@link #send} блокирует поток воркера, и чтение топика сенсоров притормаживает вместе с отправкой.
+ * Перед фиксацией оффсетов воркер вызывает {@link #flush}, чтобы не подтвердить записи, которые брокер не принял.
+ * Каждая запись логируется на уровне DEBUG, на уровне INFO - только каждая N-я
+ */
 @Slf4j
 @Component
-@RequiredArgsConstructor(onConstructor_ = @Autowired)
 public class KafkaSnapshotProducer {
-    private final KafkaTemplate<String, SensorsSnapshotAvro> kafkaTemplate;
+    private final KafkaTemplate<String, SpecificRecordBase> kafkaTemplate;
+    private final String snapshotsTopic;
+    private final String deltasTopic;
+    private final String lateEventsTopic;
+    private final String rollupsTopic;
+    private final Semaphore inFlight;
+    private final long logSampleRate;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Timer snapshotLatency;
+    private final Timer deltaLatency;
+    private final Timer lateEventLatency;
+    private final Timer rollupLatency;
+
+    public KafkaSnapshotProducer(KafkaTemplate<String, SpecificRecordBase> kafkaTemplate,
+                                 AggregatorKafkaProducerConfig config,
+                                 MeterRegistry meterRegistry) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.snapshotsTopic = config.getSnapshotsTopic();
+        this.deltasTopic = config.getDeltasTopic();
+        this.lateEventsTopic = config.getLateEventsTopic();
+        this.rollupsTopic = config.getRollupsTopic();
+        this.inFlight = new Semaphore(Math.max(1, config.getMaxInFlight()));
+        this.logSampleRate = Math.max(1, config.getLogSampleRate());
 
-    @Value("${aggregator.kafka.topic.snapshots}")
-    private String snapshotsTopic;
+        Gauge.builder("aggregator.producer.in-flight", inFlight,
+                        semaphore -> Math.max(1, config.getMaxInFlight()) - semaphore.availablePermits())
+                .description("Записи, отправленные без подтверждения брокера")
+                .register(meterRegistry);
+        this.snapshotLatency = sendLatency(meterRegistry, "snapshot");
+        this.deltaLatency = sendLatency(meterRegistry, "delta");
+        this.lateEventLatency = sendLatency(meterRegistry, "late-event");
+        this.rollupLatency = sendLatency(meterRegistry, "rollup");
+    }
 
     public void send(SensorsSnapshotAvro avroSnapshot) {
+        send(snapshotsTopic, avroSnapshot.getHubId(), avroSnapshot.getTimestamp(), avroSnapshot, snapshotLatency);
+    }
+
+    public void sendDelta(SensorsSnapshotDeltaAvro avroDelta) {
+        send(deltasTopic, avroDelta.getHubId(), avroDelta.getTimestamp(), avroDelta, deltaLatency);
+    }
+
+    /**
+     * Отправляет опоздавшее событие в побочный топик, если он задан
+     */
+    public void sendLateEvent(SensorEventAvro avroSensorEvent) {
+        if (lateEventsTopic.isBlank()) {
+            return;
+        }
+        send(lateEventsTopic, avroSensorEvent.getHubId(), avroSensorEvent.getTimestamp(), avroSensorEvent,
+                lateEventLatency);
+    }
+
+    /**
+     * Отправляет агрегат закрытого окна, если топик агрегатов задан. Время записи - конец окна
+     */
+    public void sendRollup(SensorRollupAvro rollup) {
+        if (rollupsTopic.isBlank()) {
+            return;
+        }
+        send(rollupsTopic, rollup.getHubId(), rollup.getWindowStart().plusMillis(rollup.getWindowSizeMs()), rollup,
+                rollupLatency);
+    }
+
+    /**
+     * Дожидается подтверждения или ошибки по всем отправленным записям. Producer общий для воркеров,
+     * поэтому ждать приходится и чужих записей
+     *
+     * @return число неудачных отправок с момента запуска; рост относительно прошлого вызова означает,
+     * что часть записей потеряна
+     */
+    public long flush() {
+        kafkaTemplate.flush();
+        return failed.get();
+    }
+
+    private void send(String topic, String hubId, Instant timestamp, SpecificRecordBase record, Timer latency) {
+        acquire(topic, hubId);
+        long startedAt = System.nanoTime();
+
+        log.debug("В топик: {} отправляется запись для хаба: {}", topic, hubId);
+
+        try {
+            kafkaTemplate.send(topic, null, timestamp.toEpochMilli(), hubId, record)
+                    .whenComplete((result, exception) -> {
+                        inFlight.release();
+                        latency.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                        if (exception != null) {
+                            failed.incrementAndGet();
+                            log.error("Не удалось отправить запись в топик: {} для hubId: {}: {}",
+                                    topic, hubId, exception.getMessage());
+                            return;
+                        }
+                        long count = sent.incrementAndGet();
+                        if (count % logSampleRate == 0) {
+                            log.info("Отправлено записей: {}, последняя: топик {}, hubId {}, смещение {}",
+                                    count, topic, hubId, result.getRecordMetadata().offset());
+                        }
+                    });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void acquire(String topic, String hubId) {
+        if (inFlight.tryAcquire()) {
+            return;
+        }
+        log.debug("Лимит неподтверждённых записей исчерпан, ожидание перед отправкой в топик: {} для hubId: {}",
+                topic, hubId);
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ожидание отправки прервано", e);
+        }
+    }
 
-        log.info("В топик: {} отправляется снимок событий: {} для хаба: {}", snapshotsTopic, avroSnapshot,
-                avroSnapshot.getHubId());
-
-        kafkaTemplate.send(snapshotsTopic,null,
-                        avroSnapshot.getTimestamp().toEpochMilli(), avroSnapshot.getHubId(), avroSnapshot)
-                .whenComplete((result, exception) -> {
-                    if (exception == null) {
-                        log.info("Событие сенсора: {} для hubId: {} успешно отправлено, смещение: {}",
-                                avroSnapshot, avroSnapshot.getHubId(), result.getRecordMetadata().offset());
-                    } else {
-                        log.error("Не удалось отправить событие сенсора: {} для hubId: {}: {}",
-                                avroSnapshot, avroSnapshot.getHubId(), exception.getMessage());
-                    }
-                });
+    private static Timer sendLatency(MeterRegistry meterRegistry, String type) {
+        return Timer.builder("aggregator.producer.send.latency")
+                .description("Время от отправки записи до подтверждения брокера")
+                .tag("type", type)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
     }
 }
@@ -0,0 +1,143 @@
+package ru.practicum.aggregator.kafka;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorRollupAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotDeltaAvro;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Транзакционная отправка снимков одного воркера. Транзакция охватывает одну или несколько
+ * порций poll и фиксируется вместе с оффсетами consumer'а по достижении лимита записей или времени
+ */
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class TransactionalSnapshotProducer implements AutoCloseable {
+    final Producer<String, SpecificRecordBase> producer;
+    final String snapshotsTopic;
+    final String deltasTopic;
+    final String lateEventsTopic;
+    final String rollupsTopic;
+    final int maxRecords;
+    final long maxMs;
+
+    boolean active;
+    long startedAt;
+    int records;
+
+    public TransactionalSnapshotProducer(Producer<String, SpecificRecordBase> producer,
+                                         String snapshotsTopic,
+                                         String deltasTopic,
+                                         String lateEventsTopic,
+                                         String rollupsTopic,
+                                         int maxRecords,
+                                         long maxMs) {
+        this.producer = producer;
+        this.snapshotsTopic = snapshotsTopic;
+        this.deltasTopic = deltasTopic;
+        this.lateEventsTopic = lateEventsTopic;
+        this.rollupsTopic = rollupsTopic;
+        this.maxRecords = maxRecords;
+        this.maxMs = maxMs;
+        producer.initTransactions();
+    }
+
+    /**
+     * Открывает транзакцию, если она ещё не открыта
+     */
+    public void begin() {
+        if (!active) {
+            producer.beginTransaction();
+            active = true;
+            startedAt = System.currentTimeMillis();
+            records = 0;
+        }
+    }
+
+    public void send(SensorsSnapshotAvro snapshot) {
+        producer.send(new ProducerRecord<>(snapshotsTopic, null,
+                snapshot.getTimestamp().toEpochMilli(), snapshot.getHubId(), snapshot));
+    }
+
+    public void sendDelta(SensorsSnapshotDeltaAvro delta) {
+        producer.send(new ProducerRecord<>(deltasTopic, null,
+                delta.getTimestamp().toEpochMilli(), delta.getHubId(), delta));
+    }
+
+    /**
+     * Отправляет опоздавшее событие в побочный топик, если он задан
+     */
+    public void sendLateEvent(SensorEventAvro event) {
+        if (lateEventsTopic == null || lateEventsTopic.isBlank()) {
+            return;
+        }
+        producer.send(new ProducerRecord<>(lateEventsTopic, null,
+                event.getTimestamp().toEpochMilli(), event.getHubId(), event));
+    }
+
+    public void sendRollup(SensorRollupAvro rollup) {
+        if (rollupsTopic == null || rollupsTopic.isBlank()) {
+            return;
+        }
+        producer.send(new ProducerRecord<>(rollupsTopic, null,
+                rollup.getWindowStart().toEpochMilli() + rollup.getWindowSizeMs(), rollup.getHubId(), rollup));
+    }
+
+    /**
+     * Учитывает обработанные записи consumer'а в размере текущей транзакции
+     */
+    public void recordsProcessed(int count) {
+        records += count;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public boolean shouldCommit() {
+        return active && (records >= maxRecords || System.currentTimeMillis() - startedAt >= maxMs);
+    }
+
+    /**
+     * Фиксирует снимки и оффсеты одной транзакцией
+     */
+    public void commit(Map<TopicPartition, OffsetAndMetadata> offsets, ConsumerGroupMetadata groupMetadata) {
+        if (!active) {
+            return;
+        }
+        if (!offsets.isEmpty()) {
+            producer.sendOffsetsToTransaction(offsets, groupMetadata);
+        }
+        producer.commitTransaction();
+        active = false;
+        log.debug("Транзакция зафиксирована: записей={}, оффсеты={}", records, offsets);
+    }
+
+    /**
+     * Откатывает транзакцию. Если producer в неустранимом состоянии, исключение пробрасывается
+     */
+    public void abort() {
+        if (!active) {
+            return;
+        }
+        active = false;
+        producer.abortTransaction();
+        log.warn("Транзакция откачена: записей={}", records);
+    }
+
+    @Override
+    public void close() {
+        producer.close(Duration.ofSeconds(5));
+    }
+}
@@ -0,0 +1,89 @@
+package ru.practicum.aggregator.query;
+
+import com.google.protobuf.Timestamp;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.grpc.telemetry.aggregator.ChangedHubProto;
+import ru.yandex.practicum.grpc.telemetry.aggregator.HubSnapshotProto;
+import ru.yandex.practicum.grpc.telemetry.aggregator.SensorStateProto;
+import ru.yandex.practicum.grpc.telemetry.event.ClimateSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.LightSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.MotionSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.SwitchSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.TemperatureSensorProto;
+import ru.yandex.practicum.kafka.telemetry.event.ClimateSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.LightSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.MotionSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorStateAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SwitchSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.TemperatureSensorAvro;
+
+import java.time.Instant;
+
+@Component
+@ConditionalOnProperty(name = "aggregator.query.enabled", havingValue = "true")
+public class HubStateProtoMapper {
+
+    public HubSnapshotProto toProto(HubStateView.HubState state) {
+        HubSnapshotProto.Builder builder = HubSnapshotProto.newBuilder()
+                .setHubId(state.hubId())
+                .setTimestamp(timestamp(state.timestamp()))
+                .setUpdatedAt(timestamp(state.updatedAt()));
+        state.sensors().forEach((sensorId, sensorState) -> builder.addSensors(toProto(sensorId, sensorState)));
+        return builder.build();
+    }
+
+    public ChangedHubProto toChangedProto(HubStateView.HubState state) {
+        return ChangedHubProto.newBuilder()
+                .setHubId(state.hubId())
+                .setTimestamp(timestamp(state.timestamp()))
+                .setUpdatedAt(timestamp(state.updatedAt()))
+                .build();
+    }
+
+    public SensorStateProto toProto(String sensorId, SensorStateAvro state) {
+        SensorStateProto.Builder builder = SensorStateProto.newBuilder()
+                .setSensorId(sensorId)
+                .setTimestamp(timestamp(state.getTimestamp()));
+
+        switch (state.getData()) {
+            case MotionSensorAvro motion -> builder.setMotionSensor(MotionSensorProto.newBuilder()
+                    .setLinkQuality(motion.getLinkQuality())
+                    .setMotion(motion.getMotion())
+                    .setVoltage(motion.getVoltage()));
+            case TemperatureSensorAvro temperature -> builder.setTemperatureSensor(TemperatureSensorProto.newBuilder()
+                    .setTemperatureC(temperature.getTemperatureC())
+                    .setTemperatureF(temperature.getTemperatureF()));
+            case LightSensorAvro light -> builder.setLightSensor(LightSensorProto.newBuilder()
+                    .setLinkQuality(light.getLinkQuality())
+                    .setLuminosity(light.getLuminosity()));
+            case ClimateSensorAvro climate -> builder.setClimateSensor(ClimateSensorProto.newBuilder()
+                    .setTemperatureC(climate.getTemperatureC())
+                    .setHumidity(climate.getHumidity())
+                    .setCo2Level(climate.getCo2Level()));
+            case SwitchSensorAvro sw -> builder.setSwitchSensor(SwitchSensorProto.newBuilder()
+                    .setState(sw.getState()));
+            case null, default -> {
+            }
+        }
+        return builder.build();
+    }
+
+    public static Timestamp timestamp(Instant instant) {
+        return Timestamp.newBuilder()
+                .setSeconds(instant.getEpochSecond())
+                .setNanos(instant.getNano())
+                .build();
+    }
+
+    public static Timestamp timestamp(long epochMicros) {
+        return Timestamp.newBuilder()
+                .setSeconds(Math.floorDiv(epochMicros, 1_000_000))
+                .setNanos((int) Math.floorMod(epochMicros, 1_000_000) * 1_000)
+                .build();
+    }
+
+    public static long epochMicros(Timestamp timestamp) {
+        return timestamp.getSeconds() * 1_000_000 + timestamp.getNanos() / 1_000;
+    }
+}
@@ -0,0 +1,115 @@
+package ru.practicum.aggregator.query;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.kafka.telemetry.event.SensorStateAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Представление состояния хабов для запросов на чтение.
+ * <p>
+ * Воркеры меняют снимки на месте, поэтому в представление публикуются неизменяемые копии:
+ * не чаще одного раза на хаб за порцию poll. Читатели получают опубликованную копию без блокировок
+ * и никак не задерживают цикл воркера.
+ * <p>
+ * Время публикации берётся из монотонных часов в микросекундах и уникально для каждой копии,
+ * поэтому список изменённых хабов можно читать частями, продолжая с времени последнего хаба
+ */
+@Component
+@ConditionalOnProperty(name = "aggregator.query.enabled", havingValue = "true")
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class HubStateView {
+    /**
+     * Запас на публикацию, которая получила время, но ещё не попала в карту
+     */
+    private static final long SETTLE_MICROS = 100_000;
+
+    Map<String, HubState> hubs = new ConcurrentHashMap<>();
+    AtomicLong clock = new AtomicLong();
+    Set<Integer> ownedPartitions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Публикует копию снимка хаба. Вызывается из потока воркера, которому принадлежит хаб
+     */
+    public void publish(SensorsSnapshotAvro snapshot) {
+        Map<String, SensorStateAvro> sensors = new HashMap<>(snapshot.getSensorsState().size() * 2);
+        // показания сенсоров не меняются на месте, меняется только ссылка в состоянии - его и копируем
+        snapshot.getSensorsState().forEach((sensorId, state) ->
+                sensors.put(sensorId, new SensorStateAvro(state.getTimestamp(), state.getData())));
+        hubs.put(snapshot.getHubId(),
+                new HubState(snapshot.getHubId(), snapshot.getTimestamp(), Map.copyOf(sensors), nextUpdateTime()));
+    }
+
+    public void remove(Collection<String> hubIds) {
+        hubIds.forEach(hubs::remove);
+    }
+
+    public HubState get(String hubId) {
+        return hubs.get(hubId);
+    }
+
+    /**
+     * Хабы, изменённые строго после {@code since}, в порядке изменения
+     */
+    public List<HubState> changedSince(long since, int limit) {
+        List<HubState> changed = new ArrayList<>();
+        for (HubState state : hubs.values()) {
+            if (state.updatedAt() > since) {
+                changed.add(state);
+            }
+        }
+        changed.sort(Comparator.comparingLong(HubState::updatedAt));
+        return changed.size() > limit ? changed.subList(0, limit) : changed;
+    }
+
+    /**
+     * Время, до которого включительно все изменения уже видны читателям
+     */
+    public long watermark() {
+        return clock.updateAndGet(previous -> Math.max(previous, wallClockMicros())) - SETTLE_MICROS;
+    }
+
+    private long nextUpdateTime() {
+        return clock.updateAndGet(previous -> Math.max(previous + 1, wallClockMicros()));
+    }
+
+    private static long wallClockMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
+    }
+
+    public void assigned(Collection<TopicPartition> partitions) {
+        partitions.forEach(partition -> ownedPartitions.add(partition.partition()));
+    }
+
+    public void released(Collection<TopicPartition> partitions) {
+        partitions.forEach(partition -> ownedPartitions.remove(partition.partition()));
+    }
+
+    public boolean owns(int partition) {
+        return ownedPartitions.contains(partition);
+    }
+
+    /**
+     * Неизменяемая копия снимка хаба
+     *
+     * @param timestamp водяной знак хаба
+     * @param updatedAt время публикации на стороне агрегатора, мкс
+     */
+    public record HubState(String hubId, Instant timestamp, Map<String, SensorStateAvro> sensors, long updatedAt) {
+    }
+}
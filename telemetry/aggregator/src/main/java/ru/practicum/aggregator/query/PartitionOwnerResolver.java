@@ -0,0 +1,135 @@
+package ru.practicum.aggregator.query;
+
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.ConsumerGroupDescription;
+import org.apache.kafka.clients.admin.MemberDescription;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Utils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.aggregator.config.AggregatorKafkaConsumerConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Определяет экземпляр агрегатора, которому назначена партиция хаба.
+ * <p>
+ * Партиция вычисляется так же, как её выбирает producer коллектора для ключа hubId. Назначения
+ * партиций и адреса участников группы читаются через Admin API и кэшируются: обновление выполняет
+ * один поток запроса, остальные в это время пользуются предыдущим представлением
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "aggregator.query.enabled", havingValue = "true")
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class PartitionOwnerResolver {
+    Admin admin;
+    String topic;
+    String groupId;
+    int ownerPort;
+    long refreshMs;
+    long timeoutMs;
+    AtomicBoolean refreshing = new AtomicBoolean();
+
+    @NonFinal
+    volatile Ownership ownership;
+
+    public PartitionOwnerResolver(AggregatorKafkaConsumerConfig config,
+                                  @Value("${aggregator.query.owner-port:${grpc.server.port:9090}}") int ownerPort,
+                                  @Value("${aggregator.query.owner-refresh-ms:10000}") long refreshMs,
+                                  @Value("${aggregator.query.owner-timeout-ms:2000}") long timeoutMs) {
+        Properties properties = new Properties();
+        properties.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, config.getBootstrapServers());
+        properties.put(AdminClientConfig.CLIENT_ID_CONFIG, config.getClientGroupId() + "-query");
+        this.admin = Admin.create(properties);
+        this.topic = config.getSensorTopic();
+        this.groupId = config.getClientGroupId();
+        this.ownerPort = ownerPort;
+        this.refreshMs = refreshMs;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Номер партиции хаба или -1, если число партиций ещё неизвестно
+     */
+    public int partitionOf(String hubId) {
+        Ownership current = current();
+        return current == null ? -1 : partitionOf(hubId, current.partitions());
+    }
+
+    /**
+     * Адрес экземпляра, которому назначена партиция хаба, или {@code null}, если владелец неизвестен
+     */
+    public String ownerOf(String hubId) {
+        Ownership current = current();
+        if (current == null) {
+            return null;
+        }
+        return current.owners().get(partitionOf(hubId, current.partitions()));
+    }
+
+    static int partitionOf(String hubId, int partitions) {
+        return Utils.toPositive(Utils.murmur2(hubId.getBytes(StandardCharsets.UTF_8))) % partitions;
+    }
+
+    private Ownership current() {
+        Ownership current = ownership;
+        if ((current == null || System.currentTimeMillis() - current.fetchedAt() >= refreshMs)
+                && refreshing.compareAndSet(false, true)) {
+            try {
+                current = fetch();
+                ownership = current;
+            } catch (Exception e) {
+                log.warn("Не удалось получить назначения партиций группы {}: {}", groupId, e.getMessage());
+            } finally {
+                refreshing.set(false);
+            }
+        }
+        return current;
+    }
+
+    private Ownership fetch() throws Exception {
+        int partitions = admin.describeTopics(List.of(topic)).allTopicNames()
+                .get(timeoutMs, TimeUnit.MILLISECONDS).get(topic).partitions().size();
+        ConsumerGroupDescription group = admin.describeConsumerGroups(List.of(groupId)).describedGroups()
+                .get(groupId).get(timeoutMs, TimeUnit.MILLISECONDS);
+
+        Map<Integer, String> owners = new HashMap<>();
+        for (MemberDescription member : group.members()) {
+            String address = stripSlash(member.host()) + ":" + ownerPort;
+            for (TopicPartition partition : member.assignment().topicPartitions()) {
+                if (partition.topic().equals(topic)) {
+                    owners.put(partition.partition(), address);
+                }
+            }
+        }
+        log.debug("Назначения партиций топика {}: {}", topic, owners);
+        return new Ownership(partitions, Map.copyOf(owners), System.currentTimeMillis());
+    }
+
+    private static String stripSlash(String host) {
+        return host.startsWith("/") ? host.substring(1) : host;
+    }
+
+    @PreDestroy
+    public void close() {
+        admin.close(Duration.ofSeconds(5));
+    }
+
+    private record Ownership(int partitions, Map<Integer, String> owners, long fetchedAt) {
+    }
+}
@@ -0,0 +1,88 @@
+package ru.practicum.aggregator.service;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Активность хабов одного воркера в порядке последнего события. Выбирает хабы для вытеснения:
+ * сначала не получавшие событий дольше TTL, затем самые давние сверх лимита количества
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class HubActivityTracker {
+    long ttlMs;
+    int maxHubs;
+    LinkedHashMap<String, Activity> activityByHubId = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param ttlMs   время без событий, после которого хаб вытесняется; 0 - без ограничения
+     * @param maxHubs максимальное количество хабов воркера; 0 - без ограничения
+     */
+    public HubActivityTracker(long ttlMs, int maxHubs) {
+        this.ttlMs = ttlMs;
+        this.maxHubs = maxHubs;
+    }
+
+    public void touch(String hubId, TopicPartition partition, long now) {
+        Activity activity = activityByHubId.get(hubId);
+        if (activity == null) {
+            activityByHubId.put(hubId, new Activity(partition, now));
+        } else {
+            activity.lastEventAt = now;
+        }
+    }
+
+    /**
+     * Убирает из учёта вытесненные хабы и возвращает их
+     */
+    public List<EvictedHub> evict(long now) {
+        List<EvictedHub> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Activity>> iterator = activityByHubId.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Activity> entry = iterator.next();
+            Activity activity = entry.getValue();
+            boolean expired = ttlMs > 0 && now - activity.lastEventAt >= ttlMs;
+            boolean overflow = maxHubs > 0 && activityByHubId.size() > maxHubs;
+            if (!expired && !overflow) {
+                break;
+            }
+            iterator.remove();
+            evicted.add(new EvictedHub(entry.getKey(), activity.partition,
+                    expired ? EvictionReason.TTL : EvictionReason.LRU));
+        }
+        return evicted;
+    }
+
+    public boolean contains(String hubId) {
+        return activityByHubId.containsKey(hubId);
+    }
+
+    public void forget(Collection<String> hubIds) {
+        hubIds.forEach(activityByHubId::remove);
+    }
+
+    public enum EvictionReason {
+        TTL,
+        LRU
+    }
+
+    public record EvictedHub(String hubId, TopicPartition partition, EvictionReason reason) {
+    }
+
+    private static class Activity {
+        final TopicPartition partition;
+        long lastEventAt;
+
+        Activity(TopicPartition partition, long lastEventAt) {
+            this.partition = partition;
+            this.lastEventAt = lastEventAt;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package ru.practicum.aggregator.service;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import ru.yandex.practicum.kafka.telemetry.event.ClimateSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.LightSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.MetricRollupAvro;
+import ru.yandex.practicum.kafka.telemetry.event.MotionSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.RollupMetricAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorRollupAvro;
+import ru.yandex.practicum.kafka.telemetry.event.TemperatureSensorAvro;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Агрегаты показаний сенсоров воркера в неперекрывающихся окнах по времени события.
+ * <p>
+ * Для каждого сенсора и размера окна копятся количество, сумма, минимум и максимум каждой метрики
+ * в примитивных массивах. Окно хаба закрывается, когда его граница отстаёт от водяного знака хаба
+ * больше чем на допустимое опоздание. Пока хаб молчит, водяной знак сдвигается вместе с часами,
+ * чтобы окна неактивных хабов тоже закрывались. Событие уже закрытого окна в агрегаты не попадает.
+ * Событие из будущего дальше допустимого расхождения часов тоже отбрасывается до сдвига водяного знака:
+ * иначе оно закрыло бы все открытые окна хаба, а последующие настоящие показания попали бы в закрытые.
+ * <p>
+ * Агрегаты не сохраняются в хранилище состояния: после сбоя незакрытые окна теряются. При передаче
+ * хаба другому воркеру окна закрываются досрочно с признаком partial, и потребитель объединяет
+ * такие записи одного окна по count, sum, min и max
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class SensorRollupTracker {
+    private static final RollupMetricAvro[] METRICS = RollupMetricAvro.values();
+
+    long[] windowSizesMs;
+    long graceMs;
+    long checkIntervalMs;
+    long maxClockSkewMs;
+    Map<String, HubWindows> hubs = new HashMap<>();
+    int[] values = new int[METRICS.length];
+
+    @NonFinal
+    long nextCheckAt;
+
+    /**
+     * @param maxClockSkewMs насколько время события может опережать часы воркера; отрицательное - без ограничения
+     */
+    public SensorRollupTracker(List<Duration> windowSizes, long graceMs, long checkIntervalMs, long maxClockSkewMs) {
+        this.windowSizesMs = windowSizes.stream()
+                .mapToLong(Duration::toMillis)
+                .filter(size -> size > 0)
+                .distinct()
+                .toArray();
+        this.graceMs = Math.max(0, graceMs);
+        this.checkIntervalMs = Math.max(0, checkIntervalMs);
+        this.maxClockSkewMs = maxClockSkewMs;
+    }
+
+    /**
+     * Учитывает показание во всех окнах сенсора
+     *
+     * @return {@code false}, если хотя бы одно окно события уже закрыто или событие из будущего
+     */
+    public boolean add(SensorEventAvro event, long now) {
+        int present = extract(event.getPayload());
+        if (present == 0) {
+            return true;
+        }
+
+        long timestamp = event.getTimestamp().toEpochMilli();
+        if (maxClockSkewMs >= 0 && timestamp > now + maxClockSkewMs) {
+            return false;
+        }
+        HubWindows hub = hubs.computeIfAbsent(event.getHubId(), id -> new HubWindows(timestamp, now, graceMs));
+        hub.advance(now, graceMs);
+        hub.watermark = Math.max(hub.watermark, timestamp);
+        hub.lastSeenAt = now;
+        hub.advance(now, graceMs);
+
+        boolean accepted = true;
+        List<Window> windows = null;
+        for (long size : windowSizesMs) {
+            long start = Math.floorDiv(timestamp, size) * size;
+            if (start + size <= hub.frontier) {
+                accepted = false;
+                continue;
+            }
+            if (windows == null) {
+                windows = hub.sensors.computeIfAbsent(event.getId(), id -> new ArrayList<>(windowSizesMs.length));
+            }
+            Window window = find(windows, size, start);
+            if (window == null) {
+                window = new Window(size, start);
+                windows.add(window);
+                hub.nextEnd = Math.min(hub.nextEnd, window.end());
+            }
+            window.add(present, values);
+        }
+        return accepted;
+    }
+
+    /**
+     * Закрывает окна, граница которых прошла. Хабы проверяются не чаще интервала проверки
+     */
+    public List<SensorRollupAvro> closeDue(long now) {
+        if (now < nextCheckAt || hubs.isEmpty()) {
+            return List.of();
+        }
+        nextCheckAt = now + checkIntervalMs;
+
+        List<SensorRollupAvro> closed = new ArrayList<>();
+        for (Map.Entry<String, HubWindows> entry : hubs.entrySet()) {
+            HubWindows hub = entry.getValue();
+            hub.advance(now, graceMs);
+            if (hub.nextEnd <= hub.frontier) {
+                close(entry.getKey(), hub, hub.frontier, false, closed);
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Досрочно закрывает окна хабов, которые переходят к другому воркеру, и забывает их
+     */
+    public List<SensorRollupAvro> flush(Collection<String> hubIds) {
+        List<SensorRollupAvro> closed = new ArrayList<>();
+        for (String hubId : hubIds) {
+            HubWindows hub = hubs.remove(hubId);
+            if (hub != null) {
+                close(hubId, hub, Long.MAX_VALUE, true, closed);
+            }
+        }
+        return closed;
+    }
+
+    public List<SensorRollupAvro> flushAll() {
+        return flush(new ArrayList<>(hubs.keySet()));
+    }
+
+    /**
+     * Забывает хабы вместе с незакрытыми окнами
+     */
+    public void evict(Collection<String> hubIds) {
+        hubIds.forEach(hubs::remove);
+    }
+
+    private void close(String hubId, HubWindows hub, long frontier, boolean partial, List<SensorRollupAvro> closed) {
+        long nextEnd = Long.MAX_VALUE;
+        Iterator<Map.Entry<String, List<Window>>> sensors = hub.sensors.entrySet().iterator();
+        while (sensors.hasNext()) {
+            Map.Entry<String, List<Window>> sensor = sensors.next();
+            Iterator<Window> windows = sensor.getValue().iterator();
+            while (windows.hasNext()) {
+                Window window = windows.next();
+                if (window.end() <= frontier) {
+                    closed.add(window.toAvro(hubId, sensor.getKey(), partial));
+                    windows.remove();
+                } else {
+                    nextEnd = Math.min(nextEnd, window.end());
+                }
+            }
+            if (sensor.getValue().isEmpty()) {
+                sensors.remove();
+            }
+        }
+        hub.nextEnd = nextEnd;
+    }
+
+    private static Window find(List<Window> windows, long size, long start) {
+        for (Window window : windows) {
+            if (window.size == size && window.start == start) {
+                return window;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Раскладывает показание по метрикам в {@link #values}
+     *
+     * @return битовая маска метрик, присутствующих в показании
+     */
+    private int extract(Object payload) {
+        return switch (payload) {
+            case TemperatureSensorAvro temperature ->
+                    put(RollupMetricAvro.TEMPERATURE_C, temperature.getTemperatureC());
+            case ClimateSensorAvro climate -> put(RollupMetricAvro.TEMPERATURE_C, climate.getTemperatureC())
+                    | put(RollupMetricAvro.HUMIDITY, climate.getHumidity())
+                    | put(RollupMetricAvro.CO2_LEVEL, climate.getCo2Level());
+            case LightSensorAvro light -> put(RollupMetricAvro.LUMINOSITY, light.getLuminosity());
+            case MotionSensorAvro motion -> put(RollupMetricAvro.MOTION, motion.getMotion() ? 1 : 0);
+            case null, default -> 0;
+        };
+    }
+
+    private int put(RollupMetricAvro metric, int value) {
+        values[metric.ordinal()] = value;
+        return 1 << metric.ordinal();
+    }
+
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    private static final class HubWindows {
+        final Map<String, List<Window>> sensors = new HashMap<>();
+        long watermark;
+        long lastSeenAt;
+        /**
+         * Окна с границей не позже этого времени закрыты. Значение только растёт
+         */
+        long frontier;
+        long nextEnd = Long.MAX_VALUE;
+
+        HubWindows(long watermark, long now, long graceMs) {
+            this.watermark = watermark;
+            this.lastSeenAt = now;
+            this.frontier = watermark - graceMs;
+        }
+
+        /**
+         * Сдвигает границу закрытых окон: водяной знак хаба минус допустимое опоздание
+         * плюс время, которое хаб молчит
+         */
+        void advance(long now, long graceMs) {
+            frontier = Math.max(frontier, watermark + Math.max(0, now - lastSeenAt) - graceMs);
+        }
+    }
+
+    @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+    private static final class Window {
+        long size;
+        long start;
+        long[] count = new long[METRICS.length];
+        long[] sum = new long[METRICS.length];
+        int[] min = new int[METRICS.length];
+        int[] max = new int[METRICS.length];
+
+        Window(long size, long start) {
+            this.size = size;
+            this.start = start;
+        }
+
+        long end() {
+            return start + size;
+        }
+
+        void add(int present, int[] values) {
+            for (int i = 0; i < METRICS.length; i++) {
+                if ((present & (1 << i)) == 0) {
+                    continue;
+                }
+                int value = values[i];
+                if (count[i] == 0) {
+                    min[i] = value;
+                    max[i] = value;
+                } else {
+                    min[i] = Math.min(min[i], value);
+                    max[i] = Math.max(max[i], value);
+                }
+                count[i]++;
+                sum[i] += value;
+            }
+        }
+
+        SensorRollupAvro toAvro(String hubId, String sensorId, boolean partial) {
+            List<MetricRollupAvro> metrics = new ArrayList<>(METRICS.length);
+            for (int i = 0; i < METRICS.length; i++) {
+                if (count[i] == 0) {
+                    continue;
+                }
+                metrics.add(MetricRollupAvro.newBuilder()
+                        .setMetric(METRICS[i])
+                        .setCount(count[i])
+                        .setMin(min[i])
+                        .setMax(max[i])
+                        .setSum(sum[i])
+                        .setAvg((double) sum[i] / count[i])
+                        .build());
+            }
+            return SensorRollupAvro.newBuilder()
+                    .setHubId(hubId)
+                    .setSensorId(sensorId)
+                    .setWindowStart(Instant.ofEpochMilli(start))
+                    .setWindowSizeMs(size)
+                    .setPartial(partial)
+                    .setMetrics(metrics)
+                    .build();
+        }
+    }
+}
@@ -3,13 +3,18 @@ package ru.practicum.aggregator.service;
 import lombok.AccessLevel;
 import lombok.experimental.FieldDefaults;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.kafka.telemetry.event.ClimateSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.LightSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.MotionSensorAvro;
 import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
 import ru.yandex.practicum.kafka.telemetry.event.SensorStateAvro;
 import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SwitchSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.TemperatureSensorAvro;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Service
@@ -17,43 +22,145 @@ import java.util.concurrent.ConcurrentHashMap;
 public class SensorSnapshotService {
     Map<String, SensorsSnapshotAvro> snapshotsByHubId = new ConcurrentHashMap<>();
 
-    public Optional<SensorsSnapshotAvro> updateSnapshot(SensorEventAvro avroSensorEvent) {
+    /**
+     * Применяет событие сенсора к снимку хаба. Горячий путь: состояние сенсора обновляется на месте,
+     * а payload сравнивается по примитивным полям без промежуточных объектов
+     *
+     * @return изменённый снимок хаба или {@code null}, если событие устарело или ничего не изменило
+     */
+    public SensorsSnapshotAvro updateSnapshot(SensorEventAvro avroSensorEvent) {
         /**
          * Получаем текущий снимок сенсоров для заданного идентификатора хаба
          * Если его нет, то создаем
          */
-        SensorsSnapshotAvro currentSnapshot = snapshotsByHubId.computeIfAbsent(avroSensorEvent.getHubId(), hubId ->
-                SensorsSnapshotAvro.newBuilder()
-                        .setHubId(hubId)
-                        .setSensorsState(new HashMap<>())
-                        .setTimestamp(avroSensorEvent.getTimestamp())
-                        .build()
-        );
+        String hubId = avroSensorEvent.getHubId();
+        SensorsSnapshotAvro currentSnapshot = snapshotsByHubId.get(hubId);
+        if (currentSnapshot == null) {
+            currentSnapshot = new SensorsSnapshotAvro(hubId, avroSensorEvent.getTimestamp(), new HashMap<>());
+            snapshotsByHubId.put(hubId, currentSnapshot);
+        }
 
         /**
          * Получаем предыдущее состояние сенсора по его идентификатору
          */
-        SensorStateAvro previousSensorState = currentSnapshot.getSensorsState().get(avroSensorEvent.getId());
+        Map<String, SensorStateAvro> sensorsState = currentSnapshot.getSensorsState();
+        SensorStateAvro previousSensorState = sensorsState.get(avroSensorEvent.getId());
+
+        if (previousSensorState == null) {
+            sensorsState.put(avroSensorEvent.getId(),
+                    new SensorStateAvro(avroSensorEvent.getTimestamp(), avroSensorEvent.getPayload()));
+        } else {
+            /**
+             * Проверяем условия для возврата пустого результата
+             * Если время создания старого события позже или событие осталось без изменения
+             */
+            if (previousSensorState.getTimestamp().isAfter(avroSensorEvent.getTimestamp()) ||
+                    samePayload(previousSensorState.getData(), avroSensorEvent.getPayload())) {
+                return null;
+            }
+            previousSensorState.setTimestamp(avroSensorEvent.getTimestamp());
+            previousSensorState.setData(avroSensorEvent.getPayload());
+        }
 
         /**
-         * Проверяем условия для возврата пустого результата
-         * Если время создания старого события позже или событие осталось без изменения
+         * Время снимка - водяной знак хаба: максимальное время применённого события, назад не сдвигается
          */
-        if (previousSensorState != null && (
-                previousSensorState.getTimestamp().isAfter(avroSensorEvent.getTimestamp()) ||
-                previousSensorState.getData().equals(avroSensorEvent.getPayload())
-        )) {
-            return Optional.empty();
+        if (avroSensorEvent.getTimestamp().isAfter(currentSnapshot.getTimestamp())) {
+            currentSnapshot.setTimestamp(avroSensorEvent.getTimestamp());
+        }
+
+        return currentSnapshot;
+    }
+
+    /**
+     * Событие из будущего: его время опережает часы приёма больше чем на допустимое расхождение.
+     * Такое событие не применяется и не сдвигает водяной знак хаба. Отрицательное расхождение отключает проверку
+     */
+    public boolean isFuture(SensorEventAvro avroSensorEvent, long now, long maxClockSkewMs) {
+        return maxClockSkewMs >= 0 && avroSensorEvent.getTimestamp().toEpochMilli() > now + maxClockSkewMs;
+    }
+
+    /**
+     * Событие опоздало: его время отстаёт от водяного знака хаба больше чем на допустимое опоздание.
+     * Отрицательное допустимое опоздание отключает проверку
+     */
+    public boolean isLate(SensorEventAvro avroSensorEvent, long allowedLatenessMs) {
+        if (allowedLatenessMs < 0) {
+            return false;
+        }
+        SensorsSnapshotAvro snapshot = snapshotsByHubId.get(avroSensorEvent.getHubId());
+        return snapshot != null && snapshot.getTimestamp().toEpochMilli() - avroSensorEvent.getTimestamp().toEpochMilli()
+                > allowedLatenessMs;
+    }
+
+    /**
+     * Сравнение показаний по полям конкретного типа сенсора. Показания разных типов не равны
+     */
+    static boolean samePayload(Object previous, Object current) {
+        return switch (current) {
+            case SwitchSensorAvro c when previous instanceof SwitchSensorAvro p ->
+                    p.getState() == c.getState();
+            case MotionSensorAvro c when previous instanceof MotionSensorAvro p ->
+                    p.getMotion() == c.getMotion()
+                            && p.getLinkQuality() == c.getLinkQuality()
+                            && p.getVoltage() == c.getVoltage();
+            case TemperatureSensorAvro c when previous instanceof TemperatureSensorAvro p ->
+                    p.getTemperatureC() == c.getTemperatureC()
+                            && p.getTemperatureF() == c.getTemperatureF();
+            case ClimateSensorAvro c when previous instanceof ClimateSensorAvro p ->
+                    p.getTemperatureC() == c.getTemperatureC()
+                            && p.getHumidity() == c.getHumidity()
+                            && p.getCo2Level() == c.getCo2Level();
+            case LightSensorAvro c when previous instanceof LightSensorAvro p ->
+                    p.getLuminosity() == c.getLuminosity()
+                            && p.getLinkQuality() == c.getLinkQuality();
+            case null, default -> false;
+        };
+    }
+
+    /**
+     * Возвращает в память снимок хаба, восстановленный из хранилища состояния
+     */
+    public void restore(SensorsSnapshotAvro snapshot) {
+        snapshotsByHubId.put(snapshot.getHubId(), snapshot);
+    }
+
+    /**
+     * Удаляет состояние сенсора, отключённого от хаба
+     *
+     * @return изменённый снимок хаба или {@code null}, если состояния сенсора не было
+     */
+    public SensorsSnapshotAvro removeSensor(String hubId, String sensorId) {
+        SensorsSnapshotAvro snapshot = snapshotsByHubId.get(hubId);
+        if (snapshot == null || snapshot.getSensorsState().remove(sensorId) == null) {
+            return null;
         }
+        return snapshot;
+    }
 
-        SensorStateAvro newSensorState = SensorStateAvro.newBuilder()
-                .setTimestamp(avroSensorEvent.getTimestamp())
-                .setData(avroSensorEvent.getPayload())
-                .build();
+    public SensorsSnapshotAvro getSnapshot(String hubId) {
+        return snapshotsByHubId.get(hubId);
+    }
+
+    public int hubCount() {
+        return snapshotsByHubId.size();
+    }
 
-        currentSnapshot.getSensorsState().put(avroSensorEvent.getId(), newSensorState);
-        currentSnapshot.setTimestamp(avroSensorEvent.getTimestamp());
+    /**
+     * Количество сенсоров во всех снимках. Читается из чужого потока, поэтому значение приблизительное
+     */
+    public long sensorCount() {
+        long count = 0;
+        for (SensorsSnapshotAvro snapshot : snapshotsByHubId.values()) {
+            count += snapshot.getSensorsState().size();
+        }
+        return count;
+    }
 
-        return Optional.of(currentSnapshot);
+    /**
+     * Удаляет снимки хабов, которые больше не обслуживаются этим экземпляром
+     */
+    public void evict(Collection<String> hubIds) {
+        hubIds.forEach(snapshotsByHubId::remove);
     }
 }
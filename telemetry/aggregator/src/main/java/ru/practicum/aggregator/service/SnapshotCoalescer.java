@@ -0,0 +1,73 @@
+package ru.practicum.aggregator.service;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Окно объединения снимков одного воркера. Снимок хаба в памяти изменяется на месте,
+ * поэтому в окне достаточно помнить сам факт изменения: при закрытии окна отправляется
+ * актуальное состояние хаба со всеми накопленными изменениями
+ */
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class SnapshotCoalescer {
+    final long maxDelayMs;
+    final Map<String, SensorsSnapshotAvro> pending = new LinkedHashMap<>();
+    long windowStartedAt;
+    int changes;
+
+    public SnapshotCoalescer(long maxDelayMs) {
+        this.maxDelayMs = Math.max(0, maxDelayMs);
+    }
+
+    public void add(SensorsSnapshotAvro snapshot) {
+        if (pending.isEmpty()) {
+            windowStartedAt = System.currentTimeMillis();
+            changes = 0;
+        }
+        pending.put(snapshot.getHubId(), snapshot);
+        changes++;
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Окно пора закрыть: в нём есть изменения и истекла максимальная задержка
+     */
+    public boolean isDue() {
+        return !pending.isEmpty() && System.currentTimeMillis() - windowStartedAt >= maxDelayMs;
+    }
+
+    /**
+     * Закрывает окно и возвращает по одному снимку на изменившийся хаб
+     */
+    public Collection<SensorsSnapshotAvro> drain() {
+        List<SensorsSnapshotAvro> snapshots = new ArrayList<>(pending.values());
+        log.debug("Окно объединения закрыто: изменений={}, снимков={}", changes, snapshots.size());
+        pending.clear();
+        changes = 0;
+        return snapshots;
+    }
+
+    /**
+     * Отбрасывает неотправленные изменения хабов, состояние которых больше не принадлежит воркеру
+     */
+    public void discard(Collection<String> hubIds) {
+        hubIds.forEach(pending::remove);
+    }
+
+    public void clear() {
+        pending.clear();
+        changes = 0;
+    }
+}
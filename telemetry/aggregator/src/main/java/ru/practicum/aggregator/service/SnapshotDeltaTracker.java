@@ -0,0 +1,95 @@
+package ru.practicum.aggregator.service;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import ru.yandex.practicum.kafka.telemetry.event.SensorStateAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotDeltaAvro;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Изменения хабов воркера с момента последней отправленной дельты.
+ * <p>
+ * Версия хаба растёт на 1 с каждой дельтой. Версия не сохраняется между владельцами хаба:
+ * первая дельта после назначения партиции, восстановления или перезапуска всегда ключевой кадр,
+ * с которого потребитель начинает отсчёт заново
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class SnapshotDeltaTracker {
+    int keyframeInterval;
+    Map<String, HubChanges> changesByHubId = new HashMap<>();
+
+    public SnapshotDeltaTracker(int keyframeInterval) {
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+    }
+
+    public void sensorChanged(String hubId, String sensorId) {
+        HubChanges changes = changesByHubId.computeIfAbsent(hubId, id -> new HubChanges());
+        changes.removed.remove(sensorId);
+        changes.changed.add(sensorId);
+    }
+
+    public void sensorRemoved(String hubId, String sensorId) {
+        HubChanges changes = changesByHubId.computeIfAbsent(hubId, id -> new HubChanges());
+        changes.changed.remove(sensorId);
+        changes.removed.add(sensorId);
+    }
+
+    /**
+     * Формирует дельту по накопленным изменениям хаба и сбрасывает их.
+     * Каждая {@code keyframeInterval}-я версия отправляется ключевым кадром
+     */
+    public SensorsSnapshotDeltaAvro nextDelta(SensorsSnapshotAvro snapshot) {
+        HubChanges changes = changesByHubId.computeIfAbsent(snapshot.getHubId(), id -> new HubChanges());
+        changes.version++;
+        boolean keyframe = changes.version == 1 || changes.version % keyframeInterval == 0;
+
+        Map<String, SensorStateAvro> sensorsState;
+        List<String> removedSensors;
+        if (keyframe) {
+            sensorsState = new HashMap<>(snapshot.getSensorsState());
+            removedSensors = List.of();
+        } else {
+            sensorsState = new HashMap<>(changes.changed.size());
+            for (String sensorId : changes.changed) {
+                SensorStateAvro state = snapshot.getSensorsState().get(sensorId);
+                if (state != null) {
+                    sensorsState.put(sensorId, state);
+                }
+            }
+            removedSensors = new ArrayList<>(changes.removed);
+        }
+        changes.changed.clear();
+        changes.removed.clear();
+
+        return SensorsSnapshotDeltaAvro.newBuilder()
+                .setHubId(snapshot.getHubId())
+                .setVersion(changes.version)
+                .setTimestamp(snapshot.getTimestamp())
+                .setKeyframe(keyframe)
+                .setSensorsState(sensorsState)
+                .setRemovedSensors(removedSensors)
+                .build();
+    }
+
+    /**
+     * Забывает хабы, которые больше не принадлежат воркеру. При возвращении их первая дельта
+     * снова будет ключевым кадром
+     */
+    public void evict(Collection<String> hubIds) {
+        hubIds.forEach(changesByHubId::remove);
+    }
+
+    private static class HubChanges {
+        long version;
+        Set<String> changed = new LinkedHashSet<>();
+        Set<String> removed = new LinkedHashSet<>();
+    }
+}
@@ -0,0 +1,27 @@
+package ru.practicum.aggregator.service;
+
+/**
+ * Формат публикуемых снимков хаба
+ */
+public enum SnapshotFormat {
+    /**
+     * Полный снимок в топик снимков
+     */
+    FULL,
+    /**
+     * Только изменения в топик дельт, с периодическими ключевыми кадрами
+     */
+    DELTA,
+    /**
+     * Оба формата, например на время перевода потребителей на дельты
+     */
+    BOTH;
+
+    public boolean includesFull() {
+        return this != DELTA;
+    }
+
+    public boolean includesDelta() {
+        return this != FULL;
+    }
+}
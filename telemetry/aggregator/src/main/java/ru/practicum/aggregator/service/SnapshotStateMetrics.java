@@ -0,0 +1,82 @@
+package ru.practicum.aggregator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Component;
+
+/**
+ * Метрики состояния агрегатора в памяти. Объём оценивается грубо, по средним размерам
+ * снимка хаба и состояния сенсора вместе с ключами и служебными объектами коллекций
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class SnapshotStateMetrics {
+    private static final long ESTIMATED_HUB_BYTES = 256;
+    private static final long ESTIMATED_SENSOR_BYTES = 192;
+
+    Counter hubsEvictedByTtl;
+    Counter hubsEvictedByLru;
+    Counter sensorsRemoved;
+    Counter lateEvents;
+    Counter futureEvents;
+    Counter rollupsEmitted;
+    Counter rollupLateEvents;
+
+    public SnapshotStateMetrics(MeterRegistry registry, SensorSnapshotService snapshotService) {
+        Gauge.builder("aggregator.state.hubs", snapshotService, SensorSnapshotService::hubCount)
+                .description("Количество хабов в памяти")
+                .register(registry);
+        Gauge.builder("aggregator.state.sensors", snapshotService, SensorSnapshotService::sensorCount)
+                .description("Количество состояний сенсоров в памяти")
+                .register(registry);
+        Gauge.builder("aggregator.state.estimated.bytes", snapshotService,
+                        service -> service.hubCount() * ESTIMATED_HUB_BYTES
+                                + service.sensorCount() * ESTIMATED_SENSOR_BYTES)
+                .description("Оценка объёма состояния в памяти")
+                .baseUnit("bytes")
+                .register(registry);
+
+        hubsEvictedByTtl = Counter.builder("aggregator.state.hubs.evicted").tag("reason", "ttl").register(registry);
+        hubsEvictedByLru = Counter.builder("aggregator.state.hubs.evicted").tag("reason", "lru").register(registry);
+        sensorsRemoved = Counter.builder("aggregator.state.sensors.removed").register(registry);
+        lateEvents = Counter.builder("aggregator.events.late")
+                .description("События, отброшенные как опоздавшие")
+                .register(registry);
+        futureEvents = Counter.builder("aggregator.events.rejected").tag("reason", "future")
+                .description("События из будущего дальше допустимого расхождения часов")
+                .register(registry);
+        rollupsEmitted = Counter.builder("aggregator.rollups.emitted")
+                .description("Отправленные агрегаты закрытых окон")
+                .register(registry);
+        rollupLateEvents = Counter.builder("aggregator.rollups.late")
+                .description("Показания, не попавшие в уже закрытые окна агрегатов")
+                .register(registry);
+    }
+
+    public void hubEvicted(HubActivityTracker.EvictionReason reason) {
+        (reason == HubActivityTracker.EvictionReason.TTL ? hubsEvictedByTtl : hubsEvictedByLru).increment();
+    }
+
+    public void sensorRemoved() {
+        sensorsRemoved.increment();
+    }
+
+    public void lateEvent() {
+        lateEvents.increment();
+    }
+
+    public void futureEvent() {
+        futureEvents.increment();
+    }
+
+    public void rollupEmitted() {
+        rollupsEmitted.increment();
+    }
+
+    public void rollupLateEvent() {
+        rollupLateEvents.increment();
+    }
+}
@@ -0,0 +1,334 @@
+package ru.practicum.aggregator.store;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.kafka.deserializer.SensorsSnapshotAvroDeserializer;
+import ru.practicum.kafka.serializer.GeneralAvroSerializer;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Хранилище снимков в виде append-only лога на каждую партицию топика сенсоров.
+ * <p>
+ * Запись лога: длина ключа, hubId, длина значения (-1 - удаление), снимок в Avro, CRC32 ключа и значения.
+ * Запись с пустым ключом хранит оффсет партиции, до которого построены предшествующие ей снимки.
+ * При восстановлении побеждает последняя запись хаба, а оборванный хвост после сбоя отрезается:
+ * длины ключа и значения сверяются с остатком файла и пределами размера до выделения памяти.
+ * Когда записей в логе становится заметно больше, чем живых хабов, лог переписывается заново
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "aggregator.state.enabled", havingValue = "true")
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class FileSnapshotStateStore implements SnapshotStateStore {
+    private static final int TOMBSTONE = -1;
+    private static final int MAX_KEY_LENGTH = 4096;
+    private static final int MAX_VALUE_LENGTH = 16 * 1024 * 1024;
+    private static final byte[] CHECKPOINT_KEY = new byte[0];
+    private static final String LOG_SUFFIX = ".log";
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    Path directory;
+    boolean fsync;
+    int compactionMinEntries;
+    Map<TopicPartition, PartitionLog> logs = new ConcurrentHashMap<>();
+
+    public FileSnapshotStateStore(@Value("${aggregator.state.dir:aggregator-state}") String directory,
+                                  @Value("${aggregator.state.fsync:false}") boolean fsync,
+                                  @Value("${aggregator.state.compaction-min-entries:10000}") int compactionMinEntries) {
+        this.directory = Path.of(directory);
+        this.fsync = fsync;
+        this.compactionMinEntries = compactionMinEntries;
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось создать каталог хранилища состояния: " + directory, e);
+        }
+        log.info("Хранилище состояния агрегатора: каталог={}, fsync={}", this.directory.toAbsolutePath(), fsync);
+    }
+
+    @Override
+    public Collection<SensorsSnapshotAvro> restore(TopicPartition partition) {
+        long started = System.currentTimeMillis();
+        PartitionLog partitionLog = logs.computeIfAbsent(partition, PartitionLog::new);
+        Map<String, byte[]> entries = partitionLog.open();
+
+        List<SensorsSnapshotAvro> snapshots = new ArrayList<>(entries.size());
+        entries.values().forEach(bytes -> snapshots.add(partitionLog.deserializer.deserialize(partition.toString(), bytes)));
+
+        log.info("Партиция {}: восстановлено снимков хабов {} за {} мс",
+                partition, snapshots.size(), System.currentTimeMillis() - started);
+        return snapshots;
+    }
+
+    @Override
+    public long checkpointOffset(TopicPartition partition) {
+        PartitionLog partitionLog = logs.get(partition);
+        return partitionLog == null ? -1 : partitionLog.checkpointOffset;
+    }
+
+    @Override
+    public void put(TopicPartition partition, SensorsSnapshotAvro snapshot) {
+        PartitionLog partitionLog = logs.get(partition);
+        if (partitionLog != null) {
+            partitionLog.dirty.put(snapshot.getHubId(), snapshot);
+        }
+    }
+
+    @Override
+    public void remove(TopicPartition partition, String hubId) {
+        PartitionLog partitionLog = logs.get(partition);
+        if (partitionLog != null) {
+            partitionLog.dirty.put(hubId, null);
+        }
+    }
+
+    @Override
+    public void flush(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : offsets.entrySet()) {
+            PartitionLog partitionLog = logs.get(entry.getKey());
+            if (partitionLog != null) {
+                partitionLog.flush(entry.getValue().offset());
+            }
+        }
+    }
+
+    @Override
+    public void close(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            PartitionLog partitionLog = logs.remove(partition);
+            if (partitionLog != null) {
+                partitionLog.close();
+            }
+        }
+    }
+
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    private final class PartitionLog {
+        final TopicPartition partition;
+        final Path file;
+        final GeneralAvroSerializer serializer = new GeneralAvroSerializer();
+        final SensorsSnapshotAvroDeserializer deserializer = new SensorsSnapshotAvroDeserializer();
+        final Map<String, SensorsSnapshotAvro> dirty = new LinkedHashMap<>();
+        final Set<String> liveHubs = new HashSet<>();
+        FileChannel channel;
+        long entries;
+        long checkpointOffset = -1;
+
+        PartitionLog(TopicPartition partition) {
+            this.partition = partition;
+            this.file = directory.resolve(partition.topic() + "-" + partition.partition() + LOG_SUFFIX);
+        }
+
+        Map<String, byte[]> open() {
+            try {
+                Map<String, byte[]> latest = readLatest();
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                channel.position(channel.size());
+                liveHubs.clear();
+                liveHubs.addAll(latest.keySet());
+                return latest;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось открыть лог состояния " + file, e);
+            }
+        }
+
+        void flush(long offset) {
+            if (dirty.isEmpty() && offset == checkpointOffset) {
+                return;
+            }
+            try {
+                List<ByteBuffer> buffers = new ArrayList<>(dirty.size() + 1);
+                for (Map.Entry<String, SensorsSnapshotAvro> entry : dirty.entrySet()) {
+                    byte[] value = entry.getValue() == null
+                            ? null
+                            : serializer.serialize(partition.toString(), entry.getValue());
+                    buffers.add(encode(entry.getKey().getBytes(StandardCharsets.UTF_8), value));
+                    if (value == null) {
+                        liveHubs.remove(entry.getKey());
+                    } else {
+                        liveHubs.add(entry.getKey());
+                    }
+                }
+                buffers.add(encodeCheckpoint(offset));
+                for (ByteBuffer buffer : buffers) {
+                    write(channel, buffer);
+                }
+                if (fsync) {
+                    channel.force(false);
+                }
+                entries += buffers.size();
+                checkpointOffset = offset;
+                dirty.clear();
+
+                if (entries > compactionMinEntries && entries > liveHubs.size() * 2L) {
+                    compact();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка записи лога состояния " + file, e);
+            }
+        }
+
+        void close() {
+            dirty.clear();
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                log.warn("Ошибка при закрытии лога состояния {}", file, e);
+            }
+        }
+
+        /**
+         * Читает лог и оставляет последнюю запись каждого хаба. Повреждённый хвост отрезается
+         */
+        private Map<String, byte[]> readLatest() throws IOException {
+            Map<String, byte[]> latest = new LinkedHashMap<>();
+            entries = 0;
+            checkpointOffset = -1;
+            if (!Files.exists(file)) {
+                return latest;
+            }
+
+            long fileSize = Files.size(file);
+            long validLength = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (true) {
+                    int keyLength;
+                    try {
+                        keyLength = in.readInt();
+                    } catch (EOFException eof) {
+                        break;
+                    }
+                    // за ключом следуют длина значения и CRC
+                    long remaining = fileSize - validLength - Integer.BYTES;
+                    if (keyLength < 0 || keyLength > MAX_KEY_LENGTH || keyLength > remaining - Integer.BYTES * 2L) {
+                        log.warn("Лог {}: некорректная длина ключа {} на позиции {}, хвост будет отброшен",
+                                file, keyLength, validLength);
+                        break;
+                    }
+                    byte[] key = new byte[keyLength];
+                    in.readFully(key);
+                    int valueLength = in.readInt();
+                    remaining -= keyLength + Integer.BYTES;
+                    if (valueLength != TOMBSTONE
+                            && (valueLength < 0 || valueLength > MAX_VALUE_LENGTH || valueLength > remaining - Integer.BYTES)) {
+                        log.warn("Лог {}: некорректная длина значения {} на позиции {}, хвост будет отброшен",
+                                file, valueLength, validLength);
+                        break;
+                    }
+                    byte[] value = valueLength == TOMBSTONE ? null : new byte[valueLength];
+                    if (value != null) {
+                        in.readFully(value);
+                    }
+                    int crc = in.readInt();
+                    if (crc != checksum(key, value)) {
+                        log.warn("Лог {}: нарушена контрольная сумма на позиции {}, хвост будет отброшен", file, validLength);
+                        break;
+                    }
+
+                    String hubId = new String(key, StandardCharsets.UTF_8);
+                    if (key.length == 0 && value != null) {
+                        checkpointOffset = ByteBuffer.wrap(value).getLong();
+                    } else if (value == null) {
+                        latest.remove(hubId);
+                    } else {
+                        latest.put(hubId, value);
+                    }
+                    entries++;
+                    validLength += Integer.BYTES * 3L + key.length + (value == null ? 0 : value.length);
+                }
+            } catch (EOFException e) {
+                log.warn("Лог {}: оборванная запись на позиции {}, хвост будет отброшен", file, validLength);
+            }
+
+            if (validLength < fileSize) {
+                try (FileChannel truncating = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    truncating.truncate(validLength);
+                }
+            }
+            return latest;
+        }
+
+        private void compact() throws IOException {
+            Map<String, byte[]> latest = readLatest();
+            Path compacted = file.resolveSibling(file.getFileName() + COMPACT_SUFFIX);
+            try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Map.Entry<String, byte[]> entry : latest.entrySet()) {
+                    write(out, encode(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()));
+                }
+                write(out, encodeCheckpoint(checkpointOffset));
+                out.force(true);
+            }
+
+            channel.close();
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            entries = latest.size() + 1L;
+            liveHubs.clear();
+            liveHubs.addAll(latest.keySet());
+            log.info("Лог {} сжат до {} записей", file, entries);
+        }
+
+        private void write(FileChannel out, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+
+        private ByteBuffer encodeCheckpoint(long offset) {
+            return encode(CHECKPOINT_KEY, ByteBuffer.allocate(Long.BYTES).putLong(offset).array());
+        }
+
+        private ByteBuffer encode(byte[] key, byte[] value) {
+            int valueLength = value == null ? 0 : value.length;
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * 3 + key.length + valueLength);
+            buffer.putInt(key.length).put(key);
+            buffer.putInt(value == null ? TOMBSTONE : value.length);
+            if (value != null) {
+                buffer.put(value);
+            }
+            buffer.putInt(checksum(key, value));
+            return buffer.flip();
+        }
+
+        private int checksum(byte[] key, byte[] value) {
+            CRC32 crc = new CRC32();
+            crc.update(key);
+            if (value != null) {
+                crc.update(value);
+            }
+            return (int) crc.getValue();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ru.practicum.aggregator.store;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Хранилище по умолчанию: состояние живёт только в памяти. После перезапуска или переназначения
+ * партиции снимки хабов начинаются с пустого состояния и собираются заново только из новых событий
+ */
+@Component
+@ConditionalOnProperty(name = "aggregator.state.enabled", havingValue = "false", matchIfMissing = true)
+public class NoopSnapshotStateStore implements SnapshotStateStore {
+    @Override
+    public Collection<SensorsSnapshotAvro> restore(TopicPartition partition) {
+        return List.of();
+    }
+
+    @Override
+    public long checkpointOffset(TopicPartition partition) {
+        return -1;
+    }
+
+    @Override
+    public void put(TopicPartition partition, SensorsSnapshotAvro snapshot) {
+    }
+
+    @Override
+    public void remove(TopicPartition partition, String hubId) {
+    }
+
+    @Override
+    public void flush(Map<TopicPartition, OffsetAndMetadata> offsets) {
+    }
+
+    @Override
+    public void close(Collection<TopicPartition> partitions) {
+    }
+}
@@ -0,0 +1,46 @@
+package ru.practicum.aggregator.store;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Локальное хранилище снимков хабов, разбитое по партициям топика сенсоров.
+ * Каждая партиция обслуживается одним воркером, поэтому методы для одной партиции
+ * вызываются из одного потока
+ */
+public interface SnapshotStateStore {
+    /**
+     * Восстанавливает последние сохранённые снимки хабов партиции и открывает её для записи
+     */
+    Collection<SensorsSnapshotAvro> restore(TopicPartition partition);
+
+    /**
+     * Оффсет, записанный вместе с последним сбросом партиции, или -1, если его нет.
+     * Доступен после {@link #restore}
+     */
+    long checkpointOffset(TopicPartition partition);
+
+    /**
+     * Помечает снимок хаба изменённым. Запись на диск происходит при {@link #flush}
+     */
+    void put(TopicPartition partition, SensorsSnapshotAvro snapshot);
+
+    /**
+     * Удаляет снимок хаба из хранилища
+     */
+    void remove(TopicPartition partition, String hubId);
+
+    /**
+     * Записывает на диск изменённые снимки партиций вместе с оффсетом, до которого они построены
+     */
+    void flush(Map<TopicPartition, OffsetAndMetadata> offsets);
+
+    /**
+     * Закрывает партицию, отбрасывая незаписанные изменения
+     */
+    void close(Collection<TopicPartition> partitions);
+}
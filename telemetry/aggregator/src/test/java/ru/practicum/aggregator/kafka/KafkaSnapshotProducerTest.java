@@ -0,0 +1,59 @@
+package ru.practicum.aggregator.kafka;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import ru.practicum.aggregator.config.AggregatorKafkaProducerConfig;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Перед фиксацией оффсетов воркер сверяет число неудачных отправок, которое возвращает flush
+ */
+class KafkaSnapshotProducerTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flushReportsFailedSends() {
+        KafkaTemplate<String, SpecificRecordBase> kafkaTemplate = mock(KafkaTemplate.class);
+        CompletableFuture<SendResult<String, SpecificRecordBase>> failed =
+                CompletableFuture.failedFuture(new IllegalStateException("broker unavailable"));
+        when(kafkaTemplate.send(anyString(), isNull(), anyLong(), anyString(), any(SpecificRecordBase.class)))
+                .thenReturn(failed);
+
+        AggregatorKafkaProducerConfig config = mock(AggregatorKafkaProducerConfig.class);
+        when(config.getSnapshotsTopic()).thenReturn("telemetry.snapshots.v1");
+        when(config.getDeltasTopic()).thenReturn("");
+        when(config.getLateEventsTopic()).thenReturn("");
+        when(config.getRollupsTopic()).thenReturn("");
+        when(config.getMaxInFlight()).thenReturn(10);
+        when(config.getLogSampleRate()).thenReturn(1);
+
+        KafkaSnapshotProducer producer = new KafkaSnapshotProducer(kafkaTemplate, config, new SimpleMeterRegistry());
+        assertEquals(0, producer.flush());
+
+        producer.send(SensorsSnapshotAvro.newBuilder()
+                .setHubId("hub-1")
+                .setTimestamp(Instant.ofEpochMilli(1_700_000_000_000L))
+                .setSensorsState(Map.of())
+                .build());
+
+        assertEquals(1, producer.flush());
+        verify(kafkaTemplate, times(2)).flush();
+    }
+}
@@ -0,0 +1,40 @@
+package ru.practicum.aggregator.service;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorRollupAvro;
+import ru.yandex.practicum.kafka.telemetry.event.TemperatureSensorAvro;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SensorRollupTrackerTest {
+    private static final long NOW = 1_700_000_040_000L;
+
+    private final SensorRollupTracker tracker = new SensorRollupTracker(List.of(Duration.ofMinutes(1)), 60_000, 0,
+            60_000);
+
+    @Test
+    void futureReadingDoesNotCloseWindows() {
+        assertTrue(tracker.add(event(NOW - 10_000, 20), NOW));
+        assertFalse(tracker.add(event(NOW + 86_400_000L, 99), NOW));
+
+        assertTrue(tracker.add(event(NOW - 5_000, 22), NOW));
+        assertTrue(tracker.closeDue(NOW).isEmpty());
+
+        List<SensorRollupAvro> rollups = tracker.flushAll();
+        assertEquals(1, rollups.size());
+        assertEquals(2, rollups.getFirst().getMetrics().getFirst().getCount());
+        assertEquals(22, rollups.getFirst().getMetrics().getFirst().getMax());
+    }
+
+    private static SensorEventAvro event(long timestamp, int temperatureC) {
+        return new SensorEventAvro("sensor-1", "hub-1", Instant.ofEpochMilli(timestamp),
+                new TemperatureSensorAvro(temperatureC, temperatureC * 9 / 5 + 32));
+    }
+}
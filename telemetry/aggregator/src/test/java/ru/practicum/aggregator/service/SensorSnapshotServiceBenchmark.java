@@ -0,0 +1,143 @@
+package ru.practicum.aggregator.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.kafka.telemetry.event.ClimateSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.LightSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.MotionSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorStateAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SwitchSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.TemperatureSensorAvro;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Применение события к снимку хаба: текущий SensorSnapshotService против прежнего пути через builder,
+ * Optional и equals записи Avro.
+ * <p>
+ * 32 хаба по 8 сенсоров всех типов; каждый сенсор по кругу получает показания A, A, B, B, поэтому
+ * половина событий меняет снимок, половина - повторы. Время событий одинаковое: равное время не считается
+ * устаревшим, и после прогрева события проверяются на повтор, а не отбрасываются по времени.
+ * <p>
+ * Запуск: {@code mvn -Pjmh -pl aggregator -am test}; байты на событие - {@code gc.alloc.rate.norm}
+ * профилировщика {@code -prof gc}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensorSnapshotServiceBenchmark {
+    private static final int HUBS = 32;
+    private static final int SENSORS = 8;
+    private static final int PHASES = 4;
+
+    SensorEventAvro[] events;
+    int next;
+
+    SensorSnapshotService service;
+    BaselineSnapshotService baseline;
+
+    @Setup
+    public void setUp() {
+        Instant timestamp = Instant.ofEpochMilli(1_700_000_000_000L);
+        events = new SensorEventAvro[HUBS * SENSORS * PHASES];
+        int i = 0;
+        for (int phase = 0; phase < PHASES; phase++) {
+            // A, A, B, B: смена показаний на фазах 0 и 2, повтор на 1 и 3
+            int value = phase < 2 ? 20 : 21;
+            for (int hub = 0; hub < HUBS; hub++) {
+                for (int sensor = 0; sensor < SENSORS; sensor++) {
+                    events[i++] = new SensorEventAvro("sensor-" + sensor, "hub-" + hub, timestamp,
+                            payload(sensor, value));
+                }
+            }
+        }
+        service = new SensorSnapshotService();
+        baseline = new BaselineSnapshotService();
+        for (SensorEventAvro event : events) {
+            service.updateSnapshot(event);
+            baseline.updateSnapshot(event);
+        }
+    }
+
+    @Benchmark
+    public SensorsSnapshotAvro update() {
+        return service.updateSnapshot(nextEvent());
+    }
+
+    @Benchmark
+    public Optional<SensorsSnapshotAvro> updateBaseline() {
+        return baseline.updateSnapshot(nextEvent());
+    }
+
+    private SensorEventAvro nextEvent() {
+        SensorEventAvro event = events[next];
+        next = next + 1 == events.length ? 0 : next + 1;
+        return event;
+    }
+
+    /**
+     * Новый объект показаний на каждое событие, как после десериализации
+     */
+    private static Object payload(int sensor, int value) {
+        return switch (sensor % 5) {
+            case 0 -> new ClimateSensorAvro(value, value + 20, value * 30);
+            case 1 -> new LightSensorAvro(90, value * 10);
+            case 2 -> new MotionSensorAvro(90, value % 2 == 0, 220);
+            case 3 -> new SwitchSensorAvro(value % 2 == 0);
+            default -> new TemperatureSensorAvro(value, value * 9 / 5 + 32);
+        };
+    }
+
+    /**
+     * SensorSnapshotService.updateSnapshot до сравнения по полям и обновления на месте
+     */
+    static class BaselineSnapshotService {
+        final Map<String, SensorsSnapshotAvro> snapshotsByHubId = new ConcurrentHashMap<>();
+
+        Optional<SensorsSnapshotAvro> updateSnapshot(SensorEventAvro avroSensorEvent) {
+            SensorsSnapshotAvro currentSnapshot = snapshotsByHubId.computeIfAbsent(avroSensorEvent.getHubId(), hubId ->
+                    SensorsSnapshotAvro.newBuilder()
+                            .setHubId(hubId)
+                            .setSensorsState(new HashMap<>())
+                            .setTimestamp(avroSensorEvent.getTimestamp())
+                            .build()
+            );
+
+            SensorStateAvro previousSensorState = currentSnapshot.getSensorsState().get(avroSensorEvent.getId());
+            if (previousSensorState != null && (
+                    previousSensorState.getTimestamp().isAfter(avroSensorEvent.getTimestamp()) ||
+                    previousSensorState.getData().equals(avroSensorEvent.getPayload())
+            )) {
+                return Optional.empty();
+            }
+
+            SensorStateAvro newSensorState = SensorStateAvro.newBuilder()
+                    .setTimestamp(avroSensorEvent.getTimestamp())
+                    .setData(avroSensorEvent.getPayload())
+                    .build();
+
+            currentSnapshot.getSensorsState().put(avroSensorEvent.getId(), newSensorState);
+            currentSnapshot.setTimestamp(avroSensorEvent.getTimestamp());
+
+            return Optional.of(currentSnapshot);
+        }
+    }
+}
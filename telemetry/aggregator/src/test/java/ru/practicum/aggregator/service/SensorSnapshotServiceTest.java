@@ -0,0 +1,59 @@
+package ru.practicum.aggregator.service;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+import ru.yandex.practicum.kafka.telemetry.event.TemperatureSensorAvro;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Водяной знак хаба и проверки времени события в порядке воркера: сначала будущее, затем опоздание
+ */
+class SensorSnapshotServiceTest {
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long MAX_CLOCK_SKEW_MS = 60_000;
+    private static final long ALLOWED_LATENESS_MS = 300_000;
+
+    private final SensorSnapshotService service = new SensorSnapshotService();
+
+    @Test
+    void futureEventDoesNotMoveWatermark() {
+        SensorEventAvro future = event(NOW + 86_400_000L, 25);
+        assertTrue(service.isFuture(future, NOW, MAX_CLOCK_SKEW_MS));
+
+        SensorEventAvro normal = event(NOW - 1_000, 21);
+        assertFalse(service.isFuture(normal, NOW, MAX_CLOCK_SKEW_MS));
+        assertFalse(service.isLate(normal, ALLOWED_LATENESS_MS));
+        SensorsSnapshotAvro snapshot = service.updateSnapshot(normal);
+
+        assertNotNull(snapshot);
+        assertEquals(normal.getTimestamp(), snapshot.getTimestamp());
+        assertEquals(21, ((TemperatureSensorAvro) snapshot.getSensorsState().get("sensor-1").getData())
+                .getTemperatureC());
+    }
+
+    @Test
+    void eventWithinClockSkewIsApplied() {
+        SensorEventAvro ahead = event(NOW + MAX_CLOCK_SKEW_MS, 22);
+        assertFalse(service.isFuture(ahead, NOW, MAX_CLOCK_SKEW_MS));
+        assertNotNull(service.updateSnapshot(ahead));
+
+        assertEquals(ahead.getTimestamp(), service.getSnapshot("hub-1").getTimestamp());
+    }
+
+    @Test
+    void negativeClockSkewDisablesCheck() {
+        assertFalse(service.isFuture(event(Long.MAX_VALUE / 2, 25), NOW, -1));
+    }
+
+    private static SensorEventAvro event(long timestamp, int temperatureC) {
+        return new SensorEventAvro("sensor-1", "hub-1", Instant.ofEpochMilli(timestamp),
+                new TemperatureSensorAvro(temperatureC, temperatureC * 9 / 5 + 32));
+    }
+}
@@ -4,11 +4,13 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import ru.practicum.analyzer.config.KafkaConsumerConfig;
 
 @SpringBootApplication
 @EnableConfigurationProperties(KafkaConsumerConfig.class)
 @ConfigurationPropertiesScan
+@EnableScheduling
 
 public class Analyzer {
     public static void main(String[] args) {
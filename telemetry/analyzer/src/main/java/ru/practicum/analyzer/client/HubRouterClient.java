@@ -1,52 +1,323 @@
 package ru.practicum.analyzer.client;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Empty;
 import com.google.protobuf.Timestamp;
-import lombok.RequiredArgsConstructor;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
-import ru.practicum.analyzer.model.ScenarioAction;
+import ru.practicum.analyzer.config.HubRouterDispatchProperties;
+import ru.practicum.analyzer.service.CompiledScenario;
 import ru.yandex.practicum.grpc.telemetry.event.ActionTypeProto;
+import ru.yandex.practicum.grpc.telemetry.event.DeviceActionBatchRequestProto;
 import ru.yandex.practicum.grpc.telemetry.event.DeviceActionProto;
 import ru.yandex.practicum.grpc.telemetry.event.DeviceActionRequestProto;
+import ru.yandex.practicum.grpc.telemetry.event.ScenarioDeviceActionsProto;
 import ru.yandex.practicum.grpc.telemetry.hubrouter.HubRouterControllerGrpc;
 
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Асинхронная отправка действий в hub-router.
+ * <p>
+ * Действия хаба ставятся в его ограниченную очередь и отправляются по одному, чтобы команды
+ * одному хабу не обгоняли друг друга. Разные хабы отправляются параллельно в пределах общего
+ * лимита вызовов. Каждый вызов ограничен дедлайном, а временные ошибки повторяются с
+ * экспоненциальной задержкой и случайным разбросом. Поток снимков при этом не ждёт hub-router.
+ * <p>
+ * Действия одной проверки снимка уходят одним вызовом handleDeviceActions. Если hub-router его
+ * не реализует, клиент переходит на handleDeviceAction для каждого действия
+ */
 @Component
-@RequiredArgsConstructor
 @Slf4j
 public class HubRouterClient {
-    private final HubRouterControllerGrpc.HubRouterControllerBlockingStub stub;
+    private final HubRouterControllerGrpc.HubRouterControllerFutureStub stub;
+    private final HubRouterDispatchProperties props;
+    private final Semaphore permits;
+    private final Map<String, HubQueue> queuesByHubId = new ConcurrentHashMap<>();
+    private final Queue<HubQueue> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
 
-    public void sendDeviceAction(String hubId, String scenarioName, ScenarioAction action) {
+    /**
+     * Сбрасывается при первом ответе UNIMPLEMENTED на пакетный вызов
+     */
+    private volatile boolean batchSupported;
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "hub-router-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Timer latency;
+    private final Counter sent;
+    private final Counter failed;
+    private final Counter retried;
+    private final Counter rejected;
+
+    public HubRouterClient(HubRouterControllerGrpc.HubRouterControllerFutureStub stub,
+                           HubRouterDispatchProperties props,
+                           MeterRegistry meterRegistry) {
+        this.stub = stub;
+        this.props = props;
+        this.permits = new Semaphore(props.getMaxConcurrency());
+        this.batchSupported = props.isBatchEnabled();
+
+        this.latency = Timer.builder("analyzer.hub-router.latency")
+                .description("Длительность вызова hub-router")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.sent = actionCounter(meterRegistry, "sent");
+        this.failed = actionCounter(meterRegistry, "failed");
+        this.retried = actionCounter(meterRegistry, "retried");
+        this.rejected = actionCounter(meterRegistry, "rejected");
+
+        Gauge.builder("analyzer.hub-router.in-flight", () -> props.getMaxConcurrency() - permits.availablePermits())
+                .description("Вызовы hub-router, ожидающие ответа")
+                .register(meterRegistry);
+        Gauge.builder("analyzer.hub-router.queue.depth", queued::get)
+                .description("Действия в очередях хабов, включая отправляемые")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ставит в очередь хаба действия сработавших сценариев одной проверки снимка
+     */
+    public void sendDeviceActions(String hubId, List<CompiledScenario> scenarios) {
+        DeviceActionBatchRequestProto.Builder batch = DeviceActionBatchRequestProto.newBuilder()
+                .setHubId(hubId)
+                .setTimestamp(currentTimestamp());
+        for (CompiledScenario scenario : scenarios) {
+            if (scenario.actions().length == 0) {
+                continue;
+            }
+            ScenarioDeviceActionsProto.Builder scenarioActions = ScenarioDeviceActionsProto.newBuilder()
+                    .setScenarioName(scenario.name());
+            for (CompiledScenario.Action action : scenario.actions()) {
+                scenarioActions.addAction(toProto(action));
+            }
+            batch.addScenario(scenarioActions);
+        }
+        DeviceActionBatchRequestProto request = batch.build();
+        if (request.getScenarioCount() == 0) {
+            return;
+        }
+
+        HubQueue queue = queuesByHubId.computeIfAbsent(hubId, id -> new HubQueue());
+        synchronized (queue) {
+            if (queue.requests.size() >= props.getQueueCapacity()) {
+                rejected.increment();
+                log.warn("Очередь действий hubId: {} заполнена ({}), действия сценариев: {} отброшены",
+                        hubId, queue.requests.size(), scenarios.size());
+                return;
+            }
+            queue.requests.add(request);
+            queued.incrementAndGet();
+            if (queue.active) {
+                return;
+            }
+            queue.active = true;
+        }
+
+        ready.add(queue);
+        pump();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        retryScheduler.shutdownNow();
+    }
+
+    /**
+     * Запускает вызовы для готовых хабов, пока есть свободные разрешения
+     */
+    private void pump() {
+        while (!ready.isEmpty() && permits.tryAcquire()) {
+            HubQueue queue = ready.poll();
+            if (queue == null) {
+                permits.release();
+                return;
+            }
+            DeviceActionBatchRequestProto request;
+            synchronized (queue) {
+                request = queue.requests.peek();
+            }
+            call(queue, request);
+        }
+    }
+
+    private void call(HubQueue queue, DeviceActionBatchRequestProto request) {
+        queue.attempt++;
+        long startedAt = System.nanoTime();
+        boolean batch = batchSupported;
+
+        ListenableFuture<Empty> response;
         try {
-            ActionTypeProto typeProto = ActionTypeProto.valueOf(action.getAction().getType().name());
+            response = batch ? deadlineStub().handleDeviceActions(request) : sendUnary(queue, request);
+        } catch (RuntimeException e) {
+            response = Futures.immediateFailedFuture(e);
+        }
 
-            DeviceActionProto.Builder actionB = DeviceActionProto.newBuilder()
-                    .setSensorId(action.getId().getSensorId())
-                    .setType(typeProto);
+        Futures.addCallback(
+                response,
+                new FutureCallback<>() {
+                    @Override
+                    public void onSuccess(Empty result) {
+                        latency.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                        sent.increment(actionCount(request));
+                        log.info("gRPC hub-router: hubId='{}', сценариев={}, действий={}",
+                                request.getHubId(), request.getScenarioCount(), actionCount(request));
+                        permits.release();
+                        next(queue);
+                    }
 
-            Integer val = action.getAction().getValue();
-            if (val != null) {
-                actionB.setValue(val);
+                    @Override
+                    public void onFailure(Throwable throwable) {
+                        latency.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                        permits.release();
+                        Status status = Status.fromThrowable(throwable);
+                        if (batch && status.getCode() == Status.Code.UNIMPLEMENTED) {
+                            batchSupported = false;
+                            queue.attempt--;
+                            log.warn("hub-router не поддерживает handleDeviceActions, переходим на поштучную отправку");
+                            ready.add(queue);
+                            pump();
+                            return;
+                        }
+                        if (isRetryable(status) && queue.attempt < props.getMaxAttempts()) {
+                            retried.increment();
+                            long delay = backoff(queue.attempt);
+                            log.warn("Ошибка hub-router для hubId: {} ({}), попытка {} через {} мс",
+                                    request.getHubId(), status.getCode(), queue.attempt + 1, delay);
+                            retryScheduler.schedule(() -> {
+                                ready.add(queue);
+                                pump();
+                            }, delay, TimeUnit.MILLISECONDS);
+                            pump();
+                            return;
+                        }
+                        failed.increment(actionCount(request) - queue.delivered);
+                        log.error("Ошибка отправки в hub-router для hubId: {}, сценариев: {}: {}",
+                                request.getHubId(), request.getScenarioCount(), status, throwable);
+                        next(queue);
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Снимает обработанное действие и ставит хаб в очередь готовых, если у него есть ещё действия
+     */
+    private void next(HubQueue queue) {
+        boolean more;
+        synchronized (queue) {
+            queue.requests.poll();
+            queue.attempt = 0;
+            queue.delivered = 0;
+            queued.decrementAndGet();
+            more = !queue.requests.isEmpty();
+            queue.active = more;
+        }
+        if (more) {
+            ready.add(queue);
+        }
+        pump();
+    }
+
+    /**
+     * Отправляет действия пакета по одному вызовом handleDeviceAction. Уже доставленные
+     * при прошлой попытке действия пропускаются
+     */
+    private ListenableFuture<Empty> sendUnary(HubQueue queue, DeviceActionBatchRequestProto request) {
+        ListenableFuture<Empty> chain = Futures.immediateFuture(Empty.getDefaultInstance());
+        int index = 0;
+        for (ScenarioDeviceActionsProto scenario : request.getScenarioList()) {
+            for (DeviceActionProto action : scenario.getActionList()) {
+                if (index++ < queue.delivered) {
+                    continue;
+                }
+                DeviceActionRequestProto unary = DeviceActionRequestProto.newBuilder()
+                        .setHubId(request.getHubId())
+                        .setScenarioName(scenario.getScenarioName())
+                        .setAction(action)
+                        .setTimestamp(request.getTimestamp())
+                        .build();
+                chain = Futures.transformAsync(chain, ignored -> Futures.transform(
+                        deadlineStub().handleDeviceAction(unary),
+                        result -> {
+                            queue.delivered++;
+                            return result;
+                        },
+                        MoreExecutors.directExecutor()), MoreExecutors.directExecutor());
             }
+        }
+        return chain;
+    }
 
-            DeviceActionProto actionProto = actionB.build();
+    private HubRouterControllerGrpc.HubRouterControllerFutureStub deadlineStub() {
+        return stub.withDeadlineAfter(props.getDeadlineMs(), TimeUnit.MILLISECONDS);
+    }
 
-            DeviceActionRequestProto request = DeviceActionRequestProto.newBuilder()
-                    .setHubId(hubId)
-                    .setScenarioName(scenarioName)
-                    .setAction(actionProto)
-                    .setTimestamp(currentTimestamp())
-                    .build();
+    private static int actionCount(DeviceActionBatchRequestProto request) {
+        int count = 0;
+        for (ScenarioDeviceActionsProto scenario : request.getScenarioList()) {
+            count += scenario.getActionCount();
+        }
+        return count;
+    }
 
-            stub.handleDeviceAction(request);
-            log.info("gRPC hub-router: hubId='{}', scenario='{}', action={}",
-                    hubId, scenarioName, actionProto);
+    private static DeviceActionProto toProto(CompiledScenario.Action action) {
+        DeviceActionProto.Builder actionB = DeviceActionProto.newBuilder()
+                .setSensorId(action.sensorId())
+                .setType(ActionTypeProto.valueOf(action.type().name()));
 
-        } catch (Exception ex) {
-            log.error("Ошибка отправки в hub-router: {}", ex.getMessage(), ex);
+        Integer val = action.value();
+        if (val != null) {
+            actionB.setValue(val);
         }
+        return actionB.build();
+    }
+
+    private boolean isRetryable(Status status) {
+        return switch (status.getCode()) {
+            case UNAVAILABLE, DEADLINE_EXCEEDED, RESOURCE_EXHAUSTED, ABORTED -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Случайная задержка от нуля до экспоненциально растущей границы
+     */
+    private long backoff(int attempt) {
+        long bound = Math.min(props.getMaxBackoffMs(), props.getBackoffMs() << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private static Counter actionCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("analyzer.hub-router.actions")
+                .description("Действия, отправленные в hub-router, по результату")
+                .tag("result", result)
+                .register(meterRegistry);
     }
 
     private Timestamp currentTimestamp() {
@@ -56,4 +327,11 @@ public class HubRouterClient {
                 .setNanos(now.getNano())
                 .build();
     }
-}
\ No newline at end of file
+
+    private static final class HubQueue {
+        final Deque<DeviceActionBatchRequestProto> requests = new ArrayDeque<>();
+        boolean active;
+        int attempt;
+        int delivered;
+    }
+}
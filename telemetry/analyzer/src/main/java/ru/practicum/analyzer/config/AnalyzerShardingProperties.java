@@ -0,0 +1,34 @@
+package ru.practicum.analyzer.config;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.UUID;
+
+/**
+ * Режим, в котором каждый экземпляр analyzer'а владеет своей долей хабов.
+ * <p>
+ * События хабов, снимки и дельты читаются одной группой consumer'ов, а партиции с одинаковым номером
+ * во всех темах назначаются одному экземпляру. Темы разделены по hubId, поэтому при равном количестве
+ * партиций события и снимки хаба обрабатывает один экземпляр, и в памяти хранятся сценарии только его хабов
+ */
+@Data
+@ConfigurationProperties(prefix = "analyzer.sharding")
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class AnalyzerShardingProperties {
+    boolean enabled = false;
+
+    /**
+     * Общая группа consumer'ов событий хабов, снимков и дельт. Заменяет group-id каждого consumer'а
+     */
+    String groupId = "analyzer.sharded";
+
+    /**
+     * Идентификатор экземпляра: consumer'ы одного экземпляра получают партиции с одинаковыми номерами.
+     * По умолчанию случайный, постоянный идентификатор (например имя пода) сохраняет хабы за экземпляром
+     * при перезапуске
+     */
+    String instanceId = UUID.randomUUID().toString();
+}
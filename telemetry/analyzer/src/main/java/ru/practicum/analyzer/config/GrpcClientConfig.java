@@ -11,7 +11,7 @@ import ru.yandex.practicum.grpc.telemetry.hubrouter.HubRouterControllerGrpc;
 
 @Configuration
 @Slf4j
-@EnableConfigurationProperties(GrpcClientProperties.class)
+@EnableConfigurationProperties({GrpcClientProperties.class, HubRouterDispatchProperties.class})
 @RequiredArgsConstructor
 public class GrpcClientConfig {
     private final GrpcClientProperties props;
@@ -44,8 +44,8 @@ public class GrpcClientConfig {
     }
 
     @Bean
-    public HubRouterControllerGrpc.HubRouterControllerBlockingStub hubRouterStub(
+    public HubRouterControllerGrpc.HubRouterControllerFutureStub hubRouterStub(
             ManagedChannel hubRouterChannel) {
-        return HubRouterControllerGrpc.newBlockingStub(hubRouterChannel);
+        return HubRouterControllerGrpc.newFutureStub(hubRouterChannel);
     }
 }
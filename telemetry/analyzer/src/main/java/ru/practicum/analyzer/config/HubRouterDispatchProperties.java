@@ -0,0 +1,40 @@
+package ru.practicum.analyzer.config;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.experimental.FieldDefaults;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Параметры асинхронной отправки действий в hub-router
+ */
+@Data
+@ConfigurationProperties(prefix = "analyzer.dispatch")
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class HubRouterDispatchProperties {
+    /**
+     * Максимум действий в очереди одного хаба. Сверх него новые действия отбрасываются
+     */
+    int queueCapacity = 100;
+
+    /**
+     * Максимум одновременных вызовов hub-router по всем хабам
+     */
+    int maxConcurrency = 64;
+
+    long deadlineMs = 1000;
+
+    /**
+     * Количество попыток вызова, включая первую
+     */
+    int maxAttempts = 3;
+
+    long backoffMs = 100;
+
+    long maxBackoffMs = 2000;
+
+    /**
+     * Отправлять действия одной проверки снимка пакетом через handleDeviceActions
+     */
+    boolean batchEnabled = true;
+}
@@ -8,6 +8,7 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -16,12 +17,19 @@ import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import ru.practicum.analyzer.kafka.HubCoPartitionAssignor;
+import ru.practicum.analyzer.kafka.HubPartitionsRebalanceListener;
+import ru.practicum.kafka.deserializer.BaseAvroDeserializer;
 import ru.yandex.practicum.kafka.telemetry.event.HubEventAvro;
 import org.springframework.kafka.listener.ContainerProperties;
 import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotDeltaAvro;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
 @EnableKafka
@@ -32,6 +40,12 @@ import java.util.Map;
 public class KafkaConsumerConfig {
     Hub hub = new Hub();
     Snapshot snapshot = new Snapshot();
+    Snapshot snapshotDelta = new Snapshot();
+
+    /**
+     * Каталог схем писателей других версий для чтения кадрированных записей
+     */
+    String schemaRegistryDir = "";
 
     @FieldDefaults(level = AccessLevel.PRIVATE)
     @Getter
@@ -69,10 +83,20 @@ public class KafkaConsumerConfig {
         int maxPollInterval;
         String listenerAckMode;
         String isolationLevel;
+
+        /**
+         * Получать порцию poll целиком и проверять только последний снимок каждого хаба
+         */
+        boolean batchListener;
+
+        /**
+         * Количество потоков, параллельно проверяющих снимки разных хабов в режиме порций
+         */
+        int batchWorkers = 4;
     }
 
     @Bean
-    public ConsumerFactory<String, HubEventAvro> hubConsumerFactory() {
+    public ConsumerFactory<String, HubEventAvro> hubConsumerFactory(AnalyzerShardingProperties sharding) {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, hub.getBootstrapServers());
         props.put(ConsumerConfig.GROUP_ID_CONFIG, hub.getGroupId());
@@ -83,6 +107,8 @@ public class KafkaConsumerConfig {
         props.put(ConsumerConfig.AUTO_COMMIT_INTERVAL_MS_CONFIG, hub.getAutoCommitInterval());
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, hub.getAutoOffsetReset());
         props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, hub.getMaxPollRecords());
+        props.put(BaseAvroDeserializer.SCHEMA_REGISTRY_DIR_CONFIG, schemaRegistryDir);
+        shard(props, sharding);
 
         log.debug("Создание hubConsumerFactory с конфигурацией: {}", props);
 
@@ -90,10 +116,13 @@ public class KafkaConsumerConfig {
     }
 
     @Bean(name = "hubKafkaListenerContainerFactory")
-    public ConcurrentKafkaListenerContainerFactory<String, HubEventAvro> hubKafkaListenerContainerFactory() {
+    public ConcurrentKafkaListenerContainerFactory<String, HubEventAvro> hubKafkaListenerContainerFactory(
+            ConsumerFactory<String, HubEventAvro> hubConsumerFactory,
+            ObjectProvider<HubPartitionsRebalanceListener> rebalanceListener) {
         ConcurrentKafkaListenerContainerFactory<String, HubEventAvro> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
-        factory.setConsumerFactory(hubConsumerFactory());
+        factory.setConsumerFactory(hubConsumerFactory);
+        rebalanceListener.ifAvailable(listener -> factory.getContainerProperties().setConsumerRebalanceListener(listener));
 
         log.debug("Создание hubKafkaListenerContainerFactory для чтения сообщений на темы: {}", hub.getConsumerTopics());
 
@@ -101,7 +130,7 @@ public class KafkaConsumerConfig {
     }
 
     @Bean
-    public ConsumerFactory<String, SensorsSnapshotAvro> snapshotConsumerFactory() {
+    public ConsumerFactory<String, SensorsSnapshotAvro> snapshotConsumerFactory(AnalyzerShardingProperties sharding) {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, snapshot.getBootstrapServers());
         props.put(ConsumerConfig.GROUP_ID_CONFIG, snapshot.getGroupId());
@@ -113,6 +142,8 @@ public class KafkaConsumerConfig {
         props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, snapshot.getMaxPollRecords());
         props.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, snapshot.getMaxPollInterval());
         props.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, snapshot.getIsolationLevel());
+        props.put(BaseAvroDeserializer.SCHEMA_REGISTRY_DIR_CONFIG, schemaRegistryDir);
+        shard(props, sharding);
 
         log.debug("Создание snapshotConsumerFactory с конфигурацией: {}", props);
 
@@ -120,14 +151,73 @@ public class KafkaConsumerConfig {
     }
 
     @Bean(name = "snapshotKafkaListenerContainerFactory")
-    public ConcurrentKafkaListenerContainerFactory<String, SensorsSnapshotAvro> snapshotKafkaListenerContainerFactory() {
+    public ConcurrentKafkaListenerContainerFactory<String, SensorsSnapshotAvro> snapshotKafkaListenerContainerFactory(
+            ConsumerFactory<String, SensorsSnapshotAvro> snapshotConsumerFactory,
+            ObjectProvider<HubPartitionsRebalanceListener> rebalanceListener) {
         ConcurrentKafkaListenerContainerFactory<String, SensorsSnapshotAvro> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
-        factory.setConsumerFactory(snapshotConsumerFactory());
+        factory.setConsumerFactory(snapshotConsumerFactory);
+        rebalanceListener.ifAvailable(listener -> factory.getContainerProperties().setConsumerRebalanceListener(listener));
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
 
         log.debug("Создание snapshotKafkaListenerContainerFactory для чтения сообщений на темы: {}", snapshot.getConsumerTopics());
 
         return factory;
     }
+
+    /**
+     * В режиме шардирования consumer'ы событий хабов, снимков и дельт входят в одну группу,
+     * а партиции назначает {@link HubCoPartitionAssignor}
+     */
+    private void shard(Map<String, Object> props, AnalyzerShardingProperties sharding) {
+        if (sharding.isEnabled()) {
+            props.put(ConsumerConfig.GROUP_ID_CONFIG, sharding.getGroupId());
+            props.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, HubCoPartitionAssignor.class.getName());
+            props.put(HubCoPartitionAssignor.INSTANCE_ID_CONFIG, sharding.getInstanceId());
+        }
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService snapshotEvaluationExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(snapshot.getBatchWorkers(), runnable ->
+                new Thread(runnable, "snapshot-evaluation-" + threadNumber.incrementAndGet()));
+    }
+
+    @Bean
+    public ConsumerFactory<String, SensorsSnapshotDeltaAvro> snapshotDeltaConsumerFactory(AnalyzerShardingProperties sharding) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, snapshotDelta.getBootstrapServers());
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, snapshotDelta.getGroupId());
+        props.put(ConsumerConfig.CLIENT_ID_CONFIG, snapshotDelta.getClientId());
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, snapshotDelta.getKeyDeserializer());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, snapshotDelta.getValueDeserializer());
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, snapshotDelta.isEnableAutoCommit());
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, snapshotDelta.getAutoOffsetReset());
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, snapshotDelta.getMaxPollRecords());
+        props.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, snapshotDelta.getMaxPollInterval());
+        props.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, snapshotDelta.getIsolationLevel());
+        props.put(BaseAvroDeserializer.SCHEMA_REGISTRY_DIR_CONFIG, schemaRegistryDir);
+        shard(props, sharding);
+
+        log.debug("Создание snapshotDeltaConsumerFactory с конфигурацией: {}", props);
+
+        return new DefaultKafkaConsumerFactory<>(props);
+    }
+
+    @Bean(name = "snapshotDeltaKafkaListenerContainerFactory")
+    public ConcurrentKafkaListenerContainerFactory<String, SensorsSnapshotDeltaAvro> snapshotDeltaKafkaListenerContainerFactory(
+            ConsumerFactory<String, SensorsSnapshotDeltaAvro> snapshotDeltaConsumerFactory,
+            ObjectProvider<HubPartitionsRebalanceListener> rebalanceListener) {
+        ConcurrentKafkaListenerContainerFactory<String, SensorsSnapshotDeltaAvro> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(snapshotDeltaConsumerFactory);
+        rebalanceListener.ifAvailable(listener -> factory.getContainerProperties().setConsumerRebalanceListener(listener));
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
+
+        log.debug("Создание snapshotDeltaKafkaListenerContainerFactory для чтения сообщений на темы: {}",
+                snapshotDelta.getConsumerTopics());
+
+        return factory;
+    }
 }
@@ -0,0 +1,187 @@
+package ru.practicum.analyzer.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.ConsumerPartitionAssignor;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.TopicPartition;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Назначает партиции группы экземплярам analyzer'а, а не отдельным consumer'ам.
+ * <p>
+ * Номер партиции - доля хабов: партиции с одним номером во всех темах группы достаются одному
+ * экземпляру и делятся между его consumer'ами по темам. Доли распределяются поровну, и экземпляр
+ * сохраняет доли, которыми владел до перебалансировки, пока не превышает свою квоту.
+ * Идентификатор экземпляра и его доли передаются в userData подписки: протокол EAGER отзывает
+ * все партиции до присоединения к группе, поэтому ownedPartitions подписки пусты
+ */
+@Slf4j
+public class HubCoPartitionAssignor implements ConsumerPartitionAssignor, Configurable {
+    public static final String NAME = "hub-co-partition";
+    public static final String INSTANCE_ID_CONFIG = "analyzer.sharding.instance-id";
+
+    private String instanceId = "";
+    private Set<Integer> ownedUnits = Set.of();
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Object configured = configs.get(INSTANCE_ID_CONFIG);
+        if (configured != null) {
+            instanceId = configured.toString();
+        }
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public ByteBuffer subscriptionUserData(Set<String> topics) {
+        byte[] id = instanceId.getBytes(StandardCharsets.UTF_8);
+        Set<Integer> units = ownedUnits;
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * (2 + units.size()) + id.length);
+        buffer.putInt(id.length).put(id);
+        buffer.putInt(units.size());
+        units.forEach(buffer::putInt);
+        return buffer.flip();
+    }
+
+    @Override
+    public void onAssignment(Assignment assignment, ConsumerGroupMetadata metadata) {
+        Set<Integer> units = new TreeSet<>();
+        assignment.partitions().forEach(partition -> units.add(partition.partition()));
+        ownedUnits = units;
+    }
+
+    @Override
+    public GroupAssignment assign(Cluster metadata, GroupSubscription groupSubscription) {
+        Map<String, Subscription> subscriptions = groupSubscription.groupSubscription();
+
+        // экземпляр -> его consumer'ы и доли, которыми они владели
+        Map<String, List<String>> membersByInstance = new TreeMap<>();
+        Map<String, Set<Integer>> previousByInstance = new HashMap<>();
+        Map<String, Integer> partitionsByTopic = new TreeMap<>();
+        subscriptions.forEach((memberId, subscription) -> {
+            String instance = memberId;
+            Set<Integer> previous = Set.of();
+            try {
+                ByteBuffer userData = subscription.userData();
+                if (userData != null && userData.hasRemaining()) {
+                    ByteBuffer buffer = userData.duplicate();
+                    byte[] id = new byte[buffer.getInt()];
+                    buffer.get(id);
+                    instance = new String(id, StandardCharsets.UTF_8);
+                    previous = new TreeSet<>();
+                    for (int i = buffer.getInt(); i > 0; i--) {
+                        previous.add(buffer.getInt());
+                    }
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+                log.warn("Некорректные данные подписки consumer'а: {}, считаем его отдельным экземпляром", memberId);
+            }
+            membersByInstance.computeIfAbsent(instance, id -> new ArrayList<>()).add(memberId);
+            previousByInstance.computeIfAbsent(instance, id -> new TreeSet<>()).addAll(previous);
+            for (String topic : subscription.topics()) {
+                Integer partitions = metadata.partitionCountForTopic(topic);
+                if (partitions != null) {
+                    partitionsByTopic.put(topic, partitions);
+                }
+            }
+        });
+
+        int units = partitionsByTopic.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+        if (partitionsByTopic.values().stream().distinct().count() > 1) {
+            log.warn("Разное количество партиций в темах: {}. Хаб может обрабатываться разными экземплярами",
+                    partitionsByTopic);
+        }
+
+        Map<String, Set<Integer>> unitsByInstance = distribute(units, previousByInstance);
+
+        Map<String, List<TopicPartition>> assignments = new HashMap<>();
+        subscriptions.keySet().forEach(memberId -> assignments.put(memberId, new ArrayList<>()));
+        membersByInstance.forEach((instance, members) -> {
+            members.sort(Comparator.naturalOrder());
+            partitionsByTopic.forEach((topic, partitions) -> {
+                List<String> subscribed = members.stream()
+                        .filter(memberId -> subscriptions.get(memberId).topics().contains(topic))
+                        .toList();
+                if (subscribed.isEmpty()) {
+                    return;
+                }
+                int next = 0;
+                for (int unit : unitsByInstance.get(instance)) {
+                    if (unit < partitions) {
+                        String memberId = subscribed.get(next++ % subscribed.size());
+                        assignments.get(memberId).add(new TopicPartition(topic, unit));
+                    }
+                }
+            });
+        });
+
+        log.info("Доли хабов распределены между экземплярами: {}", unitsByInstance);
+
+        Map<String, Assignment> result = new HashMap<>();
+        assignments.forEach((memberId, partitions) -> result.put(memberId, new Assignment(partitions)));
+        return new GroupAssignment(result);
+    }
+
+    /**
+     * Делит доли 0..units-1 поровну. Квоту на одну долю больше получают экземпляры, владевшие
+     * большим числом долей, чтобы при том же составе группы назначение не менялось
+     */
+    static Map<String, Set<Integer>> distribute(int units, Map<String, Set<Integer>> previousByInstance) {
+        List<String> instances = new ArrayList<>(previousByInstance.keySet());
+        instances.sort(Comparator.comparingInt((String instance) -> -previousByInstance.get(instance).size())
+                .thenComparing(Comparator.naturalOrder()));
+
+        Map<String, Integer> quotas = new HashMap<>();
+        int base = units / instances.size();
+        int extra = units % instances.size();
+        for (int i = 0; i < instances.size(); i++) {
+            quotas.put(instances.get(i), base + (i < extra ? 1 : 0));
+        }
+
+        Map<String, Set<Integer>> result = new TreeMap<>();
+        boolean[] taken = new boolean[units];
+        for (String instance : instances) {
+            Set<Integer> kept = new TreeSet<>();
+            for (int unit : previousByInstance.get(instance)) {
+                if (kept.size() == quotas.get(instance)) {
+                    break;
+                }
+                if (unit < units && !taken[unit]) {
+                    taken[unit] = true;
+                    kept.add(unit);
+                }
+            }
+            result.put(instance, kept);
+        }
+
+        int unit = 0;
+        for (String instance : instances) {
+            Set<Integer> owned = result.get(instance);
+            while (owned.size() < quotas.get(instance)) {
+                while (taken[unit]) {
+                    unit++;
+                }
+                taken[unit] = true;
+                owned.add(unit);
+            }
+        }
+        return result;
+    }
+}
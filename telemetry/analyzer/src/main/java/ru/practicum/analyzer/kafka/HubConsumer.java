@@ -9,6 +9,8 @@ import org.springframework.stereotype.Component;
 import ru.practicum.analyzer.mapper.AvroToEntityMapper;
 import ru.practicum.analyzer.model.Sensor;
 import ru.practicum.analyzer.repository.SensorRepository;
+import ru.practicum.analyzer.service.CompiledScenario;
+import ru.practicum.analyzer.service.ScenarioIndex;
 import ru.practicum.analyzer.service.ScenarioService;
 import ru.yandex.practicum.kafka.telemetry.event.DeviceAddedEventAvro;
 import ru.yandex.practicum.kafka.telemetry.event.DeviceRemovedEventAvro;
@@ -23,6 +25,7 @@ import ru.yandex.practicum.kafka.telemetry.event.ScenarioRemovedEventAvro;
 public class HubConsumer {
     SensorRepository sensorRepository;
     ScenarioService scenarioService;
+    ScenarioIndex scenarioIndex;
     AvroToEntityMapper mapper;
 
     @KafkaListener(
@@ -64,12 +67,21 @@ public class HubConsumer {
             }
             case ScenarioAddedEventAvro scenarioAdded -> {
                 String scenarioName = scenarioAdded.getName();
+                CompiledScenario compiled;
+                try {
+                    compiled = scenarioIndex.compile(scenarioAdded);
+                } catch (IllegalArgumentException e) {
+                    log.warn("Сценарий: {} хаба: {} отклонён: {}", scenarioName, hubId, e.getMessage());
+                    return;
+                }
                 scenarioService.saveOrUpdateScenario(hubEventAvro);
+                scenarioIndex.put(hubId, compiled);
                 log.info("Сценарий сохранён/обновлён: имя = {}, hubId = {}", scenarioName, hubId);
             }
             case ScenarioRemovedEventAvro scenarioRemoved -> {
                 String scenarioName = scenarioRemoved.getName();
                 scenarioService.removeScenario(hubId, scenarioName);
+                scenarioIndex.remove(hubId, scenarioName);
                 log.info("Сценарий удалён: имя = {}, hubId = {}", scenarioName, hubId);
             }
             default -> log.warn("Необработанный тип события: {}",
@@ -0,0 +1,78 @@
+package ru.practicum.analyzer.kafka;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+import ru.practicum.analyzer.service.HubOwnership;
+import ru.practicum.analyzer.service.ScenarioIndex;
+import ru.practicum.analyzer.service.SmartHomeDirective;
+import ru.practicum.analyzer.service.SnapshotDeltaAssembler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Обновляет хабы экземпляра при перебалансировке группы в режиме шардирования.
+ * <p>
+ * Вызывается в потоке consumer'а до выдачи записей новых партиций, поэтому сценарии хабов
+ * загружаются раньше их первого снимка. В протоколе EAGER отзыв всех партиций предшествует каждому
+ * назначению, поэтому отзыв пропускается, а хабы выгружаются по итогам нового назначения
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "analyzer.sharding.enabled", havingValue = "true")
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class HubPartitionsRebalanceListener implements ConsumerAwareRebalanceListener {
+    HubOwnership ownership;
+    ScenarioIndex scenarioIndex;
+    SmartHomeDirective smartHomeDirective;
+    SnapshotDeltaAssembler assembler;
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        // назначение пустым может прийти для темы подписки, партиции которой ушли другому экземпляру
+        Map<String, List<Integer>> partitionsByTopic = new TreeMap<>();
+        consumer.subscription().forEach(topic -> partitionsByTopic.put(topic, new ArrayList<>()));
+        partitions.forEach(partition -> partitionsByTopic
+                .computeIfAbsent(partition.topic(), topic -> new ArrayList<>())
+                .add(partition.partition()));
+
+        partitionsByTopic.forEach((topic, topicPartitions) -> {
+            log.info("Назначены партиции темы: {}: {}", topic, topicPartitions);
+            apply(ownership.assigned(topic, topicPartitions, consumer.partitionsFor(topic).size()));
+        });
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        Set<String> topics = new HashSet<>();
+        partitions.forEach(partition -> topics.add(partition.topic()));
+        topics.forEach(topic -> {
+            log.warn("Потеряны партиции темы: {}", topic);
+            apply(ownership.lost(topic));
+        });
+    }
+
+    private void apply(HubOwnership.Change change) {
+        if (!change.removed().isEmpty()) {
+            scenarioIndex.retainOwned();
+            smartHomeDirective.retainHubs(ownership::owns);
+            assembler.retainHubs(ownership::owns);
+        }
+        if (!change.added().isEmpty()) {
+            scenarioIndex.loadPartitions(change.added());
+        }
+    }
+}
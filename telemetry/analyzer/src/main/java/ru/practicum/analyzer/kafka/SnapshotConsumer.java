@@ -5,25 +5,70 @@ import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 import ru.practicum.analyzer.service.SmartHomeDirective;
 import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Читает снимки хабов по одному или, при {@code spring.kafka.snapshot.batch-listener=true}, порциями poll.
+ * В режиме порций из снимков одного хаба проверяется только последний, хабы проверяются параллельно
+ * пулом snapshotEvaluationExecutor, а оффсеты фиксируются после проверки всей порции.
+ * Снимки хаба приходят из одной партиции, а следующая порция начинается только после
+ * завершения текущей, поэтому порядок проверки снимков хаба сохраняется
+ */
 @Component
 @RequiredArgsConstructor
 @Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class SnapshotConsumer {
     SmartHomeDirective smartHomeDirective;
+    ExecutorService snapshotEvaluationExecutor;
+
+    @KafkaListener(
+            containerFactory = "snapshotKafkaListenerContainerFactory",
+            topics = "${spring.kafka.snapshot.consumer-topics}",
+            autoStartup = "#{!${spring.kafka.snapshot.batch-listener:false}}"
+    )
+    public void listenSnapshot(SensorsSnapshotAvro snapshotAvro, Acknowledgment acknowledgment) {
+        String hubId = snapshotAvro.getHubId();
+        log.info("Получен снимок для hubId: {}", hubId);
+        update(snapshotAvro);
+        acknowledgment.acknowledge();
+    }
 
     @KafkaListener(
             containerFactory = "snapshotKafkaListenerContainerFactory",
-            topics = "${spring.kafka.snapshot.consumer-topics}"
+            topics = "${spring.kafka.snapshot.consumer-topics}",
+            autoStartup = "${spring.kafka.snapshot.batch-listener:false}",
+            batch = "true"
     )
-    public void listenSnapshot(SensorsSnapshotAvro snapshotAvro) {
+    public void listenSnapshots(List<SensorsSnapshotAvro> snapshots, Acknowledgment acknowledgment) {
+        Map<String, SensorsSnapshotAvro> latestByHubId = new LinkedHashMap<>();
+        for (SensorsSnapshotAvro snapshot : snapshots) {
+            latestByHubId.put(snapshot.getHubId(), snapshot);
+        }
+        log.info("Получена порция снимков: {}, хабов: {}", snapshots.size(), latestByHubId.size());
+
+        List<CompletableFuture<Void>> evaluations = new ArrayList<>(latestByHubId.size());
+        for (SensorsSnapshotAvro snapshot : latestByHubId.values()) {
+            evaluations.add(CompletableFuture.runAsync(() -> update(snapshot), snapshotEvaluationExecutor));
+        }
+        CompletableFuture.allOf(evaluations.toArray(CompletableFuture[]::new)).join();
+
+        acknowledgment.acknowledge();
+    }
+
+    private void update(SensorsSnapshotAvro snapshotAvro) {
         String hubId = snapshotAvro.getHubId();
         try {
-            log.info("Получен снимок для hubId: {}", hubId);
             smartHomeDirective.update(snapshotAvro);
         } catch (Exception e) {
             log.error("Ошибка при обработке снимка для hubId: {}, ошибка: {}", hubId, e.getMessage(), e);
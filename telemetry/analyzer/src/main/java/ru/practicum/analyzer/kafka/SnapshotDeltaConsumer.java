@@ -0,0 +1,59 @@
+package ru.practicum.analyzer.kafka;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+import ru.practicum.analyzer.service.SmartHomeDirective;
+import ru.practicum.analyzer.service.SnapshotDeltaAssembler;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotDeltaAvro;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Читает дельты снимков, когда агрегатор публикует формат DELTA или BOTH.
+ * Запускается только при {@code spring.kafka.snapshot-delta.auto-startup=true}
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class SnapshotDeltaConsumer {
+    SnapshotDeltaAssembler assembler;
+    SmartHomeDirective smartHomeDirective;
+
+    @KafkaListener(
+            containerFactory = "snapshotDeltaKafkaListenerContainerFactory",
+            topics = "${spring.kafka.snapshot-delta.consumer-topics}",
+            autoStartup = "${spring.kafka.snapshot-delta.auto-startup:false}"
+    )
+    public void listenSnapshotDelta(SensorsSnapshotDeltaAvro deltaAvro, Acknowledgment acknowledgment) {
+        String hubId = deltaAvro.getHubId();
+        try {
+            log.info("Получена дельта снимка версии: {} для hubId: {}, ключевой кадр: {}",
+                    deltaAvro.getVersion(), hubId, deltaAvro.getKeyframe());
+            assembler.apply(deltaAvro).ifPresent(snapshot ->
+                    smartHomeDirective.update(snapshot, changedSensors(deltaAvro)));
+        } catch (Exception e) {
+            log.error("Ошибка при обработке дельты снимка для hubId: {}, ошибка: {}", hubId, e.getMessage(), e);
+        }
+        acknowledgment.acknowledge();
+    }
+
+    /**
+     * Датчики, изменённые дельтой. Для ключевого кадра изменения определяются сравнением снимков
+     */
+    private Collection<String> changedSensors(SensorsSnapshotDeltaAvro delta) {
+        if (delta.getKeyframe()) {
+            return null;
+        }
+        List<String> changed = new ArrayList<>(delta.getSensorsState().keySet());
+        changed.addAll(delta.getRemovedSensors());
+        return changed;
+    }
+}
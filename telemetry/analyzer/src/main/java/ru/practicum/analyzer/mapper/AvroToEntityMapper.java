@@ -11,7 +11,9 @@ import ru.practicum.analyzer.model.Sensor;
 import ru.practicum.analyzer.model.enums.ActionType;
 import ru.practicum.analyzer.model.enums.ConditionOperation;
 import ru.practicum.analyzer.model.enums.ConditionType;
+import ru.practicum.analyzer.service.ConditionProgram;
 import ru.yandex.practicum.kafka.telemetry.event.ActionTypeAvro;
+import ru.yandex.practicum.kafka.telemetry.event.ConditionNodeAvro;
 import ru.yandex.practicum.kafka.telemetry.event.ConditionOperationAvro;
 import ru.yandex.practicum.kafka.telemetry.event.ConditionTypeAvro;
 import ru.yandex.practicum.kafka.telemetry.event.DeviceActionAvro;
@@ -40,6 +42,7 @@ public interface AvroToEntityMapper {
     @Mapping(target = "name",       source = "avro.name")
     @Mapping(target = "conditions", ignore = true)
     @Mapping(target = "actions",    ignore = true)
+    @Mapping(target = "conditionExpression", source = "avro.conditionTree", qualifiedByName = "toConditionExpression")
     Scenario toScenario(String hubId, ScenarioAddedEventAvro avro);
 
     // --- Condition
@@ -47,6 +50,8 @@ public interface AvroToEntityMapper {
     @Mapping(target = "type",      source = "type")
     @Mapping(target = "operation", source = "operation")
     @Mapping(target = "value",     source = "value", qualifiedByName = "unionToInteger")
+    @Mapping(target = "upperValue", source = "upperValue")
+    @Mapping(target = "holdMs",    source = "holdMs")
     Condition toCondition(ScenarioConditionAvro avro);
 
     // --- преобразование списка в Set
@@ -91,6 +96,12 @@ public interface AvroToEntityMapper {
         };
     }
 
+    // --- дерево условий в постфиксную запись
+    @Named("toConditionExpression")
+    default String toConditionExpression(List<ConditionNodeAvro> nodes) {
+        return ConditionProgram.expression(nodes);
+    }
+
     // --- enum
     default ConditionType map(ConditionTypeAvro v) {
         return v == null ? null : ConditionType.valueOf(v.name());
@@ -7,6 +7,7 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
@@ -27,7 +28,8 @@ import ru.practicum.analyzer.model.enums.ActionType;
 @Table(name = "actions")
 public class Action {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "actions_id_seq")
+    @SequenceGenerator(name = "actions_id_seq", sequenceName = "actions_id_seq", allocationSize = 50)
     @Column(nullable = false)
     Long id;
 
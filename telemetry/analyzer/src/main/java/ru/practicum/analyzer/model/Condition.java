@@ -7,6 +7,7 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
@@ -28,7 +29,8 @@ import ru.practicum.analyzer.model.enums.ConditionType;
 @Table(name = "conditions")
 public class Condition {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "conditions_id_seq")
+    @SequenceGenerator(name = "conditions_id_seq", sequenceName = "conditions_id_seq", allocationSize = 50)
     @Column(nullable = false)
     Long id;
 
@@ -42,4 +44,16 @@ public class Condition {
 
     @Column
     Integer value;
+
+    /**
+     * Верхняя граница BETWEEN включительно, нижняя - value
+     */
+    @Column(name = "upper_value")
+    Integer upperValue;
+
+    /**
+     * Сколько миллисекунд условие должно держаться, чтобы считаться выполненным. 0 или null - сразу
+     */
+    @Column(name = "hold_ms")
+    Long holdMs;
 }
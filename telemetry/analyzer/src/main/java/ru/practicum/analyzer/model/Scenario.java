@@ -6,6 +6,7 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
 import jakarta.persistence.UniqueConstraint;
@@ -31,7 +32,8 @@ import java.util.Set;
 public class Scenario {
     @Id
     @Column(nullable = false)
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "scenarios_id_seq")
+    @SequenceGenerator(name = "scenarios_id_seq", sequenceName = "scenarios_id_seq", allocationSize = 50)
     Long id;
 
     @Column(name = "hub_id", nullable = false)
@@ -40,6 +42,12 @@ public class Scenario {
     @Column(nullable = false)
     String name;
 
+    /**
+     * Дерево условий в постфиксной записи, null - все условия через AND
+     */
+    @Column(name = "condition_expression")
+    String conditionExpression;
+
     @OneToMany(mappedBy = "scenario", cascade = CascadeType.ALL, orphanRemoval = true)
     @Builder.Default
     Set<ScenarioCondition> conditions = new HashSet<>();
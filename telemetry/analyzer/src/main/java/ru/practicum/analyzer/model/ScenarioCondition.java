@@ -1,5 +1,6 @@
 package ru.practicum.analyzer.model;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.EmbeddedId;
 import jakarta.persistence.Entity;
 import jakarta.persistence.JoinColumn;
@@ -44,4 +45,10 @@ public class ScenarioCondition {
     @JoinColumn(name = "condition_id", nullable = false)
     @NotNull
     Condition condition;
+
+    /**
+     * Номер условия в сценарии, на который ссылаются узлы дерева условий
+     */
+    @Column
+    Integer position;
 }
\ No newline at end of file
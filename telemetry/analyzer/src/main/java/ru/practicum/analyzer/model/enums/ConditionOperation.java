@@ -3,5 +3,6 @@ package ru.practicum.analyzer.model.enums;
 public enum ConditionOperation {
     EQUALS,
     GREATER_THAN,
-    LOWER_THAN
+    LOWER_THAN,
+    BETWEEN
 }
@@ -1,5 +1,6 @@
 package ru.practicum.analyzer.repository;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -7,9 +8,23 @@ import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.analyzer.model.ScenarioAction;
 import ru.practicum.analyzer.model.ScenarioActionId;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface ScenarioActionRepository extends JpaRepository<ScenarioAction, ScenarioActionId> {
     @Modifying
     @Transactional
-    @Query("delete from ScenarioCondition sc where sc.id.scenarioId = ?1")
+    @Query("delete from ScenarioAction sa where sa.id.scenarioId = ?1")
     void deleteByIdScenarioId(Long scenarioId);
+
+    @EntityGraph(attributePaths = "action")
+    List<ScenarioAction> findAllByIdScenarioId(Long scenarioId);
+
+    @Query("select sa.id.actionId from ScenarioAction sa where sa.id.scenarioId = ?1")
+    List<Long> findActionIdsByScenarioId(Long scenarioId);
+
+    @Modifying
+    @Transactional
+    @Query("delete from ScenarioAction sa where sa.id.scenarioId = ?1 and sa.id.actionId in ?2")
+    void deleteByScenarioIdAndActionIds(Long scenarioId, Collection<Long> actionIds);
 }
@@ -1,5 +1,6 @@
 package ru.practicum.analyzer.repository;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -7,9 +8,23 @@ import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.analyzer.model.ScenarioCondition;
 import ru.practicum.analyzer.model.ScenarioConditionId;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface ScenarioConditionRepository extends JpaRepository<ScenarioCondition, ScenarioConditionId> {
     @Modifying
     @Transactional
     @Query("delete from ScenarioCondition sc where sc.id.scenarioId = ?1")
     void deleteByIdScenarioId(Long scenarioId);
+
+    @EntityGraph(attributePaths = "condition")
+    List<ScenarioCondition> findAllByIdScenarioId(Long scenarioId);
+
+    @Query("select sc.id.conditionId from ScenarioCondition sc where sc.id.scenarioId = ?1")
+    List<Long> findConditionIdsByScenarioId(Long scenarioId);
+
+    @Modifying
+    @Transactional
+    @Query("delete from ScenarioCondition sc where sc.id.scenarioId = ?1 and sc.id.conditionId in ?2")
+    void deleteByScenarioIdAndConditionIds(Long scenarioId, Collection<Long> conditionIds);
 }
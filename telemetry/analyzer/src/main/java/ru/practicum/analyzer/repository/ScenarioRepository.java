@@ -1,8 +1,12 @@
 package ru.practicum.analyzer.repository;
 
 import ru.practicum.analyzer.model.Scenario;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -10,4 +14,15 @@ public interface ScenarioRepository extends JpaRepository<Scenario, Long> {
     List<Scenario> findAllByHubId(String hubId);
 
     Optional<Scenario> findByHubIdAndName(String hubId, String name);
+
+    @EntityGraph(attributePaths = {"conditions.condition", "actions.action"})
+    @Query("select s from Scenario s")
+    List<Scenario> findAllWithConditionsAndActions();
+
+    @EntityGraph(attributePaths = {"conditions.condition", "actions.action"})
+    @Query("select s from Scenario s where s.hubId in :hubIds")
+    List<Scenario> findAllWithConditionsAndActionsByHubIdIn(@Param("hubIds") Collection<String> hubIds);
+
+    @Query("select distinct s.hubId from Scenario s")
+    List<String> findAllHubIds();
 }
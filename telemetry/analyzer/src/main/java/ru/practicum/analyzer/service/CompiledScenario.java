@@ -0,0 +1,43 @@
+package ru.practicum.analyzer.service;
+
+import ru.practicum.analyzer.model.enums.ActionType;
+import ru.practicum.analyzer.model.enums.ConditionOperation;
+import ru.practicum.analyzer.model.enums.ConditionType;
+
+/**
+ * Сценарий, подготовленный к проверке без обращения к БД. Условия хранятся параллельными
+ * массивами: i-е условие проверяет датчик sensorIds[i]. Результаты условий объединяет
+ * {@link ConditionProgram}. Массивы не изменяются после создания
+ *
+ * @param upperValues верхние границы BETWEEN
+ * @param holdMs      сколько условие должно держаться; 0 - выполнено сразу
+ */
+public record CompiledScenario(String name,
+                               String[] sensorIds,
+                               ConditionType[] types,
+                               ConditionOperation[] operations,
+                               int[] values,
+                               int[] upperValues,
+                               long[] holdMs,
+                               ConditionProgram program,
+                               Action[] actions) {
+
+    public int conditionCount() {
+        return sensorIds.length;
+    }
+
+    /**
+     * Есть ли условия с удержанием: такой сценарий зависит от времени и проверяется на каждом снимке хаба
+     */
+    public boolean timed() {
+        for (long hold : holdMs) {
+            if (hold > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public record Action(String sensorId, ActionType type, Integer value) {
+    }
+}
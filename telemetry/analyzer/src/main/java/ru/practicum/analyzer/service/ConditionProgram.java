@@ -0,0 +1,162 @@
+package ru.practicum.analyzer.service;
+
+import ru.yandex.practicum.kafka.telemetry.event.ConditionNodeAvro;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Дерево условий сценария, скомпилированное в постфиксную программу.
+ * <p>
+ * Инструкция - int: в младших битах код операции, в остальных операнд (номер условия или количество
+ * операндов AND/OR). Результаты условий передаются битовой маской, стек вычисления - биты одного long,
+ * поэтому проверка не создаёт объектов. Отсюда пределы: до 64 условий в сценарии и глубина стека до 63.
+ * <p>
+ * Текстовая запись дерева хранится в БД: номера условий, {@code AND/n}, {@code OR/n} и {@code NOT}
+ * через пробел, например {@code "0 1 OR/2 2 NOT AND/2"}
+ */
+public final class ConditionProgram {
+    public static final int MAX_CONDITIONS = Long.SIZE;
+    static final int MAX_DEPTH = Long.SIZE - 1;
+
+    private static final int LEAF = 0;
+    private static final int AND = 1;
+    private static final int OR = 2;
+    private static final int NOT = 3;
+    private static final int OPCODE_BITS = 2;
+    private static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+    private final int[] code;
+
+    private ConditionProgram(int[] code) {
+        this.code = code;
+    }
+
+    /**
+     * Программа сценария: разбирает запись дерева или, если её нет, соединяет все условия через AND
+     *
+     * @throws IllegalArgumentException если запись некорректна или условий больше {@link #MAX_CONDITIONS}
+     */
+    public static ConditionProgram compile(String expression, int conditionCount) {
+        if (conditionCount > MAX_CONDITIONS) {
+            throw new IllegalArgumentException("Условий в сценарии больше " + MAX_CONDITIONS + ": " + conditionCount);
+        }
+        return expression == null || expression.isBlank()
+                ? allOf(conditionCount)
+                : parse(expression, conditionCount);
+    }
+
+    /**
+     * Записывает дерево условий из события хаба. Пустое дерево - {@code null}
+     */
+    public static String expression(List<ConditionNodeAvro> nodes) {
+        if (nodes == null || nodes.isEmpty()) {
+            return null;
+        }
+        StringJoiner joiner = new StringJoiner(" ");
+        for (ConditionNodeAvro node : nodes) {
+            if (node.getType() == null) {
+                throw new IllegalArgumentException("Не задан тип узла дерева условий");
+            }
+            joiner.add(switch (node.getType()) {
+                case CONDITION -> Integer.toString(node.getCondition());
+                case AND -> "AND/" + node.getArity();
+                case OR -> "OR/" + node.getArity();
+                case NOT -> "NOT";
+            });
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * @param results результаты условий: бит i - выполнено ли i-е условие
+     */
+    public boolean evaluate(long results) {
+        if (code.length == 0) {
+            return true;
+        }
+        long stack = 0;
+        for (int instruction : code) {
+            int operand = instruction >>> OPCODE_BITS;
+            switch (instruction & OPCODE_MASK) {
+                case LEAF -> stack = stack << 1 | (results >>> operand & 1);
+                case AND -> {
+                    long mask = -1L >>> (Long.SIZE - operand);
+                    stack = (stack >>> operand) << 1 | ((stack & mask) == mask ? 1 : 0);
+                }
+                case OR -> {
+                    long mask = -1L >>> (Long.SIZE - operand);
+                    stack = (stack >>> operand) << 1 | ((stack & mask) != 0 ? 1 : 0);
+                }
+                default -> stack ^= 1;
+            }
+        }
+        return (stack & 1) != 0;
+    }
+
+    private static ConditionProgram allOf(int conditionCount) {
+        // AND после каждой пары: глубина стека не больше двух при любом количестве условий
+        int[] code = new int[Math.max(0, conditionCount * 2 - 1)];
+        int pc = 0;
+        for (int i = 0; i < conditionCount; i++) {
+            code[pc++] = instruction(LEAF, i);
+            if (i > 0) {
+                code[pc++] = instruction(AND, 2);
+            }
+        }
+        return new ConditionProgram(code);
+    }
+
+    private static ConditionProgram parse(String expression, int conditionCount) {
+        String[] tokens = expression.trim().split("\\s+");
+        int[] code = new int[tokens.length];
+        int depth = 0;
+        for (int pc = 0; pc < tokens.length; pc++) {
+            String token = tokens[pc];
+            if (token.equals("NOT")) {
+                require(depth >= 1, "NOT без операнда", expression);
+                code[pc] = instruction(NOT, 0);
+            } else if (token.startsWith("AND/") || token.startsWith("OR/")) {
+                boolean and = token.startsWith("AND/");
+                int arity = number(token.substring(and ? 4 : 3), expression);
+                require(arity >= 1 && arity <= depth, "Недостаточно операндов для " + token, expression);
+                code[pc] = instruction(and ? AND : OR, arity);
+                depth -= arity - 1;
+            } else {
+                int condition = number(token, expression);
+                require(condition < conditionCount, "Нет условия с номером " + condition, expression);
+                code[pc] = instruction(LEAF, condition);
+                depth++;
+                require(depth <= MAX_DEPTH, "Глубина стека больше " + MAX_DEPTH, expression);
+            }
+        }
+        require(depth == 1, "Дерево должно сводиться к одному результату", expression);
+        return new ConditionProgram(code);
+    }
+
+    private static int instruction(int opcode, int operand) {
+        return operand << OPCODE_BITS | opcode;
+    }
+
+    private static int number(String token, String expression) {
+        try {
+            int value = Integer.parseInt(token);
+            require(value >= 0, "Отрицательное число " + token, expression);
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Неизвестный узел " + token + " в дереве условий: " + expression);
+        }
+    }
+
+    private static void require(boolean condition, String message, String expression) {
+        if (!condition) {
+            throw new IllegalArgumentException(message + " в дереве условий: " + expression);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConditionProgram" + Arrays.toString(code);
+    }
+}
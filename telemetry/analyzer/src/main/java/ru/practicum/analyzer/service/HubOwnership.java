@@ -0,0 +1,106 @@
+package ru.practicum.analyzer.service;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.utils.Utils;
+import org.springframework.stereotype.Component;
+import ru.practicum.analyzer.config.AnalyzerShardingProperties;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Хабы, которыми владеет экземпляр analyzer'а. Без {@code analyzer.sharding.enabled} экземпляр
+ * владеет всеми хабами.
+ * <p>
+ * В режиме шардирования хаб принадлежит экземпляру, если ему назначена партиция хаба хотя бы в одной
+ * из тем группы. Партиция хаба вычисляется так же, как у producer'а с ключом hubId: murmur2 по ключу
+ * по модулю количества партиций
+ */
+@Slf4j
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class HubOwnership {
+    boolean sharded;
+    Map<String, Set<Integer>> partitionsByTopic = new HashMap<>();
+
+    @NonFinal
+    volatile Set<Integer> owned = Set.of();
+
+    @NonFinal
+    volatile int partitionCount;
+
+    public HubOwnership(AnalyzerShardingProperties properties) {
+        this.sharded = properties.isEnabled();
+    }
+
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    public boolean owns(String hubId) {
+        if (!sharded) {
+            return true;
+        }
+        int partitions = partitionCount;
+        return partitions > 0 && owned.contains(partitionOf(hubId, partitions));
+    }
+
+    /**
+     * Владеет ли экземпляр хабом, если ему назначены партиции units
+     */
+    public boolean owns(String hubId, Set<Integer> units) {
+        int partitions = partitionCount;
+        return partitions > 0 && units.contains(partitionOf(hubId, partitions));
+    }
+
+    /**
+     * Запоминает новое назначение партиций темы
+     *
+     * @return партиции, которые экземпляр получил и потерял по всем темам
+     */
+    public synchronized Change assigned(String topic, Collection<Integer> partitions, int topicPartitionCount) {
+        if (partitionCount == 0) {
+            partitionCount = topicPartitionCount;
+        } else if (partitionCount != topicPartitionCount) {
+            log.error("В теме: {} партиций: {}, ожидалось: {}. События и снимки хаба могут читать разные экземпляры",
+                    topic, topicPartitionCount, partitionCount);
+        }
+        partitionsByTopic.put(topic, Set.copyOf(partitions));
+        return update();
+    }
+
+    /**
+     * Партиции темы потеряны без отзыва, например consumer исключён из группы
+     */
+    public synchronized Change lost(String topic) {
+        partitionsByTopic.remove(topic);
+        return update();
+    }
+
+    private Change update() {
+        Set<Integer> current = new HashSet<>();
+        partitionsByTopic.values().forEach(current::addAll);
+
+        Set<Integer> added = new HashSet<>(current);
+        added.removeAll(owned);
+        Set<Integer> removed = new HashSet<>(owned);
+        removed.removeAll(current);
+
+        owned = Set.copyOf(current);
+        return new Change(added, removed);
+    }
+
+    static int partitionOf(String hubId, int partitions) {
+        return Utils.toPositive(Utils.murmur2(hubId.getBytes(StandardCharsets.UTF_8))) % partitions;
+    }
+
+    public record Change(Set<Integer> added, Set<Integer> removed) {
+    }
+}
@@ -0,0 +1,51 @@
+package ru.practicum.analyzer.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Неизменяемый набор сценариев хаба с обратным индексом: для каждого датчика - номера
+ * сценариев, условия которых на него ссылаются. Отдельно - номера сценариев с удержанием
+ * условий, которые зависят от времени, а не только от изменившихся датчиков
+ */
+public record HubScenarios(List<CompiledScenario> scenarios, Map<String, int[]> scenariosBySensor, int[] timed) {
+    private static final int[] NONE = new int[0];
+
+    public static final HubScenarios EMPTY = new HubScenarios(List.of(), Map.of(), NONE);
+
+    public static HubScenarios of(List<CompiledScenario> scenarios) {
+        if (scenarios.isEmpty()) {
+            return EMPTY;
+        }
+
+        Map<String, List<Integer>> bySensor = new HashMap<>();
+        for (int i = 0; i < scenarios.size(); i++) {
+            CompiledScenario scenario = scenarios.get(i);
+            for (String sensorId : scenario.sensorIds()) {
+                List<Integer> indexes = bySensor.computeIfAbsent(sensorId, id -> new ArrayList<>());
+                if (indexes.isEmpty() || indexes.getLast() != i) {
+                    indexes.add(i);
+                }
+            }
+        }
+
+        Map<String, int[]> index = new HashMap<>();
+        bySensor.forEach((sensorId, indexes) ->
+                index.put(sensorId, indexes.stream().mapToInt(Integer::intValue).toArray()));
+        int[] timed = IntStream.range(0, scenarios.size())
+                .filter(i -> scenarios.get(i).timed())
+                .toArray();
+        return new HubScenarios(List.copyOf(scenarios), Map.copyOf(index), timed);
+    }
+
+    public int[] dependentOn(String sensorId) {
+        return scenariosBySensor.getOrDefault(sensorId, NONE);
+    }
+
+    public boolean isEmpty() {
+        return scenarios.isEmpty();
+    }
+}
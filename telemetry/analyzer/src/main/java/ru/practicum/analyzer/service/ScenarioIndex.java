@@ -0,0 +1,274 @@
+package ru.practicum.analyzer.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.analyzer.mapper.AvroToEntityMapper;
+import ru.practicum.analyzer.model.Action;
+import ru.practicum.analyzer.model.Condition;
+import ru.practicum.analyzer.model.Scenario;
+import ru.practicum.analyzer.model.ScenarioAction;
+import ru.practicum.analyzer.model.ScenarioCondition;
+import ru.practicum.analyzer.model.enums.ConditionOperation;
+import ru.practicum.analyzer.model.enums.ConditionType;
+import ru.practicum.analyzer.repository.ScenarioRepository;
+import ru.yandex.practicum.kafka.telemetry.event.DeviceActionAvro;
+import ru.yandex.practicum.kafka.telemetry.event.ScenarioAddedEventAvro;
+import ru.yandex.practicum.kafka.telemetry.event.ScenarioConditionAvro;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сценарии хабов в памяти. Строится из БД при старте, затем обновляется по событиям
+ * ScenarioAdded/ScenarioRemoved после фиксации их в БД. Список сценариев хаба неизменяем
+ * и заменяется целиком, поэтому проверка снимка читает его без блокировок.
+ * <p>
+ * События хабов делятся между экземплярами analyzer'а группой consumer'ов, поэтому индекс
+ * дополнительно перечитывается из БД с периодом {@code analyzer.scenario-index.refresh-ms}.
+ * Изменения хаба по событиям получают номер поколения; перечитывание не заменяет хаб, изменённый
+ * после начала чтения БД, иначе событие, пришедшее во время запроса, затёрлось бы старыми данными.
+ * <p>
+ * В режиме шардирования индекс хранит только хабы экземпляра ({@link HubOwnership}): сценарии
+ * загружаются при назначении партиций и выгружаются при их потере
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ScenarioIndex {
+    private static final int LOAD_CHUNK = 1000;
+
+    ScenarioRepository scenarioRepository;
+    AvroToEntityMapper mapper;
+    HubOwnership ownership;
+    Map<String, HubScenarios> scenariosByHub = new ConcurrentHashMap<>();
+    // поколение последнего изменения хаба по событию; записи старше завершённого перечитывания удаляются
+    Map<String, Long> modifiedAt = new ConcurrentHashMap<>();
+    AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    void load() {
+        reload();
+    }
+
+    @Scheduled(initialDelayString = "${analyzer.scenario-index.refresh-ms:60000}",
+            fixedDelayString = "${analyzer.scenario-index.refresh-ms:60000}")
+    public synchronized void reload() {
+        long startedAt = generation.get();
+        List<Scenario> scenarios;
+        if (ownership.isSharded()) {
+            List<String> hubIds = scenarioRepository.findAllHubIds().stream()
+                    .filter(ownership::owns)
+                    .toList();
+            scenarios = findByHubIds(hubIds);
+        } else {
+            scenarios = scenarioRepository.findAllWithConditionsAndActions();
+        }
+        Map<String, List<CompiledScenario>> loaded = compileAll(scenarios);
+
+        for (String hubId : scenariosByHub.keySet()) {
+            if (!loaded.containsKey(hubId)) {
+                scenariosByHub.computeIfPresent(hubId, (id, current) -> modifiedSince(id, startedAt) ? current : null);
+            }
+        }
+        loaded.forEach((hubId, hubScenarios) -> replace(hubId, hubScenarios, startedAt));
+        modifiedAt.values().removeIf(modified -> modified <= startedAt);
+
+        log.info("Индекс сценариев загружен: хабов = {}, сценариев = {}", loaded.size(), scenarios.size());
+    }
+
+    /**
+     * Загружает сценарии хабов, попадающих в назначенные экземпляру партиции
+     */
+    public synchronized void loadPartitions(Set<Integer> partitions) {
+        long startedAt = generation.get();
+        List<String> hubIds = scenarioRepository.findAllHubIds().stream()
+                .filter(hubId -> ownership.owns(hubId, partitions))
+                .toList();
+        List<Scenario> scenarios = findByHubIds(hubIds);
+        compileAll(scenarios).forEach((hubId, hubScenarios) -> replace(hubId, hubScenarios, startedAt));
+
+        log.info("Загружены сценарии партиций: {}, хабов = {}, сценариев = {}",
+                partitions, hubIds.size(), scenarios.size());
+    }
+
+    /**
+     * Выгружает сценарии хабов, которыми экземпляр больше не владеет
+     */
+    public synchronized void retainOwned() {
+        int before = scenariosByHub.size();
+        scenariosByHub.keySet().removeIf(hubId -> !ownership.owns(hubId));
+        modifiedAt.keySet().removeIf(hubId -> !ownership.owns(hubId));
+        log.info("Выгружены сценарии хабов других экземпляров: {}", before - scenariosByHub.size());
+    }
+
+    public HubScenarios get(String hubId) {
+        return scenariosByHub.getOrDefault(hubId, HubScenarios.EMPTY);
+    }
+
+    /**
+     * Добавляет или заменяет сценарий хаба по имени
+     */
+    public void put(String hubId, CompiledScenario compiled) {
+        if (!ownership.owns(hubId)) {
+            log.debug("Хаб: {} принадлежит другому экземпляру, сценарий: {} не добавлен в индекс",
+                    hubId, compiled.name());
+            return;
+        }
+        scenariosByHub.compute(hubId, (id, current) -> {
+            modifiedAt.put(id, generation.incrementAndGet());
+            List<CompiledScenario> updated = new ArrayList<>();
+            if (current != null) {
+                for (CompiledScenario scenario : current.scenarios()) {
+                    if (!scenario.name().equals(compiled.name())) {
+                        updated.add(scenario);
+                    }
+                }
+            }
+            updated.add(compiled);
+            return HubScenarios.of(updated);
+        });
+    }
+
+    public void remove(String hubId, String name) {
+        // поколение записывается и для хаба не из индекса: идущее перечитывание могло прочитать сценарий до удаления
+        scenariosByHub.compute(hubId, (id, current) -> {
+            modifiedAt.put(id, generation.incrementAndGet());
+            if (current == null) {
+                return null;
+            }
+            List<CompiledScenario> updated = current.scenarios().stream()
+                    .filter(scenario -> !scenario.name().equals(name))
+                    .toList();
+            return updated.isEmpty() ? null : HubScenarios.of(updated);
+        });
+    }
+
+    /**
+     * Заменяет сценарии хаба прочитанными из БД, если хаб не менялся по событиям после начала чтения
+     */
+    private void replace(String hubId, List<CompiledScenario> loaded, long startedAt) {
+        scenariosByHub.compute(hubId, (id, current) ->
+                modifiedSince(id, startedAt) ? current : HubScenarios.of(loaded));
+    }
+
+    private boolean modifiedSince(String hubId, long startedAt) {
+        Long modified = modifiedAt.get(hubId);
+        return modified != null && modified > startedAt;
+    }
+
+    private List<Scenario> findByHubIds(List<String> hubIds) {
+        List<Scenario> scenarios = new ArrayList<>();
+        for (int from = 0; from < hubIds.size(); from += LOAD_CHUNK) {
+            scenarios.addAll(scenarioRepository.findAllWithConditionsAndActionsByHubIdIn(
+                    hubIds.subList(from, Math.min(from + LOAD_CHUNK, hubIds.size()))));
+        }
+        return scenarios;
+    }
+
+    private Map<String, List<CompiledScenario>> compileAll(List<Scenario> scenarios) {
+        Map<String, List<CompiledScenario>> compiled = new HashMap<>();
+        for (Scenario scenario : scenarios) {
+            try {
+                compiled.computeIfAbsent(scenario.getHubId(), hubId -> new ArrayList<>()).add(compile(scenario));
+            } catch (IllegalArgumentException e) {
+                log.error("Сценарий: {} хаба: {} не загружен: {}", scenario.getName(), scenario.getHubId(),
+                        e.getMessage());
+            }
+        }
+        return compiled;
+    }
+
+    private CompiledScenario compile(Scenario scenario) {
+        Builder builder = new Builder(scenario.getName(), scenario.getConditionExpression());
+        List<ScenarioCondition> conditions = new ArrayList<>(scenario.getConditions());
+        // узлы дерева ссылаются на номера условий; у сценариев без дерева номеров может не быть
+        conditions.sort(Comparator.comparing(ScenarioCondition::getPosition,
+                Comparator.nullsLast(Comparator.naturalOrder())));
+        for (ScenarioCondition condition : conditions) {
+            builder.condition(condition.getId().getSensorId(), condition.getCondition());
+        }
+        for (ScenarioAction action : scenario.getActions()) {
+            builder.action(action.getId().getSensorId(), action.getAction());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Готовит сценарий из события хаба к проверке
+     *
+     * @throws IllegalArgumentException если дерево условий или условие некорректно
+     */
+    public CompiledScenario compile(ScenarioAddedEventAvro event) {
+        Builder builder = new Builder(event.getName(), ConditionProgram.expression(event.getConditionTree()));
+        if (event.getConditions() != null) {
+            for (ScenarioConditionAvro condition : event.getConditions()) {
+                builder.condition(condition.getSensorId(), mapper.toCondition(condition));
+            }
+        }
+        if (event.getActions() != null) {
+            for (DeviceActionAvro action : event.getActions()) {
+                builder.action(action.getSensorId(), mapper.toAction(action));
+            }
+        }
+        return builder.build();
+    }
+
+    private static final class Builder {
+        final String name;
+        final String expression;
+        final List<String> sensorIds = new ArrayList<>();
+        final List<Condition> conditions = new ArrayList<>();
+        final List<CompiledScenario.Action> actions = new ArrayList<>();
+
+        Builder(String name, String expression) {
+            this.name = name;
+            this.expression = expression;
+        }
+
+        void condition(String sensorId, Condition condition) {
+            sensorIds.add(sensorId);
+            conditions.add(condition);
+        }
+
+        void action(String sensorId, Action action) {
+            actions.add(new CompiledScenario.Action(sensorId, action.getType(), action.getValue()));
+        }
+
+        CompiledScenario build() {
+            int size = conditions.size();
+            CompiledScenario compiled = new CompiledScenario(name,
+                    sensorIds.toArray(String[]::new),
+                    new ConditionType[size],
+                    new ConditionOperation[size],
+                    new int[size],
+                    new int[size],
+                    new long[size],
+                    ConditionProgram.compile(expression, size),
+                    actions.toArray(CompiledScenario.Action[]::new));
+            for (int i = 0; i < size; i++) {
+                Condition condition = conditions.get(i);
+                if (condition.getOperation() == ConditionOperation.BETWEEN && condition.getUpperValue() == null) {
+                    throw new IllegalArgumentException("Не задана верхняя граница BETWEEN для условия " + i);
+                }
+                compiled.types()[i] = condition.getType();
+                compiled.operations()[i] = condition.getOperation();
+                compiled.values()[i] = condition.getValue() == null ? 0 : condition.getValue();
+                compiled.upperValues()[i] = condition.getUpperValue() == null ? 0 : condition.getUpperValue();
+                compiled.holdMs()[i] = condition.getHoldMs() == null ? 0 : Math.max(0, condition.getHoldMs());
+            }
+            return compiled;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package ru.practicum.analyzer.service;
 
+import jakarta.persistence.EntityManager;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
@@ -15,6 +16,9 @@ import ru.practicum.analyzer.model.ScenarioActionId;
 import ru.practicum.analyzer.model.ScenarioCondition;
 import ru.practicum.analyzer.model.ScenarioConditionId;
 import ru.practicum.analyzer.model.Sensor;
+import ru.practicum.analyzer.model.enums.ActionType;
+import ru.practicum.analyzer.model.enums.ConditionOperation;
+import ru.practicum.analyzer.model.enums.ConditionType;
 import ru.practicum.analyzer.repository.ActionRepository;
 import ru.practicum.analyzer.repository.ConditionRepository;
 import ru.practicum.analyzer.repository.ScenarioActionRepository;
@@ -26,6 +30,15 @@ import ru.yandex.practicum.kafka.telemetry.event.HubEventAvro;
 import ru.yandex.practicum.kafka.telemetry.event.ScenarioAddedEventAvro;
 import ru.yandex.practicum.kafka.telemetry.event.ScenarioConditionAvro;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 @Service
 @RequiredArgsConstructor
 @Slf4j
@@ -38,6 +51,7 @@ public class ScenarioService {
     ScenarioConditionRepository scenarioConditionRepo;
     ScenarioActionRepository scenarioActionRepo;
     AvroToEntityMapper mapper;
+    EntityManager entityManager;
 
     @Transactional
     public void saveOrUpdateScenario(HubEventAvro hubEvent) {
@@ -57,86 +71,155 @@ public class ScenarioService {
                 .orElseGet(() -> mapper.toScenario(hubId, evt));
         scenario.setHubId(hubId);
         scenario.setName(evt.getName());
+        scenario.setConditionExpression(ConditionProgram.expression(evt.getConditionTree()));
         scenario = scenarioRepository.save(scenario);
 
         log.info("Сохранён сценарий: {}", scenario);
 
-        // --- Удаляем старые связи
-        Long scenarioId = scenario.getId();
-        scenarioConditionRepo.deleteByIdScenarioId(scenarioId);
-        scenarioActionRepo.deleteByIdScenarioId(scenarioId);
-
-        // --- Сохраняем условия
-        if (evt.getConditions() != null) {
-            for (ScenarioConditionAvro avro : evt.getConditions()) {
-                String sensorId = avro.getSensorId();
-
-                // --- если сенсор не найден, то создаём его
-                Sensor sensor = sensorRepository.findById(sensorId)
-                        .orElseGet(() -> {
-                            Sensor s = Sensor.builder()
-                                    .id(sensorId)
-                                    .hubId(hubId)
-                                    .build();
-                            log.info("Автосоздаём сенсор: {} для хаба: {}", sensorId, hubId);
-                            return sensorRepository.save(s);
-                        });
-
-                Condition condition = mapper.toCondition(avro);
-                condition = conditionRepository.save(condition);
-
-                ScenarioCondition sc = ScenarioCondition.builder()
-                        .id(new ScenarioConditionId(scenarioId, sensorId, condition.getId()))
-                        .scenario(scenario)
-                        .sensor(sensor)
-                        .condition(condition)
+        List<ScenarioConditionAvro> conditions = evt.getConditions() != null ? evt.getConditions() : List.of();
+        List<DeviceActionAvro> actions = evt.getActions() != null ? evt.getActions() : List.of();
+
+        // --- Одним запросом находим все датчики сценария, недостающие создаём
+        Map<String, Sensor> sensors = resolveSensors(hubId, conditions, actions);
+
+        // --- Обновляем связи по разнице с сохранёнными: совпадающие остаются, лишние удаляются, новые добавляются
+        int conditionsAdded = syncConditions(scenario, conditions, sensors);
+        int actionsAdded = syncActions(scenario, actions, sensors);
+
+        log.info("Сценарий: {} для хаба: {} сохранён/обновлён: условия = {} (новых {}), действия = {} (новых {})",
+                scenario.getName(), hubId, conditions.size(), conditionsAdded, actions.size(), actionsAdded);
+    }
+
+    private Map<String, Sensor> resolveSensors(String hubId,
+                                               List<ScenarioConditionAvro> conditions,
+                                               List<DeviceActionAvro> actions) {
+        Set<String> sensorIds = new LinkedHashSet<>();
+        conditions.forEach(condition -> sensorIds.add(condition.getSensorId()));
+        actions.forEach(action -> sensorIds.add(action.getSensorId()));
+
+        Map<String, Sensor> sensors = new HashMap<>();
+        sensorRepository.findAllById(sensorIds).forEach(sensor -> sensors.put(sensor.getId(), sensor));
+
+        // --- если сенсор не найден, то создаём его
+        for (String sensorId : sensorIds) {
+            if (!sensors.containsKey(sensorId)) {
+                Sensor sensor = Sensor.builder()
+                        .id(sensorId)
+                        .hubId(hubId)
                         .build();
-                scenarioConditionRepo.save(sc);
+                log.info("Автосоздаём сенсор: {} для хаба: {}", sensorId, hubId);
+                entityManager.persist(sensor);
+                sensors.put(sensorId, sensor);
             }
         }
+        return sensors;
+    }
 
-        // --- Сораняем действия
-        if (evt.getActions() != null) {
-            for (DeviceActionAvro avro : evt.getActions()) {
-                String sensorId = avro.getSensorId();
-
-                // --- если сенсор не найден, то создаём его
-                Sensor sensor = sensorRepository.findById(sensorId)
-                        .orElseGet(() -> {
-                            Sensor s = Sensor.builder()
-                                    .id(sensorId)
-                                    .hubId(hubId)
-                                    .build();
-                            log.info("Автосоздаём сенсор: {} для хаба: {}", sensorId, hubId);
-                            return sensorRepository.save(s);
-                        });
-
-                Action action = mapper.toAction(avro);
-                action = actionRepository.save(action);
-
-                ScenarioAction sa = ScenarioAction.builder()
-                        .id(new ScenarioActionId(scenarioId, sensorId, action.getId()))
-                        .scenario(scenario)
-                        .sensor(sensor)
-                        .action(action)
-                        .build();
-                scenarioActionRepo.save(sa);
+    private int syncConditions(Scenario scenario, List<ScenarioConditionAvro> avros, Map<String, Sensor> sensors) {
+        Long scenarioId = scenario.getId();
+
+        Map<ConditionKey, Deque<Long>> stale = new HashMap<>();
+        for (ScenarioCondition sc : scenarioConditionRepo.findAllByIdScenarioId(scenarioId)) {
+            stale.computeIfAbsent(ConditionKey.of(sc.getId().getSensorId(), sc.getPosition(), sc.getCondition()),
+                    key -> new ArrayDeque<>()).add(sc.getCondition().getId());
+        }
+
+        // номер условия входит в ключ: узлы дерева ссылаются на условия по номеру
+        List<Integer> added = new ArrayList<>();
+        for (int position = 0; position < avros.size(); position++) {
+            ScenarioConditionAvro avro = avros.get(position);
+            Deque<Long> same = stale.get(ConditionKey.of(avro.getSensorId(), position, mapper.toCondition(avro)));
+            if (same == null || same.poll() == null) {
+                added.add(position);
             }
         }
 
-        log.info("Сценарий: {} для хаба: {} сохранён/обновлён: условия = {}, действия = {}",
-                scenario.getName(), hubId,
-                evt.getConditions() != null ? evt.getConditions().size() : 0,
-                evt.getActions() != null ? evt.getActions().size() : 0);
+        List<Long> staleIds = stale.values().stream().flatMap(Deque::stream).toList();
+        if (!staleIds.isEmpty()) {
+            scenarioConditionRepo.deleteByScenarioIdAndConditionIds(scenarioId, staleIds);
+            conditionRepository.deleteAllByIdInBatch(staleIds);
+        }
+
+        // --- Новые строки вставляются JDBC-пакетами при сбросе контекста
+        for (int position : added) {
+            ScenarioConditionAvro avro = avros.get(position);
+            Condition condition = mapper.toCondition(avro);
+            entityManager.persist(condition);
+
+            entityManager.persist(ScenarioCondition.builder()
+                    .id(new ScenarioConditionId(scenarioId, avro.getSensorId(), condition.getId()))
+                    .scenario(scenario)
+                    .sensor(sensors.get(avro.getSensorId()))
+                    .condition(condition)
+                    .position(position)
+                    .build());
+        }
+        return added.size();
+    }
+
+    private int syncActions(Scenario scenario, List<DeviceActionAvro> avros, Map<String, Sensor> sensors) {
+        Long scenarioId = scenario.getId();
+
+        Map<ActionKey, Deque<Long>> stale = new HashMap<>();
+        for (ScenarioAction sa : scenarioActionRepo.findAllByIdScenarioId(scenarioId)) {
+            stale.computeIfAbsent(ActionKey.of(sa.getId().getSensorId(), sa.getAction()),
+                    key -> new ArrayDeque<>()).add(sa.getAction().getId());
+        }
+
+        List<DeviceActionAvro> added = new ArrayList<>();
+        for (DeviceActionAvro avro : avros) {
+            Deque<Long> same = stale.get(ActionKey.of(avro.getSensorId(), mapper.toAction(avro)));
+            if (same == null || same.poll() == null) {
+                added.add(avro);
+            }
+        }
+
+        List<Long> staleIds = stale.values().stream().flatMap(Deque::stream).toList();
+        if (!staleIds.isEmpty()) {
+            scenarioActionRepo.deleteByScenarioIdAndActionIds(scenarioId, staleIds);
+            actionRepository.deleteAllByIdInBatch(staleIds);
+        }
+
+        for (DeviceActionAvro avro : added) {
+            Action action = mapper.toAction(avro);
+            entityManager.persist(action);
+
+            entityManager.persist(ScenarioAction.builder()
+                    .id(new ScenarioActionId(scenarioId, avro.getSensorId(), action.getId()))
+                    .scenario(scenario)
+                    .sensor(sensors.get(avro.getSensorId()))
+                    .action(action)
+                    .build());
+        }
+        return added.size();
     }
 
     @Transactional
     public void removeScenario(String hubId, String name) {
         scenarioRepository.findByHubIdAndName(hubId, name).ifPresent(s -> {
+            List<Long> conditionIds = scenarioConditionRepo.findConditionIdsByScenarioId(s.getId());
+            List<Long> actionIds = scenarioActionRepo.findActionIdsByScenarioId(s.getId());
             scenarioConditionRepo.deleteByIdScenarioId(s.getId());
             scenarioActionRepo.deleteByIdScenarioId(s.getId());
+            conditionRepository.deleteAllByIdInBatch(conditionIds);
+            actionRepository.deleteAllByIdInBatch(actionIds);
             scenarioRepository.delete(s);
             log.info("Сценарий: {} для хаба: {} удалён.", name, hubId);
         });
     }
-}
\ No newline at end of file
+
+    private record ConditionKey(String sensorId, Integer position, ConditionType type, ConditionOperation operation,
+                                Integer value, Integer upperValue, long holdMs) {
+        static ConditionKey of(String sensorId, Integer position, Condition condition) {
+            return new ConditionKey(sensorId, position, condition.getType(), condition.getOperation(),
+                    condition.getValue(), condition.getUpperValue(),
+                    condition.getHoldMs() == null ? 0 : condition.getHoldMs());
+        }
+    }
+
+    private record ActionKey(String sensorId, ActionType type, Integer value) {
+        static ActionKey of(String sensorId, Action action) {
+            return new ActionKey(sensorId, action.getType(), action.getValue());
+        }
+    }
+}
@@ -2,6 +2,20 @@ package ru.practicum.analyzer.service;
 
 import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
 
+import java.util.Collection;
+import java.util.function.Predicate;
+
 public interface SmartHomeDirective {
     void update(SensorsSnapshotAvro snapshotAvro);
+
+    /**
+     * Проверяет снимок, когда изменившиеся датчики известны заранее, например из дельты.
+     * null - изменения определяются сравнением с предыдущим снимком хаба
+     */
+    void update(SensorsSnapshotAvro snapshotAvro, Collection<String> changedSensors);
+
+    /**
+     * Забывает состояние проверки хабов, которыми экземпляр больше не владеет
+     */
+    void retainHubs(Predicate<String> owned);
 }
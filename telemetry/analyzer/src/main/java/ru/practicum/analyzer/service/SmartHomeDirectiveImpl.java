@@ -1,18 +1,15 @@
 package ru.practicum.analyzer.service;
 
+import jakarta.annotation.PreDestroy;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.analyzer.client.HubRouterClient;
-import ru.practicum.analyzer.model.Condition;
-import ru.practicum.analyzer.model.Scenario;
-import ru.practicum.analyzer.model.ScenarioAction;
 import ru.practicum.analyzer.model.enums.ConditionOperation;
 import ru.practicum.analyzer.model.enums.ConditionType;
-import ru.practicum.analyzer.repository.ScenarioRepository;
 import ru.yandex.practicum.kafka.telemetry.event.ClimateSensorAvro;
 import ru.yandex.practicum.kafka.telemetry.event.LightSensorAvro;
 import ru.yandex.practicum.kafka.telemetry.event.MotionSensorAvro;
@@ -21,72 +18,252 @@ import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
 import ru.yandex.practicum.kafka.telemetry.event.SwitchSensorAvro;
 import ru.yandex.practicum.kafka.telemetry.event.TemperatureSensorAvro;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
+/**
+ * Проверяет сценарии хаба по снимку его датчиков.
+ * <p>
+ * При {@code analyzer.evaluation.incremental=true} перепроверяются только сценарии, условия которых
+ * ссылаются на изменившиеся датчики, а действия отправляются лишь на переходе условий из false в true.
+ * Последнее значение условий хранится по имени сценария, поэтому перечитывание индекса сценариев
+ * вызывает одну полную проверку хаба, но не повторную отправку действий.
+ * <p>
+ * Условие с удержанием выполнено, если его предикат истинен на снимках хаба не меньше holdMs
+ * по времени снимка. Сценарии с удержанием перепроверяются на каждом снимке независимо от изменившихся
+ * датчиков. Неизменившийся снимок aggregator не публикует, поэтому на момент истечения ближайшего
+ * удержания ставится таймер: он перепроверяет сценарии с удержанием по последнему снимку хаба, отсчитывая
+ * время от времени снимка по часам экземпляра. Таймер снимается, когда предикат становится ложным
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
-@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@FieldDefaults(level = AccessLevel.PRIVATE)
 public class SmartHomeDirectiveImpl implements SmartHomeDirective {
-    ScenarioRepository scenarioRepository;
-    HubRouterClient hubRouterClient;
+    final ScenarioIndex scenarioIndex;
+    final HubRouterClient hubRouterClient;
+    final Map<String, HubEvaluation> evaluationsByHubId = new ConcurrentHashMap<>();
+    final Map<String, HoldTimers> holdTimersByHubId = new ConcurrentHashMap<>();
+    final ScheduledExecutorService holdScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "scenario-hold-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${analyzer.evaluation.incremental:false}")
+    boolean incremental;
+
+    @PreDestroy
+    void shutdown() {
+        holdScheduler.shutdownNow();
+    }
 
     @Override
-    @Transactional(readOnly = true)
     public void update(SensorsSnapshotAvro snapshot) {
+        update(snapshot, null);
+    }
+
+    @Override
+    public void retainHubs(Predicate<String> owned) {
+        evaluationsByHubId.keySet().removeIf(hubId -> !owned.test(hubId));
+        holdTimersByHubId.entrySet().removeIf(entry -> {
+            if (owned.test(entry.getKey())) {
+                return false;
+            }
+            discard(entry.getValue());
+            return true;
+        });
+    }
+
+    @Override
+    public void update(SensorsSnapshotAvro snapshot, Collection<String> changedSensors) {
         String hubId = snapshot.getHubId();
-        Map<String, SensorStateAvro> stateMap = snapshot.getSensorsState();
 
         log.info("Получен снимок состояния от hubId: {}", hubId);
 
-        List<Scenario> scenarios = scenarioRepository.findAllByHubId(hubId);
-        log.info("Найдено сценариев для hubId: {} = {}", hubId, scenarios.size());
+        HubScenarios scenarios = scenarioIndex.get(hubId);
+        log.info("Найдено сценариев для hubId: {} = {}", hubId, scenarios.scenarios().size());
 
-        for (Scenario scenario : scenarios) {
-            log.debug("Проверяем сценарий: {}", scenario.getName());
+        long now = snapshot.getTimestamp().toEpochMilli();
+        HoldTimers timers = scenarios.timed().length > 0
+                ? holdTimersByHubId.computeIfAbsent(hubId, id -> new HoldTimers())
+                : null;
+        List<CompiledScenario> triggered = new ArrayList<>();
+        if (timers == null) {
+            discard(holdTimersByHubId.remove(hubId));
+            evaluate(hubId, scenarios, snapshot.getSensorsState(), changedSensors, now, null, triggered);
+        } else {
+            // таймер удержания проверяет хаб из своего потока, снимок и таймер меняются под блокировкой
+            synchronized (timers) {
+                timers.remember(snapshot, now);
+                evaluate(hubId, scenarios, snapshot.getSensorsState(), changedSensors, now, timers, triggered);
+                schedule(hubId, timers, scenarios, now);
+            }
+        }
+
+        if (!triggered.isEmpty()) {
+            hubRouterClient.sendDeviceActions(hubId, triggered);
+        }
+    }
+
+    private void evaluate(String hubId, HubScenarios scenarios, Map<String, SensorStateAvro> stateMap,
+                          Collection<String> changedSensors, long now, HoldTimers timers,
+                          List<CompiledScenario> triggered) {
+        if (incremental) {
+            HubEvaluation evaluation = evaluationsByHubId.computeIfAbsent(hubId, id -> new HubEvaluation());
+            synchronized (evaluation) {
+                evaluation.evaluate(hubId, scenarios, stateMap, changedSensors, now, timers, triggered);
+            }
+        } else {
+            for (CompiledScenario scenario : scenarios.scenarios()) {
+                if (check(scenario, stateMap, now, timers, scenarios)) {
+                    triggered.add(scenario);
+                } else {
+                    log.info("Условия не выполнены, действий по сценарию: {} не будет", scenario.name());
+                }
+            }
+        }
+    }
 
-            boolean allConditionsOk = scenario.getConditions().stream()
-                    .allMatch(sc -> {
-                        String sensorId = sc.getSensor().getId();
-                        SensorStateAvro sensorState = stateMap.get(sensorId);
-                        if (sensorState == null) {
-                            log.warn("Нет состояния для датчика: {}, пропускаем сценарий", sensorId);
-                            return false;
+    /**
+     * Перепроверяет сценарии с удержанием по последнему снимку хаба, когда истекло ближайшее удержание
+     */
+    private void recheck(String hubId, HoldTimers timers) {
+        List<CompiledScenario> triggered = new ArrayList<>();
+        try {
+            synchronized (timers) {
+                if (holdTimersByHubId.get(hubId) != timers || timers.snapshot == null) {
+                    return;
+                }
+                HubScenarios scenarios = scenarioIndex.get(hubId);
+                Map<String, SensorStateAvro> stateMap = timers.snapshot.getSensorsState();
+                long now = timers.now();
+                log.debug("hubId: {}: истекло удержание условий, перепроверка по снимку от {}", hubId,
+                        timers.snapshotTime);
+                if (incremental) {
+                    // изменившихся датчиков нет, поэтому проверяются только сценарии с удержанием
+                    evaluate(hubId, scenarios, stateMap, List.of(), now, timers, triggered);
+                } else {
+                    for (int index : scenarios.timed()) {
+                        CompiledScenario scenario = scenarios.scenarios().get(index);
+                        if (check(scenario, stateMap, now, timers, scenarios)) {
+                            triggered.add(scenario);
                         }
-                        int actual = extractValue(sensorState, sc.getCondition());
-                        Condition cond = sc.getCondition();
-                        boolean ok = evaluate(cond.getOperation(), actual, cond.getValue());
-                        log.debug("датчик={} тип={} операция={} порог={} текущее={} --- {}",
-                                sensorId,
-                                cond.getType(),
-                                cond.getOperation(),
-                                cond.getValue(),
-                                actual,
-                                ok ? "OK" : "FAIL"
-                        );
-                        return ok;
-                    });
-
-            if (allConditionsOk) {
-                int actionsCount = scenario.getActions().size();
-                log.debug("Все условия выполнены, выполняем {} действий", actionsCount);
-                for (ScenarioAction action : scenario.getActions()) {
-                    hubRouterClient.sendDeviceAction(
-                            hubId,
-                            scenario.getName(),
-                            action
-                    );
+                    }
                 }
+                schedule(hubId, timers, scenarios, now);
+            }
+            if (!triggered.isEmpty()) {
+                hubRouterClient.sendDeviceActions(hubId, triggered);
+            }
+        } catch (RuntimeException e) {
+            log.error("Ошибка перепроверки удержания условий hubId: {}: {}", hubId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Ставит таймер на момент истечения ближайшего удержания или снимает его, если удержаний нет
+     */
+    private void schedule(String hubId, HoldTimers timers, HubScenarios scenarios, long now) {
+        timers.cancel();
+        long deadline = timers.nextDeadline(scenarios, now);
+        if (deadline != Long.MAX_VALUE) {
+            timers.recheck = holdScheduler.schedule(() -> recheck(hubId, timers), deadline - now,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void discard(HoldTimers timers) {
+        if (timers != null) {
+            synchronized (timers) {
+                timers.cancel();
+            }
+        }
+    }
+
+    private boolean check(CompiledScenario scenario, Map<String, SensorStateAvro> stateMap, long now,
+                          HoldTimers timers, HubScenarios scenarios) {
+        log.debug("Проверяем сценарий: {}", scenario.name());
+        boolean ok;
+        if (timers != null && scenario.timed()) {
+            synchronized (timers) {
+                ok = scenario.program().evaluate(conditionResults(scenario, stateMap, now,
+                        timers.since(scenarios, scenario)));
+            }
+        } else {
+            ok = scenario.program().evaluate(conditionResults(scenario, stateMap, now, null));
+        }
+        if (ok) {
+            log.debug("Условия выполнены, выполняем {} действий", scenario.actions().length);
+        }
+        return ok;
+    }
+
+    /**
+     * Результаты условий сценария битовой маской: бит i - выполнено ли i-е условие
+     *
+     * @param since моменты, с которых предикаты условий с удержанием непрерывно истинны; 0 - ложны
+     */
+    private long conditionResults(CompiledScenario scenario, Map<String, SensorStateAvro> stateMap, long now,
+                                  long[] since) {
+        long results = 0;
+        for (int i = 0; i < scenario.conditionCount(); i++) {
+            String sensorId = scenario.sensorIds()[i];
+            SensorStateAvro sensorState = stateMap.get(sensorId);
+            boolean ok;
+            if (sensorState == null) {
+                log.warn("Нет состояния для датчика: {}, условие сценария: {} не выполнено", sensorId, scenario.name());
+                ok = false;
             } else {
-                log.info("Условия не выполнены, действий по сценарию: {} не будет", scenario);
+                ConditionType type = scenario.types()[i];
+                ConditionOperation operation = scenario.operations()[i];
+                int actual = extractValue(sensorState, type);
+                ok = evaluate(operation, actual, scenario.values()[i], scenario.upperValues()[i]);
+                log.debug("датчик={} тип={} операция={} порог={} текущее={} --- {}",
+                        sensorId,
+                        type,
+                        operation,
+                        scenario.values()[i],
+                        actual,
+                        ok ? "OK" : "FAIL"
+                );
+            }
+
+            long hold = scenario.holdMs()[i];
+            if (hold > 0 && since != null) {
+                if (!ok) {
+                    since[i] = 0;
+                } else {
+                    if (since[i] == 0) {
+                        since[i] = now;
+                    }
+                    ok = now - since[i] >= hold;
+                    log.debug("датчик={} условие держится {} мс из {}", sensorId, now - since[i], hold);
+                }
+            }
+            if (ok) {
+                results |= 1L << i;
             }
         }
+        return results;
     }
 
-    private int extractValue(SensorStateAvro state, Condition condition) {
+    private int extractValue(SensorStateAvro state, ConditionType type) {
         Object data = state.getData();
-        ConditionType type = condition.getType();
 
         return switch (data) {
             case ClimateSensorAvro c -> switch (type) {
@@ -133,11 +310,170 @@ public class SmartHomeDirectiveImpl implements SmartHomeDirective {
         };
     }
 
-    private boolean evaluate(ConditionOperation op, int actual, int target) {
+    private boolean evaluate(ConditionOperation op, int actual, int target, int upper) {
         return switch (op) {
             case EQUALS -> actual == target;
             case GREATER_THAN -> actual > target;
             case LOWER_THAN -> actual < target;
+            case BETWEEN -> actual >= target && actual <= upper;
         };
     }
+
+    /**
+     * Моменты начала удержания условий сценариев хаба. Хранятся по имени сценария и переживают
+     * перечитывание индекса; при изменении набора сценариев таймеры удалённых сценариев отбрасываются.
+     * Здесь же последний снимок хаба и таймер перепроверки
+     */
+    private static class HoldTimers {
+        final Map<String, long[]> sinceByScenario = new HashMap<>();
+        HubScenarios scenarios;
+        SensorsSnapshotAvro snapshot;
+        long snapshotTime;
+        long receivedAt;
+        ScheduledFuture<?> recheck;
+
+        void remember(SensorsSnapshotAvro snapshot, long now) {
+            this.snapshot = snapshot;
+            this.snapshotTime = now;
+            this.receivedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Время снимка, сдвинутое на время, прошедшее с его получения
+         */
+        long now() {
+            return snapshotTime + Math.max(0, System.currentTimeMillis() - receivedAt);
+        }
+
+        /**
+         * Момент истечения ближайшего неистёкшего удержания; Long.MAX_VALUE - таких нет
+         */
+        long nextDeadline(HubScenarios current, long now) {
+            long next = Long.MAX_VALUE;
+            for (int index : current.timed()) {
+                CompiledScenario scenario = current.scenarios().get(index);
+                long[] since = sinceByScenario.get(scenario.name());
+                if (since == null || since.length != scenario.conditionCount()) {
+                    continue;
+                }
+                for (int i = 0; i < since.length; i++) {
+                    long hold = scenario.holdMs()[i];
+                    if (hold > 0 && since[i] > 0 && since[i] + hold > now) {
+                        next = Math.min(next, since[i] + hold);
+                    }
+                }
+            }
+            return next;
+        }
+
+        void cancel() {
+            if (recheck != null) {
+                recheck.cancel(false);
+                recheck = null;
+            }
+        }
+
+        long[] since(HubScenarios current, CompiledScenario scenario) {
+            if (current != scenarios) {
+                Set<String> names = new HashSet<>();
+                current.scenarios().forEach(s -> names.add(s.name()));
+                sinceByScenario.keySet().retainAll(names);
+                scenarios = current;
+            }
+            long[] since = sinceByScenario.get(scenario.name());
+            if (since == null || since.length != scenario.conditionCount()) {
+                since = new long[scenario.conditionCount()];
+                sinceByScenario.put(scenario.name(), since);
+            }
+            return since;
+        }
+    }
+
+    /**
+     * Состояние инкрементальной проверки хаба: последние данные датчиков и значения условий сценариев
+     */
+    private class HubEvaluation {
+        final Map<String, Object> sensorData = new HashMap<>();
+        final Map<String, Boolean> satisfied = new HashMap<>();
+        HubScenarios scenarios;
+
+        void evaluate(String hubId, HubScenarios current, Map<String, SensorStateAvro> stateMap,
+                      Collection<String> changedSensors, long now, HoldTimers timers,
+                      List<CompiledScenario> triggered) {
+            Collection<String> changed = changedSensors == null
+                    ? diff(stateMap)
+                    : remember(stateMap, changedSensors);
+
+            BitSet candidates = new BitSet(current.scenarios().size());
+            if (current != scenarios) {
+                candidates.set(0, current.scenarios().size());
+                Set<String> names = new HashSet<>();
+                current.scenarios().forEach(scenario -> names.add(scenario.name()));
+                satisfied.keySet().retainAll(names);
+                scenarios = current;
+            } else {
+                for (String sensorId : changed) {
+                    for (int index : current.dependentOn(sensorId)) {
+                        candidates.set(index);
+                    }
+                }
+                for (int index : current.timed()) {
+                    candidates.set(index);
+                }
+            }
+
+            log.debug("hubId: {}: изменилось датчиков = {}, сценариев к проверке = {}",
+                    hubId, changed.size(), candidates.cardinality());
+
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                CompiledScenario scenario = current.scenarios().get(i);
+                boolean ok = check(scenario, stateMap, now, timers, current);
+                Boolean before = satisfied.put(scenario.name(), ok);
+                if (ok && !Boolean.TRUE.equals(before)) {
+                    triggered.add(scenario);
+                } else if (ok) {
+                    log.debug("Условия сценария: {} по-прежнему выполнены, действия не повторяются", scenario.name());
+                }
+            }
+        }
+
+        /**
+         * Сравнивает снимок с последними данными датчиков и запоминает его
+         */
+        Collection<String> diff(Map<String, SensorStateAvro> stateMap) {
+            List<String> changed = new ArrayList<>();
+            for (Map.Entry<String, SensorStateAvro> entry : stateMap.entrySet()) {
+                Object data = entry.getValue().getData();
+                if (!Objects.equals(sensorData.put(entry.getKey(), data), data)) {
+                    changed.add(entry.getKey());
+                }
+            }
+            if (sensorData.size() > stateMap.size()) {
+                Iterator<String> sensorIds = sensorData.keySet().iterator();
+                while (sensorIds.hasNext()) {
+                    String sensorId = sensorIds.next();
+                    if (!stateMap.containsKey(sensorId)) {
+                        sensorIds.remove();
+                        changed.add(sensorId);
+                    }
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * Запоминает данные датчиков, об изменении которых известно заранее
+         */
+        Collection<String> remember(Map<String, SensorStateAvro> stateMap, Collection<String> changedSensors) {
+            for (String sensorId : changedSensors) {
+                SensorStateAvro state = stateMap.get(sensorId);
+                if (state == null) {
+                    sensorData.remove(sensorId);
+                } else {
+                    sensorData.put(sensorId, state.getData());
+                }
+            }
+            return changedSensors;
+        }
+    }
 }
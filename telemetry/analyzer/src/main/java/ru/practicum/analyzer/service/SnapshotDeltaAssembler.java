@@ -0,0 +1,85 @@
+package ru.practicum.analyzer.service;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotDeltaAvro;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Восстанавливает полные снимки хабов из дельт агрегатора.
+ * <p>
+ * Ключевой кадр принимается всегда и задаёт версию хаба. Обычная дельта применяется, только если
+ * её версия следует сразу за текущей; при пропуске версии хаб ждёт следующего ключевого кадра
+ */
+@Slf4j
+@Service
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class SnapshotDeltaAssembler {
+    Map<String, HubState> statesByHubId = new ConcurrentHashMap<>();
+
+    public Optional<SensorsSnapshotAvro> apply(SensorsSnapshotDeltaAvro delta) {
+        String hubId = delta.getHubId();
+
+        if (delta.getKeyframe()) {
+            SensorsSnapshotAvro snapshot = SensorsSnapshotAvro.newBuilder()
+                    .setHubId(hubId)
+                    .setTimestamp(delta.getTimestamp())
+                    .setSensorsState(new HashMap<>(delta.getSensorsState()))
+                    .build();
+            statesByHubId.put(hubId, new HubState(delta.getVersion(), snapshot));
+            return Optional.of(snapshot);
+        }
+
+        HubState state = statesByHubId.get(hubId);
+        if (state == null) {
+            log.debug("Дельта версии {} для hubId: {} до первого ключевого кадра, пропускаем",
+                    delta.getVersion(), hubId);
+            return Optional.empty();
+        }
+        if (delta.getVersion() <= state.version) {
+            log.debug("Повторная дельта версии {} для hubId: {}, текущая версия: {}",
+                    delta.getVersion(), hubId, state.version);
+            return Optional.empty();
+        }
+        if (delta.getVersion() != state.version + 1) {
+            log.warn("Пропуск версий для hubId: {}: ожидалась {}, получена {}. Ожидаем ключевой кадр",
+                    hubId, state.version + 1, delta.getVersion());
+            statesByHubId.remove(hubId);
+            return Optional.empty();
+        }
+
+        SensorsSnapshotAvro snapshot = state.snapshot;
+        snapshot.getSensorsState().putAll(delta.getSensorsState());
+        delta.getRemovedSensors().forEach(snapshot.getSensorsState()::remove);
+        snapshot.setTimestamp(delta.getTimestamp());
+        state.version = delta.getVersion();
+
+        return Optional.of(snapshot);
+    }
+
+    /**
+     * Забывает снимки хабов, которыми экземпляр больше не владеет: при возврате хаба
+     * сборка начнётся со следующего ключевого кадра
+     */
+    public void retainHubs(Predicate<String> owned) {
+        statesByHubId.keySet().removeIf(hubId -> !owned.test(hubId));
+    }
+
+    private static class HubState {
+        long version;
+        final SensorsSnapshotAvro snapshot;
+
+        HubState(long version, SensorsSnapshotAvro snapshot) {
+            this.version = version;
+            this.snapshot = snapshot;
+        }
+    }
+}
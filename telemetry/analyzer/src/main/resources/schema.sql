@@ -1,8 +1,15 @@
+-- последовательности идентификаторов с шагом, равным allocationSize сущностей: Hibernate выделяет
+-- идентификаторы пачками и может объединять вставки в JDBC-пакеты
+CREATE SEQUENCE IF NOT EXISTS scenarios_id_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS conditions_id_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS actions_id_seq INCREMENT BY 50;
+
 -- создаём таблицу scenarios
 CREATE TABLE IF NOT EXISTS scenarios (
-    id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    id BIGINT DEFAULT nextval('scenarios_id_seq') PRIMARY KEY,
     hub_id VARCHAR NOT NULL,
     name VARCHAR NOT NULL,
+    condition_expression VARCHAR,
     UNIQUE(hub_id, name)
 );
 
@@ -14,15 +21,17 @@ CREATE TABLE IF NOT EXISTS sensors (
 
 -- создаём таблицу conditions
 CREATE TABLE IF NOT EXISTS conditions (
-    id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    id BIGINT DEFAULT nextval('conditions_id_seq') PRIMARY KEY,
     type VARCHAR(20) NOT NULL,
     operation VARCHAR(20) NOT NULL,
-    value INTEGER
+    value INTEGER,
+    upper_value INTEGER,
+    hold_ms BIGINT
 );
 
 -- создаём таблицу actions
 CREATE TABLE IF NOT EXISTS actions (
-    id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    id BIGINT DEFAULT nextval('actions_id_seq') PRIMARY KEY,
     type VARCHAR(20) NOT NULL,
     value INTEGER
 );
@@ -32,6 +41,7 @@ CREATE TABLE IF NOT EXISTS scenario_conditions (
     scenario_id BIGINT REFERENCES scenarios(id),
     sensor_id VARCHAR REFERENCES sensors(id),
     condition_id BIGINT REFERENCES conditions(id),
+    position INTEGER,
     PRIMARY KEY (scenario_id, sensor_id, condition_id)
 );
 
@@ -43,6 +53,12 @@ CREATE TABLE IF NOT EXISTS scenario_actions (
     PRIMARY KEY (scenario_id, sensor_id, action_id)
 );
 
+-- колонки дерева условий для таблиц, созданных до их появления
+ALTER TABLE scenarios ADD COLUMN IF NOT EXISTS condition_expression VARCHAR;
+ALTER TABLE conditions ADD COLUMN IF NOT EXISTS upper_value INTEGER;
+ALTER TABLE conditions ADD COLUMN IF NOT EXISTS hold_ms BIGINT;
+ALTER TABLE scenario_conditions ADD COLUMN IF NOT EXISTS position INTEGER;
+
 -- создаём функцию для проверки, что связываемые сценарий и датчик работают с одним и тем же хабом
 CREATE OR REPLACE FUNCTION check_hub_id()
 RETURNS TRIGGER AS
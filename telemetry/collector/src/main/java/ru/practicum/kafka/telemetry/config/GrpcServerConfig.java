@@ -0,0 +1,39 @@
+package ru.practicum.kafka.telemetry.config;
+
+import lombok.extern.slf4j.Slf4j;
+import net.devh.boot.grpc.server.serverfactory.GrpcServerConfigurer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+@Configuration
+@Slf4j
+public class GrpcServerConfig {
+    /**
+     * Вызовы gRPC обслуживаются виртуальными потоками: ожидание подтверждения Kafka
+     * не занимает платформенный поток на каждый запрос
+     */
+    @Bean
+    @ConditionalOnProperty(name = "collector.grpc.virtual-threads", havingValue = "true")
+    public GrpcServerConfigurer virtualThreadGrpcServerConfigurer() {
+        log.debug("Вызовы gRPC будут выполняться в виртуальных потоках");
+
+        return serverBuilder -> serverBuilder.executor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Таймер подтверждений потоков событий сенсоров по времени. Само подтверждение ждёт Kafka
+     * в виртуальном потоке, поэтому одного потока таймера хватает на все потоки событий
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService sensorStreamFlushScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sensor-stream-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -5,14 +5,19 @@ import lombok.Getter;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.support.serializer.DelegatingByTypeSerializer;
+import ru.practicum.kafka.serializer.GeneralAvroSerializer;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 @Configuration
@@ -35,16 +40,68 @@ public class TelemetryKafkaProducerConfig {
     @Value("${spring.kafka.producer.topic.hubs}")
     String hubTopic;
 
+    /**
+     * Сколько send может ждать места в буфере или метаданных топика, прежде чем вернуть ошибку.
+     * Небольшое значение не даёт потокам gRPC зависать при перегрузке
+     */
+    @Value("${collector.kafka.max-block-ms:100}")
+    long maxBlockMs;
+
+    @Value("${collector.kafka.buffer-memory:33554432}")
+    long bufferMemory;
+
+    /**
+     * Задержка сборки пакета: события пакетных и потоковых вызовов уходят в Kafka общими запросами
+     */
+    @Value("${collector.kafka.linger-ms:5}")
+    int lingerMs;
+
+    @Value("${collector.kafka.batch-size:65536}")
+    int batchSize;
+
+    @Value("${collector.kafka.compression-type:lz4}")
+    String compressionType;
+
+    /**
+     * Кадрировать записи заголовком с отпечатком схемы для независимого обновления сервисов
+     */
+    @Value("${collector.kafka.single-object-encoding:false}")
+    boolean singleObjectEncoding;
+
     @Bean
     public ProducerFactory<String, Object> producerFactory() {
         Map<String, Object> configProps = new HashMap<>();
         configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, keySerializer);
         configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, valueSerializer);
+        configProps.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, maxBlockMs);
+        configProps.put(ProducerConfig.BUFFER_MEMORY_CONFIG, bufferMemory);
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        configProps.put(GeneralAvroSerializer.SINGLE_OBJECT_CONFIG, singleObjectEncoding);
 
         log.debug("Создание ProducerFactory с конфигурацией: {}", configProps);
 
-        return new DefaultKafkaProducerFactory<>(configProps);
+        return new DefaultKafkaProducerFactory<>(configProps, null, valueSerializer());
+    }
+
+    /**
+     * Записи Avro сериализуются настроенным сериализатором, а уже закодированные
+     * прямым кодировщиком массивы байт передаются как есть
+     */
+    @SuppressWarnings("unchecked")
+    private Serializer<Object> valueSerializer() {
+        try {
+            Serializer<Object> avroSerializer = (Serializer<Object>) Class.forName(valueSerializer)
+                    .getDeclaredConstructor().newInstance();
+            Map<Class<?>, Serializer<?>> delegates = new LinkedHashMap<>();
+            delegates.put(byte[].class, new ByteArraySerializer());
+            delegates.put(Object.class, avroSerializer);
+            return new DelegatingByTypeSerializer(delegates, true);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Не удалось создать сериализатор " + valueSerializer, e);
+        }
     }
 
     @Bean
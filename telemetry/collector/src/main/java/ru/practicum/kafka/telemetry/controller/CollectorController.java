@@ -8,14 +8,19 @@ import lombok.AccessLevel;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 import net.devh.boot.grpc.server.service.GrpcService;
+import org.springframework.beans.factory.annotation.Value;
 import ru.practicum.kafka.telemetry.handler.hub.GrpcHubEventHandler;
 import ru.practicum.kafka.telemetry.handler.sensor.GrpcSensorEventHandler;
+import ru.practicum.kafka.telemetry.kafka.KafkaSendAwaiter;
 import ru.yandex.practicum.grpc.telemetry.collector.CollectorControllerGrpc;
+import ru.yandex.practicum.grpc.telemetry.collector.SensorEventBatchAckProto;
+import ru.yandex.practicum.grpc.telemetry.collector.SensorEventBatchProto;
 import ru.yandex.practicum.grpc.telemetry.event.HubEventProto;
 import ru.yandex.practicum.grpc.telemetry.event.SensorEventProto;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -26,9 +31,21 @@ import java.util.stream.Collectors;
 public class CollectorController extends CollectorControllerGrpc.CollectorControllerImplBase {
     Map<SensorEventProto.PayloadCase, GrpcSensorEventHandler> sensorHandlers;
     Map<HubEventProto.PayloadCase, GrpcHubEventHandler> hubHandlers;
+    KafkaSendAwaiter sendAwaiter;
+    ScheduledExecutorService streamFlushScheduler;
+    int streamFlushEvents;
+    long streamFlushIntervalMs;
 
     public CollectorController(Set<GrpcSensorEventHandler> sensorHandlers,
-                               Set<GrpcHubEventHandler> hubHandlers) {
+                               Set<GrpcHubEventHandler> hubHandlers,
+                               KafkaSendAwaiter sendAwaiter,
+                               ScheduledExecutorService streamFlushScheduler,
+                               @Value("${collector.stream.flush-events:500}") int streamFlushEvents,
+                               @Value("${collector.stream.flush-interval-ms:1000}") long streamFlushIntervalMs) {
+        this.sendAwaiter = sendAwaiter;
+        this.streamFlushScheduler = streamFlushScheduler;
+        this.streamFlushEvents = streamFlushEvents;
+        this.streamFlushIntervalMs = streamFlushIntervalMs;
         this.sensorHandlers = sensorHandlers.stream()
                 .collect(Collectors.toMap(GrpcSensorEventHandler::getMessageType, Function.identity()));
         this.hubHandlers = hubHandlers.stream()
@@ -40,9 +57,11 @@ public class CollectorController extends CollectorControllerGrpc.CollectorContro
         try {
             GrpcSensorEventHandler handler = sensorHandlers.get(request.getPayloadCase());
             if (handler == null) throw new IllegalArgumentException("Неизвестный тип сенсора");
-            handler.handle(request);
+            sendAwaiter.await(handler.handle(request));
             responseObserver.onNext(Empty.getDefaultInstance());
             responseObserver.onCompleted();
+        } catch (StatusRuntimeException e) {
+            responseObserver.onError(e);
         } catch (Exception e) {
             responseObserver.onError(new StatusRuntimeException(Status.INTERNAL.withDescription(e.getMessage())
                     .withCause(e)));
@@ -54,12 +73,34 @@ public class CollectorController extends CollectorControllerGrpc.CollectorContro
         try {
             GrpcHubEventHandler handler = hubHandlers.get(request.getPayloadCase());
             if (handler == null) throw new IllegalArgumentException("Неизвестный тип хаба");
-            handler.handle(request);
+            sendAwaiter.await(handler.handle(request));
             responseObserver.onNext(Empty.getDefaultInstance());
             responseObserver.onCompleted();
+        } catch (StatusRuntimeException e) {
+            responseObserver.onError(e);
         } catch (Exception e) {
             responseObserver.onError(new StatusRuntimeException(Status.INTERNAL.withDescription(e.getMessage())
                     .withCause(e)));
         }
     }
+
+    @Override
+    public void collectSensorEventBatch(SensorEventBatchProto request,
+                                        StreamObserver<SensorEventBatchAckProto> responseObserver) {
+        try {
+            SensorEventBatch batch = new SensorEventBatch(sensorHandlers, sendAwaiter);
+            request.getEventsList().forEach(batch::add);
+            responseObserver.onNext(batch.acknowledge(request.getBatchId()));
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(new StatusRuntimeException(Status.INTERNAL.withDescription(e.getMessage())
+                    .withCause(e)));
+        }
+    }
+
+    @Override
+    public StreamObserver<SensorEventProto> streamSensorEvents(StreamObserver<SensorEventBatchAckProto> responseObserver) {
+        return new SensorEventStream(sensorHandlers, sendAwaiter, responseObserver, streamFlushScheduler,
+                streamFlushEvents, streamFlushIntervalMs);
+    }
 }
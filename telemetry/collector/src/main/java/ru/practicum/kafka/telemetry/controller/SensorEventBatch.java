@@ -0,0 +1,105 @@
+package ru.practicum.kafka.telemetry.controller;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.kafka.telemetry.handler.sensor.GrpcSensorEventHandler;
+import ru.practicum.kafka.telemetry.kafka.KafkaSendAwaiter;
+import ru.yandex.practicum.grpc.telemetry.collector.SensorEventBatchAckProto;
+import ru.yandex.practicum.grpc.telemetry.collector.SensorEventRejectionProto;
+import ru.yandex.practicum.grpc.telemetry.event.SensorEventProto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Пакет событий сенсоров одного вызова или часть потока. События отправляются в Kafka сразу по мере
+ * поступления, без ожидания друг друга, и producer собирает их в общие пакеты. Подтверждение строится
+ * после завершения всех отправок или истечения времени ожидания. Номера отклонённых событий
+ * отсчитываются от firstIndex: в потоке это позиция первого события части
+ */
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE)
+class SensorEventBatch {
+    final Map<SensorEventProto.PayloadCase, GrpcSensorEventHandler> handlers;
+    final KafkaSendAwaiter sendAwaiter;
+    final List<CompletableFuture<?>> futures = new ArrayList<>();
+    final List<Integer> futureIndexes = new ArrayList<>();
+    final List<SensorEventRejectionProto> rejected = new ArrayList<>();
+    final long firstIndex;
+    int size;
+
+    SensorEventBatch(Map<SensorEventProto.PayloadCase, GrpcSensorEventHandler> handlers,
+                     KafkaSendAwaiter sendAwaiter) {
+        this(handlers, sendAwaiter, 0);
+    }
+
+    SensorEventBatch(Map<SensorEventProto.PayloadCase, GrpcSensorEventHandler> handlers,
+                     KafkaSendAwaiter sendAwaiter,
+                     long firstIndex) {
+        this.handlers = handlers;
+        this.sendAwaiter = sendAwaiter;
+        this.firstIndex = firstIndex;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(SensorEventProto event) {
+        int index = size++;
+        GrpcSensorEventHandler handler = handlers.get(event.getPayloadCase());
+        if (handler == null) {
+            reject(index, Status.INVALID_ARGUMENT.withDescription("Неизвестный тип сенсора"));
+            return;
+        }
+        try {
+            futures.add(handler.handle(event));
+            futureIndexes.add(index);
+        } catch (StatusRuntimeException e) {
+            reject(index, e.getStatus());
+        } catch (Exception e) {
+            reject(index, Status.INTERNAL.withDescription(e.getMessage()));
+        }
+    }
+
+    SensorEventBatchAckProto acknowledge(long batchId) {
+        sendAwaiter.awaitAll(futures);
+
+        int accepted = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            CompletableFuture<?> future = futures.get(i);
+            int index = futureIndexes.get(i);
+            if (!future.isDone()) {
+                reject(index, Status.DEADLINE_EXCEEDED.withDescription("Kafka не подтвердила запись вовремя"));
+            } else if (future.isCompletedExceptionally()) {
+                reject(index, sendAwaiter.toStatus(future.exceptionNow()).getStatus());
+            } else {
+                accepted++;
+            }
+        }
+
+        if (!rejected.isEmpty()) {
+            log.warn("Пакет {}: принято {}, отклонено {} из {}", batchId, accepted, rejected.size(), size);
+        }
+
+        return SensorEventBatchAckProto.newBuilder()
+                .setBatchId(batchId)
+                .setAccepted(accepted)
+                .addAllRejected(rejected)
+                .setFirstIndex(firstIndex)
+                .build();
+    }
+
+    private void reject(int index, Status status) {
+        rejected.add(SensorEventRejectionProto.newBuilder()
+                .setIndex(firstIndex + index)
+                .setCode(status.getCode().name())
+                .setMessage(status.getDescription() != null ? status.getDescription() : "")
+                .build());
+    }
+}
@@ -0,0 +1,151 @@
+package ru.practicum.kafka.telemetry.controller;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.kafka.telemetry.handler.sensor.GrpcSensorEventHandler;
+import ru.practicum.kafka.telemetry.kafka.KafkaSendAwaiter;
+import ru.yandex.practicum.grpc.telemetry.collector.SensorEventBatchAckProto;
+import ru.yandex.practicum.grpc.telemetry.event.SensorEventProto;
+
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Поток событий сенсоров от одного клиента. События собираются в части, и каждая часть подтверждается
+ * отдельно: когда в ней набралось {@code flushEvents} событий или с её первого события прошло
+ * {@code flushIntervalMs}. Часть по количеству подтверждается в потоке приёма, и следующее событие
+ * не читается, пока Kafka не ответит, поэтому неподтверждённых отправок не больше {@code flushEvents}.
+ * <p>
+ * Часть по времени подтверждается таймером в отдельном виртуальном потоке. Части и подтверждения
+ * защищены блокировкой, а не synchronized: ожидание Kafka не должно закреплять виртуальный поток
+ */
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE)
+class SensorEventStream implements StreamObserver<SensorEventProto> {
+    final Map<SensorEventProto.PayloadCase, GrpcSensorEventHandler> handlers;
+    final KafkaSendAwaiter sendAwaiter;
+    final StreamObserver<SensorEventBatchAckProto> responseObserver;
+    final int flushEvents;
+    final long flushIntervalMs;
+    final ReentrantLock lock = new ReentrantLock();
+    final ScheduledFuture<?> timer;
+
+    SensorEventBatch batch;
+    long batchStartedAt;
+    long batchId;
+    long position;
+    boolean closed;
+
+    SensorEventStream(Map<SensorEventProto.PayloadCase, GrpcSensorEventHandler> handlers,
+                      KafkaSendAwaiter sendAwaiter,
+                      StreamObserver<SensorEventBatchAckProto> responseObserver,
+                      ScheduledExecutorService scheduler,
+                      int flushEvents,
+                      long flushIntervalMs) {
+        this.handlers = handlers;
+        this.sendAwaiter = sendAwaiter;
+        this.responseObserver = responseObserver;
+        this.flushEvents = Math.max(1, flushEvents);
+        this.flushIntervalMs = Math.max(1, flushIntervalMs);
+        this.timer = scheduler.scheduleWithFixedDelay(() -> Thread.startVirtualThread(this::flushIfDue),
+                this.flushIntervalMs, this.flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onNext(SensorEventProto event) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (batch == null) {
+                batch = new SensorEventBatch(handlers, sendAwaiter, position);
+                batchStartedAt = System.currentTimeMillis();
+            }
+            batch.add(event);
+            position++;
+            if (batch.size() >= flushEvents) {
+                flush();
+            }
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        lock.lock();
+        try {
+            closed = true;
+            timer.cancel(false);
+            int unacknowledged = batch == null ? 0 : batch.size();
+            batch = null;
+            log.warn("Поток событий сенсоров прерван клиентом после {} событий, без подтверждения осталось {}: {}",
+                    position, unacknowledged, t.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onCompleted() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            timer.cancel(false);
+            if (batch != null) {
+                flush();
+            }
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Подтверждает часть по времени. Если поток занят приёмом или подтверждением, проверка пропускается
+     */
+    private void flushIfDue() {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (!closed && batch != null && System.currentTimeMillis() - batchStartedAt >= flushIntervalMs) {
+                flush();
+            }
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flush() {
+        SensorEventBatch current = batch;
+        batch = null;
+        responseObserver.onNext(current.acknowledge(batchId++));
+    }
+
+    private void fail(Exception e) {
+        log.error("Ошибка обработки потока событий сенсоров после {} событий: {}", position, e.getMessage(), e);
+        closed = true;
+        timer.cancel(false);
+        batch = null;
+        responseObserver.onError(new StatusRuntimeException(Status.INTERNAL.withDescription(e.getMessage())
+                .withCause(e)));
+    }
+}
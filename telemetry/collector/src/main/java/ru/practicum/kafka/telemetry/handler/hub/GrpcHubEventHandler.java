@@ -2,7 +2,13 @@ package ru.practicum.kafka.telemetry.handler.hub;
 
 import ru.yandex.practicum.grpc.telemetry.event.HubEventProto;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface GrpcHubEventHandler {
     HubEventProto.PayloadCase getMessageType();
-    void handle(HubEventProto event);
+
+    /**
+     * Отправляет событие в Kafka и возвращает future подтверждения брокера
+     */
+    CompletableFuture<?> handle(HubEventProto event);
 }
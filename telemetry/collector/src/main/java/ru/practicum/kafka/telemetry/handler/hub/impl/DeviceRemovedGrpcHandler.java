@@ -11,6 +11,8 @@ import ru.practicum.kafka.telemetry.mapper.ProtobufToAvroMapper;
 import ru.yandex.practicum.grpc.telemetry.event.HubEventProto;
 import ru.yandex.practicum.kafka.telemetry.event.HubEventAvro;
 
+import java.util.concurrent.CompletableFuture;
+
 @Component
 @RequiredArgsConstructor
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
@@ -25,8 +27,8 @@ public class DeviceRemovedGrpcHandler implements GrpcHubEventHandler {
     }
 
     @Override
-    public void handle(HubEventProto event) {
+    public CompletableFuture<?> handle(HubEventProto event) {
         HubEventAvro avro = mapper.toAvro(event);
-        producer.sendHubEvent(avro);
+        return producer.sendHubEvent(avro);
     }
 }
@@ -2,7 +2,13 @@ package ru.practicum.kafka.telemetry.handler.sensor;
 
 import ru.yandex.practicum.grpc.telemetry.event.SensorEventProto;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface GrpcSensorEventHandler {
     SensorEventProto.PayloadCase getMessageType();
-    void handle(SensorEventProto event);
+
+    /**
+     * Отправляет событие в Kafka и возвращает future подтверждения брокера
+     */
+    CompletableFuture<?> handle(SensorEventProto event);
 }
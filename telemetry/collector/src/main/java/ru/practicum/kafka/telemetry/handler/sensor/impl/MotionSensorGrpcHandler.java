@@ -7,16 +7,15 @@ import lombok.experimental.FieldDefaults;
 import org.springframework.stereotype.Component;
 import ru.practicum.kafka.telemetry.handler.sensor.GrpcSensorEventHandler;
 import ru.practicum.kafka.telemetry.kafka.KafkaEventProducer;
-import ru.practicum.kafka.telemetry.mapper.ProtobufToAvroMapper;
 import ru.yandex.practicum.grpc.telemetry.event.SensorEventProto;
-import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+
+import java.util.concurrent.CompletableFuture;
 
 @Component
 @RequiredArgsConstructor
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @Getter
 public class MotionSensorGrpcHandler implements GrpcSensorEventHandler {
-    ProtobufToAvroMapper mapper;
     KafkaEventProducer producer;
 
     @Override
@@ -25,8 +24,7 @@ public class MotionSensorGrpcHandler implements GrpcSensorEventHandler {
     }
 
     @Override
-    public void handle(SensorEventProto event) {
-        SensorEventAvro avro = mapper.toAvro(event);
-        producer.sendSensorEvent(avro);
+    public CompletableFuture<?> handle(SensorEventProto event) {
+        return producer.sendSensorEvent(event);
     }
 }
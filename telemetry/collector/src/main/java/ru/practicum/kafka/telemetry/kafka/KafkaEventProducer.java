@@ -5,11 +5,17 @@ import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Component;
 import ru.practicum.kafka.telemetry.config.TelemetryKafkaProducerConfig;
+import ru.practicum.kafka.telemetry.mapper.ProtobufToAvroMapper;
+import ru.practicum.kafka.telemetry.mapper.SensorEventAvroEncoder;
+import ru.yandex.practicum.grpc.telemetry.event.SensorEventProto;
 import ru.yandex.practicum.kafka.telemetry.event.HubEventAvro;
 import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
 
+import java.util.concurrent.CompletableFuture;
+
 @Slf4j
 @Component
 @RequiredArgsConstructor
@@ -17,19 +23,21 @@ import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
 public class KafkaEventProducer {
     KafkaTemplate<String, Object> kafkaTemplate;
     TelemetryKafkaProducerConfig config;
+    ProtobufToAvroMapper mapper;
+    SensorEventAvroEncoder encoder;
 
-    public void sendHubEvent(HubEventAvro avroHubEvent) {
+    public CompletableFuture<SendResult<String, Object>> sendHubEvent(HubEventAvro avroHubEvent) {
         String hubTopic = config.getHubTopic();
 
-        log.info("В топик: {} отправляется событие хаба: {}", hubTopic, avroHubEvent);
+        log.debug("В топик: {} отправляется событие хаба: {}", hubTopic, avroHubEvent);
 
         long eventTimestamp = avroHubEvent.getTimestamp().toEpochMilli();
 
-        kafkaTemplate.send(hubTopic, null, eventTimestamp, avroHubEvent.getHubId(), avroHubEvent)
+        return kafkaTemplate.send(hubTopic, null, eventTimestamp, avroHubEvent.getHubId(), avroHubEvent)
                 .whenComplete((result, exception) -> {
                     if (exception == null) {
-                        log.info("Событие хаба: {} для hubId: {} успешно отправлено, смещение: {}",
-                                avroHubEvent, avroHubEvent.getHubId(), result.getRecordMetadata().offset());
+                        log.debug("Событие хаба для hubId: {} успешно отправлено, смещение: {}",
+                                avroHubEvent.getHubId(), result.getRecordMetadata().offset());
                     } else {
                         log.error("Не удалось отправить событие хаба: {} для hubId: {}: {}",
                                 avroHubEvent, avroHubEvent.getHubId(), exception.getMessage());
@@ -37,21 +45,55 @@ public class KafkaEventProducer {
                 });
     }
 
-    public void sendSensorEvent(SensorEventAvro avroSensorEvent) {
+    /**
+     * Отправляет событие сенсора из gRPC: прямым кодированием, если оно включено
+     * ({@code collector.encoding.direct}), иначе через эталонный ProtobufToAvroMapper
+     */
+    public CompletableFuture<SendResult<String, Object>> sendSensorEvent(SensorEventProto event) {
+        if (encoder.isEnabled()) {
+            return sendSensorEvent(event.getHubId(), encoder.timestampMillis(event.getTimestamp()), encoder.encode(event));
+        }
+        return sendSensorEvent(mapper.toAvro(event));
+    }
+
+    public CompletableFuture<SendResult<String, Object>> sendSensorEvent(SensorEventAvro avroSensorEvent) {
         String sensorTopic = config.getSensorTopic();
 
-        log.info("В топик: {} отправляется сенсорное событие: {}", sensorTopic, avroSensorEvent);
+        log.debug("В топик: {} отправляется сенсорное событие: {}", sensorTopic, avroSensorEvent);
 
         long eventTimestamp = avroSensorEvent.getTimestamp().toEpochMilli();
 
-        kafkaTemplate.send(sensorTopic, null, eventTimestamp, avroSensorEvent.getHubId(), avroSensorEvent)
+        return kafkaTemplate.send(sensorTopic, null, eventTimestamp, avroSensorEvent.getHubId(), avroSensorEvent)
                 .whenComplete((result, exception) -> {
                     if (exception == null) {
-                        log.info("Событие сенсора: {} для hubId: {} успешно отправлено, смещение: {}",
-                                avroSensorEvent, avroSensorEvent.getHubId(), result.getRecordMetadata().offset());
+                        log.debug("Событие сенсора: {} для hubId: {} успешно отправлено, смещение: {}",
+                                avroSensorEvent.getId(), avroSensorEvent.getHubId(),
+                                result.getRecordMetadata().offset());
                     } else {
                         log.error("Не удалось отправить событие сенсора: {} для hubId: {}: {}",
-                                avroSensorEvent, avroSensorEvent.getHubId(), exception.getMessage());
+                                avroSensorEvent.getId(), avroSensorEvent.getHubId(), exception.getMessage());
+                    }
+                });
+    }
+
+    /**
+     * Отправляет событие сенсора, уже закодированное в двоичный формат SensorEventAvro
+     */
+    public CompletableFuture<SendResult<String, Object>> sendSensorEvent(String hubId, long eventTimestamp,
+                                                                         byte[] encodedEvent) {
+        String sensorTopic = config.getSensorTopic();
+
+        log.debug("В топик: {} отправляется сенсорное событие хаба: {}, байт: {}", sensorTopic, hubId,
+                encodedEvent.length);
+
+        return kafkaTemplate.send(sensorTopic, null, eventTimestamp, hubId, encodedEvent)
+                .whenComplete((result, exception) -> {
+                    if (exception == null) {
+                        log.debug("Событие сенсора для hubId: {} успешно отправлено, смещение: {}",
+                                hubId, result.getRecordMetadata().offset());
+                    } else {
+                        log.error("Не удалось отправить событие сенсора для hubId: {}: {}",
+                                hubId, exception.getMessage());
                     }
                 });
     }
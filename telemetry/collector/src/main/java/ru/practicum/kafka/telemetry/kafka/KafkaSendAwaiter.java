@@ -0,0 +1,107 @@
+package ru.practicum.kafka.telemetry.kafka;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.BufferExhaustedException;
+import org.apache.kafka.common.errors.RetriableException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaProducerException;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Переводит результат отправки в Kafka в статус ответа gRPC.
+ * <p>
+ * Если буфер producer'а переполнен, отправка не ждёт дольше {@code max.block.ms} и завершается ошибкой,
+ * которая возвращается клиенту как RESOURCE_EXHAUSTED: хаб должен повторить запрос с задержкой.
+ * Остальные таймауты producer'а (метаданные темы, доставка пакета) и другие временные ошибки означают
+ * недоступный брокер и возвращаются как UNAVAILABLE.
+ * В режиме ожидания подтверждения вызов дополнительно ждёт ответа брокера не дольше {@code send-timeout-ms}
+ */
+@Slf4j
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class KafkaSendAwaiter {
+    @Value("${collector.kafka.await-ack:false}")
+    boolean awaitAck;
+
+    @Value("${collector.kafka.send-timeout-ms:2000}")
+    long sendTimeoutMs;
+
+    /**
+     * @throws StatusRuntimeException если отправка не удалась или не подтверждена вовремя
+     */
+    public void await(CompletableFuture<?> future) {
+        if (!awaitAck) {
+            // переполнение буфера обнаруживается ещё при вызове send, ждать брокера для этого не нужно
+            if (future.isCompletedExceptionally()) {
+                throw toStatus(future.exceptionNow());
+            }
+            return;
+        }
+
+        try {
+            future.get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.TimeoutException e) {
+            throw Status.DEADLINE_EXCEEDED
+                    .withDescription("Kafka не подтвердила запись за " + sendTimeoutMs + " мс")
+                    .asRuntimeException();
+        } catch (ExecutionException e) {
+            throw toStatus(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.withDescription("Ожидание отправки прервано").asRuntimeException();
+        }
+    }
+
+    /**
+     * Ждёт завершения всех отправок пакета не дольше {@code send-timeout-ms}. Результаты отдельных
+     * отправок не проверяет: незавершённые и неудачные разбирает вызывающий код
+     */
+    public void awaitAll(Collection<? extends CompletableFuture<?>> futures) {
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                    .get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.TimeoutException | ExecutionException ignored) {
+            // итог каждой отправки проверяется отдельно
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public StatusRuntimeException toStatus(Throwable exception) {
+        Throwable cause = exception;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException
+                || cause instanceof KafkaProducerException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+
+        if (cause instanceof BufferExhaustedException) {
+            log.warn("Producer перегружен, запрос отклонён: {}", cause.getMessage());
+            return Status.RESOURCE_EXHAUSTED
+                    .withDescription("Буфер отправки в Kafka переполнен, повторите позже")
+                    .withCause(cause)
+                    .asRuntimeException();
+        }
+        if (cause instanceof RetriableException) {
+            // TimeoutException метаданных или доставки тоже здесь: брокер не отвечает, а не перегружен producer
+            log.warn("Kafka недоступна, запрос отклонён: {}", cause.getMessage());
+            return Status.UNAVAILABLE
+                    .withDescription("Kafka недоступна: " + cause.getMessage())
+                    .withCause(cause)
+                    .asRuntimeException();
+        }
+        return Status.INTERNAL
+                .withDescription(cause != null ? cause.getMessage() : null)
+                .withCause(cause)
+                .asRuntimeException();
+    }
+}
@@ -113,6 +113,7 @@ public interface EventMapper {
     @Mapping(target = "name",       source = "name")
     @Mapping(target = "conditions", source = "conditions")
     @Mapping(target = "actions",    source = "actions")
+    @Mapping(target = "conditionTree", source = "conditionTree")
     ScenarioAddedEventAvro toPayload(ScenarioAddedEvent event);
 
     @Mapping(target = "hubId",     source = "hubId")
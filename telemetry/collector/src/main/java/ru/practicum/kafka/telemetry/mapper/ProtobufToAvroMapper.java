@@ -6,6 +6,8 @@ import org.mapstruct.Named;
 import org.mapstruct.ReportingPolicy;
 import ru.yandex.practicum.grpc.telemetry.event.ActionTypeProto;
 import ru.yandex.practicum.grpc.telemetry.event.ClimateSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.ConditionNodeProto;
+import ru.yandex.practicum.grpc.telemetry.event.ConditionNodeTypeProto;
 import ru.yandex.practicum.grpc.telemetry.event.ConditionOperationProto;
 import ru.yandex.practicum.grpc.telemetry.event.ConditionTypeProto;
 import ru.yandex.practicum.grpc.telemetry.event.DeviceActionProto;
@@ -47,8 +49,11 @@ public interface ProtobufToAvroMapper {
     @Mapping(source = "name",          target = "name")
     @Mapping(source = "conditionList", target = "conditions")
     @Mapping(source = "actionList",    target = "actions")
+    @Mapping(source = "conditionTreeList", target = "conditionTree")
     ScenarioAddedEventAvro toPayload(ScenarioAddedEventProto e);
 
+    ConditionNodeAvro toPayload(ConditionNodeProto n);
+
     ScenarioRemovedEventAvro toPayload(ScenarioRemovedEventProto e);
 
     ClimateSensorAvro     toPayload(ClimateSensorProto e);
@@ -61,6 +66,8 @@ public interface ProtobufToAvroMapper {
     @Mapping(source = "type",      target = "type")
     @Mapping(source = "operation", target = "operation")
     @Mapping(source = ".",         target = "value", qualifiedByName = "mapConditionValue")
+    @Mapping(source = ".",         target = "upperValue", qualifiedByName = "mapUpperValue")
+    @Mapping(source = "holdMs",    target = "holdMs")
     ScenarioConditionAvro toPayload(ScenarioConditionProto c);
 
     @Mapping(source = "sensorId", target = "sensorId")
@@ -103,6 +110,12 @@ public interface ProtobufToAvroMapper {
         return null;
     }
 
+    /** optional int32 в Integer для ScenarioConditionAvro.upperValue */
+    @Named("mapUpperValue")
+    default Integer mapUpperValue(ScenarioConditionProto c) {
+        return c.hasUpperValue() ? c.getUpperValue() : null;
+    }
+
     /** optional int32 в Integer для DeviceActionAvro.value */
     @Named("mapActionValue")
     default Integer mapActionValue(DeviceActionProto a) {
@@ -155,6 +168,19 @@ public interface ProtobufToAvroMapper {
             case EQUALS: return ConditionOperationAvro.EQUALS;
             case GREATER_THAN: return ConditionOperationAvro.GREATER_THAN;
             case LOWER_THAN: return ConditionOperationAvro.LOWER_THAN;
+            case BETWEEN: return ConditionOperationAvro.BETWEEN;
+            case UNRECOGNIZED:
+            default: return null;
+        }
+    }
+
+    default ConditionNodeTypeAvro map(ConditionNodeTypeProto p) {
+        if (p == null) return null;
+        switch (p) {
+            case CONDITION: return ConditionNodeTypeAvro.CONDITION;
+            case AND: return ConditionNodeTypeAvro.AND;
+            case OR: return ConditionNodeTypeAvro.OR;
+            case NOT: return ConditionNodeTypeAvro.NOT;
             case UNRECOGNIZED:
             default: return null;
         }
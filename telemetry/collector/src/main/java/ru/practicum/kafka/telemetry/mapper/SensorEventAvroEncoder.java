@@ -0,0 +1,179 @@
+package ru.practicum.kafka.telemetry.mapper;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Timestamp;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.FieldDefaults;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.kafka.schema.SingleObjectFormat;
+import ru.yandex.practicum.grpc.telemetry.event.ClimateSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.LightSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.MotionSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.SensorEventProto;
+import ru.yandex.practicum.grpc.telemetry.event.SwitchSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.TemperatureSensorProto;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+
+/**
+ * Кодирует SensorEventProto сразу в двоичный формат Avro схемы SensorEventAvro, минуя объект Avro.
+ * Размер записи вычисляется заранее, поэтому на событие выделяется ровно один массив нужной длины.
+ * <p>
+ * Эталон - {@link ProtobufToAvroMapper} с последующей сериализацией GeneralAvroSerializer:
+ * при изменении SensorEvent.avdl кодировщик нужно править вместе со схемой.
+ * Порядок полей: id, hub_id, timestamp, payload; номер ветки union совпадает с порядком в схеме
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Getter
+public class SensorEventAvroEncoder {
+    private static final int CLIMATE_BRANCH = 0;
+    private static final int LIGHT_BRANCH = 1;
+    private static final int MOTION_BRANCH = 2;
+    private static final int SWITCH_BRANCH = 3;
+    private static final int TEMPERATURE_BRANCH = 4;
+
+    /**
+     * Отправлять события сенсоров через прямое кодирование вместо ProtobufToAvroMapper
+     */
+    @Value("${collector.encoding.direct:false}")
+    boolean enabled;
+
+    /**
+     * Предварять запись заголовком single-object encoding, как это делает GeneralAvroSerializer
+     */
+    @Value("${collector.kafka.single-object-encoding:false}")
+    boolean singleObject;
+
+    final long fingerprint = SingleObjectFormat.fingerprint(SensorEventAvro.getClassSchema());
+
+    public byte[] encode(SensorEventProto event) {
+        ByteString id = event.getIdBytes();
+        ByteString hubId = event.getHubIdBytes();
+        long timestamp = timestampMillis(event.getTimestamp());
+
+        int headerSize = singleObject ? SingleObjectFormat.HEADER_SIZE : 0;
+        byte[] buffer = new byte[headerSize + stringSize(id) + stringSize(hubId) + varLongSize(zigZag(timestamp))
+                + payloadSize(event)];
+
+        if (singleObject) {
+            SingleObjectFormat.writeHeader(buffer, 0, fingerprint);
+        }
+        int position = writeString(buffer, headerSize, id);
+        position = writeString(buffer, position, hubId);
+        position = writeVarLong(buffer, position, zigZag(timestamp));
+
+        switch (event.getPayloadCase()) {
+            case CLIMATE_SENSOR_EVENT -> {
+                ClimateSensorProto climate = event.getClimateSensorEvent();
+                position = writeInt(buffer, position, CLIMATE_BRANCH);
+                position = writeInt(buffer, position, climate.getTemperatureC());
+                position = writeInt(buffer, position, climate.getHumidity());
+                position = writeInt(buffer, position, climate.getCo2Level());
+            }
+            case LIGHT_SENSOR_EVENT -> {
+                LightSensorProto light = event.getLightSensorEvent();
+                position = writeInt(buffer, position, LIGHT_BRANCH);
+                position = writeInt(buffer, position, light.getLinkQuality());
+                position = writeInt(buffer, position, light.getLuminosity());
+            }
+            case MOTION_SENSOR_EVENT -> {
+                MotionSensorProto motion = event.getMotionSensorEvent();
+                position = writeInt(buffer, position, MOTION_BRANCH);
+                position = writeInt(buffer, position, motion.getLinkQuality());
+                buffer[position++] = (byte) (motion.getMotion() ? 1 : 0);
+                position = writeInt(buffer, position, motion.getVoltage());
+            }
+            case SWITCH_SENSOR_EVENT -> {
+                SwitchSensorProto switchSensor = event.getSwitchSensorEvent();
+                position = writeInt(buffer, position, SWITCH_BRANCH);
+                buffer[position++] = (byte) (switchSensor.getState() ? 1 : 0);
+            }
+            case TEMPERATURE_SENSOR_EVENT -> {
+                TemperatureSensorProto temperature = event.getTemperatureSensorEvent();
+                position = writeInt(buffer, position, TEMPERATURE_BRANCH);
+                position = writeInt(buffer, position, temperature.getTemperatureC());
+                position = writeInt(buffer, position, temperature.getTemperatureF());
+            }
+            default -> throw new IllegalArgumentException("Неизвестный тип сенсора: " + event.getPayloadCase());
+        }
+
+        if (position != buffer.length) {
+            throw new IllegalStateException("Размер записи " + position + " не совпал с расчётным " + buffer.length);
+        }
+        return buffer;
+    }
+
+    /**
+     * Время события в миллисекундах, как его сохраняет логический тип timestamp-millis
+     */
+    public long timestampMillis(Timestamp timestamp) {
+        return timestamp.getSeconds() * 1000 + timestamp.getNanos() / 1_000_000;
+    }
+
+    private static int payloadSize(SensorEventProto event) {
+        return switch (event.getPayloadCase()) {
+            case CLIMATE_SENSOR_EVENT -> {
+                ClimateSensorProto climate = event.getClimateSensorEvent();
+                yield intSize(CLIMATE_BRANCH) + intSize(climate.getTemperatureC()) + intSize(climate.getHumidity())
+                        + intSize(climate.getCo2Level());
+            }
+            case LIGHT_SENSOR_EVENT -> {
+                LightSensorProto light = event.getLightSensorEvent();
+                yield intSize(LIGHT_BRANCH) + intSize(light.getLinkQuality()) + intSize(light.getLuminosity());
+            }
+            case MOTION_SENSOR_EVENT -> {
+                MotionSensorProto motion = event.getMotionSensorEvent();
+                yield intSize(MOTION_BRANCH) + intSize(motion.getLinkQuality()) + 1 + intSize(motion.getVoltage());
+            }
+            case SWITCH_SENSOR_EVENT -> intSize(SWITCH_BRANCH) + 1;
+            case TEMPERATURE_SENSOR_EVENT -> {
+                TemperatureSensorProto temperature = event.getTemperatureSensorEvent();
+                yield intSize(TEMPERATURE_BRANCH) + intSize(temperature.getTemperatureC())
+                        + intSize(temperature.getTemperatureF());
+            }
+            default -> throw new IllegalArgumentException("Неизвестный тип сенсора: " + event.getPayloadCase());
+        };
+    }
+
+    private static int stringSize(ByteString value) {
+        return varLongSize(zigZag(value.size())) + value.size();
+    }
+
+    private static int intSize(int value) {
+        return varLongSize(zigZag(value));
+    }
+
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int writeString(byte[] buffer, int position, ByteString value) {
+        position = writeVarLong(buffer, position, zigZag(value.size()));
+        value.copyTo(buffer, position);
+        return position + value.size();
+    }
+
+    private static int writeInt(byte[] buffer, int position, int value) {
+        return writeVarLong(buffer, position, zigZag(value));
+    }
+
+    private static int writeVarLong(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+}
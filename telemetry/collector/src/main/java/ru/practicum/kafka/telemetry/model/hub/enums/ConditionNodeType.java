@@ -0,0 +1,8 @@
+package ru.practicum.kafka.telemetry.model.hub.enums;
+
+public enum ConditionNodeType {
+    CONDITION,
+    AND,
+    OR,
+    NOT
+}
@@ -3,5 +3,6 @@ package ru.practicum.kafka.telemetry.model.hub.enums;
 public enum ConditionOperation {
     EQUALS,
     GREATER_THAN,
-    LOWER_THAN
+    LOWER_THAN,
+    BETWEEN
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package ru.practicum.kafka.telemetry.model.hub.impl;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.FieldDefaults;
+import ru.practicum.kafka.telemetry.model.hub.enums.ConditionNodeType;
+
+/**
+ * Узел дерева условий сценария в постфиксном порядке: CONDITION ссылается на условие по номеру,
+ * AND и OR объединяют arity предыдущих результатов, NOT инвертирует один.
+ */
+@Setter
+@Getter
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class ConditionNode {
+    ConditionNodeType type;
+    int condition;
+    int arity;
+}
@@ -12,6 +12,7 @@ import lombok.experimental.FieldDefaults;
 import ru.practicum.kafka.telemetry.model.hub.HubEvent;
 import ru.practicum.kafka.telemetry.model.hub.enums.HubEventType;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -34,6 +35,12 @@ public class ScenarioAddedEvent extends HubEvent {
     @NotEmpty
     List<DeviceAction> actions;
 
+    /**
+     * Дерево условий в постфиксном порядке. Пустое - все условия через AND.
+     */
+    @NotNull
+    List<ConditionNode> conditionTree = new ArrayList<>();
+
     @Override
     public HubEventType getType() {
         return HubEventType.SCENARIO_ADDED;
@@ -20,4 +20,12 @@ public class ScenarioCondition {
     ConditionType type;
     ConditionOperation operation;
     Integer value;
+    /**
+     * Верхняя граница операции BETWEEN включительно.
+     */
+    Integer upperValue;
+    /**
+     * Сколько миллисекунд условие должно держаться, чтобы считаться выполненным.
+     */
+    long holdMs;
 }
@@ -0,0 +1,90 @@
+package ru.practicum.kafka.telemetry.mapper;
+
+import com.google.protobuf.Timestamp;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.practicum.kafka.serializer.GeneralAvroSerializer;
+import ru.yandex.practicum.grpc.telemetry.event.ClimateSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.LightSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.MotionSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.SensorEventProto;
+import ru.yandex.practicum.grpc.telemetry.event.SwitchSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.TemperatureSensorProto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Прямое кодирование должно давать те же байты, что эталон: ProtobufToAvroMapper и GeneralAvroSerializer
+ */
+class SensorEventAvroEncoderTest {
+    private static final String TOPIC = "telemetry.sensors.v1";
+
+    private static final int[] INTS = {0, 1, -1, 63, -64, 64, -65, 127, 128, 16_383, 16_384,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE - 1, Integer.MIN_VALUE + 1};
+
+    private static final String[] IDS = {"", "sensor-1", "датчик.кухня", "温度计", "😀-hub", "x".repeat(300)};
+
+    private static final Timestamp[] TIMESTAMPS = {
+            Timestamp.getDefaultInstance(),
+            Timestamp.newBuilder().setSeconds(1_700_000_000L).setNanos(123_456_789).build(),
+            Timestamp.newBuilder().setSeconds(-1L).setNanos(999_999_999).build(),
+            // границы google.protobuf.Timestamp: 0001-01-01 и 9999-12-31T23:59:59.999999999
+            Timestamp.newBuilder().setSeconds(-62_135_596_800L).build(),
+            Timestamp.newBuilder().setSeconds(253_402_300_799L).setNanos(999_999_999).build()
+    };
+
+    private final ProtobufToAvroMapper mapper = new ProtobufToAvroMapperImpl();
+
+    @ParameterizedTest(name = "[{index}] {0}, single-object={1}")
+    @MethodSource("events")
+    void encodesSameBytesAsReferencePath(SensorEventProto event, boolean singleObject) {
+        SensorEventAvroEncoder encoder = new SensorEventAvroEncoder();
+        ReflectionTestUtils.setField(encoder, "singleObject", singleObject);
+        try (GeneralAvroSerializer serializer = new GeneralAvroSerializer()) {
+            serializer.configure(Map.of(GeneralAvroSerializer.SINGLE_OBJECT_CONFIG, singleObject), false);
+
+            byte[] expected = serializer.serialize(TOPIC, mapper.toAvro(event));
+
+            assertArrayEquals(expected, encoder.encode(event));
+            assertEquals(mapper.toAvro(event).getTimestamp().toEpochMilli(), encoder.timestampMillis(event.getTimestamp()));
+        }
+    }
+
+    static Stream<Arguments> events() {
+        List<SensorEventProto> events = new ArrayList<>();
+        for (int value : INTS) {
+            events.add(event(0).setClimateSensorEvent(ClimateSensorProto.newBuilder()
+                    .setTemperatureC(value).setHumidity(-value).setCo2Level(value / 2)).build());
+            events.add(event(1).setLightSensorEvent(LightSensorProto.newBuilder()
+                    .setLinkQuality(value).setLuminosity(~value)).build());
+            events.add(event(2).setMotionSensorEvent(MotionSensorProto.newBuilder()
+                    .setLinkQuality(value).setMotion(value % 2 == 0).setVoltage(-value)).build());
+            events.add(event(3).setTemperatureSensorEvent(TemperatureSensorProto.newBuilder()
+                    .setTemperatureC(value).setTemperatureF(value ^ 0x5555)).build());
+        }
+        for (int i = 0; i < IDS.length; i++) {
+            events.add(event(i).setSwitchSensorEvent(SwitchSensorProto.newBuilder().setState(i % 2 == 0)).build());
+        }
+        for (int i = 0; i < TIMESTAMPS.length; i++) {
+            events.add(event(i).setTimestamp(TIMESTAMPS[i])
+                    .setClimateSensorEvent(ClimateSensorProto.newBuilder().setCo2Level(i)).build());
+        }
+
+        return events.stream().flatMap(event -> Stream.of(Arguments.of(event, false), Arguments.of(event, true)));
+    }
+
+    private static SensorEventProto.Builder event(int variant) {
+        return SensorEventProto.newBuilder()
+                .setId(IDS[variant % IDS.length])
+                .setHubId(IDS[(variant + 2) % IDS.length])
+                .setTimestamp(TIMESTAMPS[variant % TIMESTAMPS.length]);
+    }
+}
@@ -0,0 +1,82 @@
+package ru.practicum.kafka.telemetry.mapper;
+
+import com.google.protobuf.Timestamp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.practicum.kafka.serializer.GeneralAvroSerializer;
+import ru.yandex.practicum.grpc.telemetry.event.ClimateSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.SensorEventProto;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кодирование события сенсора для Kafka: прямое кодирование SensorEventAvroEncoder против
+ * ProtobufToAvroMapper и GeneralAvroSerializer.
+ * <p>
+ * Запуск: {@code mvn -Pjmh -pl collector -am test}; байты на операцию -
+ * {@code gc.alloc.rate.norm} профилировщика {@code -prof gc}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensorEventEncodingBenchmark {
+    private static final String TOPIC = "telemetry.sensors.v1";
+
+    @Param({"false", "true"})
+    boolean singleObject;
+
+    SensorEventProto event;
+
+    SensorEventAvroEncoder encoder;
+    ProtobufToAvroMapper mapper;
+    GeneralAvroSerializer serializer;
+
+    @Setup
+    public void setUp() {
+        event = SensorEventProto.newBuilder()
+                .setId("climate-sensor-1")
+                .setHubId("hub-kitchen-1")
+                .setTimestamp(Timestamp.newBuilder().setSeconds(1_700_000_000L).setNanos(123_000_000))
+                .setClimateSensorEvent(ClimateSensorProto.newBuilder()
+                        .setTemperatureC(22).setHumidity(45).setCo2Level(600))
+                .build();
+        encoder = new SensorEventAvroEncoder();
+        ReflectionTestUtils.setField(encoder, "singleObject", singleObject);
+        mapper = new ProtobufToAvroMapperImpl();
+        serializer = new GeneralAvroSerializer();
+        serializer.configure(Map.of(GeneralAvroSerializer.SINGLE_OBJECT_CONFIG, singleObject), false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        serializer.close();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return encoder.encode(event);
+    }
+
+    /**
+     * Путь по умолчанию: SensorEventAvro из маппера, затем сериализатор producer'а
+     */
+    @Benchmark
+    public byte[] mapAndSerialize() {
+        return serializer.serialize(TOPIC, mapper.toAvro(event));
+    }
+}
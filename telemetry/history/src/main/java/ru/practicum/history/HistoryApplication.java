@@ -0,0 +1,14 @@
+package ru.practicum.history;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+@SpringBootApplication
+public class HistoryApplication {
+    public static void main(String[] args) {
+        ConfigurableApplicationContext context = SpringApplication.run(HistoryApplication.class, args);
+        HistoryIngestStarter starter = context.getBean(HistoryIngestStarter.class);
+        starter.start();
+    }
+}
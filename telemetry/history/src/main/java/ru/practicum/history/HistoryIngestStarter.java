@@ -0,0 +1,103 @@
+package ru.practicum.history;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.springframework.stereotype.Component;
+import ru.practicum.history.config.HistoryKafkaConsumerConfig;
+import ru.practicum.history.store.HistoryStore;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Читает топик сенсоров и складывает показания в {@link HistoryStore}.
+ * <p>
+ * Экземпляр один и читает все партиции, поэтому они назначаются вручную без ребалансировок.
+ * Фиксируются только оффсеты, показания которых уже лежат в записанных сегментах
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class HistoryIngestStarter {
+    HistoryStore store;
+    HistoryKafkaConsumerConfig config;
+
+    public void start() {
+        KafkaConsumer<String, SensorEventAvro> consumer = config.kafkaConsumer();
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            log.info("Сигнал завершения получен, пробуждаем consumer истории");
+            consumer.wakeup();
+            try {
+                main.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        String topic = config.getSensorTopic();
+        Map<Integer, Long> positions = new HashMap<>();
+        try {
+            List<TopicPartition> partitions = consumer.partitionsFor(topic).stream()
+                    .map(info -> new TopicPartition(info.topic(), info.partition()))
+                    .toList();
+            consumer.assign(partitions);
+            log.info("Запись истории из топика: {}, партиции: {}", topic, partitions);
+
+            Duration pollTimeout = Duration.ofMillis(config.getFetchMaxWaitMs());
+            long lastCommitAt = System.currentTimeMillis();
+            while (true) {
+                ConsumerRecords<String, SensorEventAvro> records = consumer.poll(pollTimeout);
+                long now = System.currentTimeMillis();
+                for (ConsumerRecord<String, SensorEventAvro> record : records) {
+                    if (record.value() != null) {
+                        store.append(record.partition(), record.offset(), record.value(), now);
+                    }
+                    positions.put(record.partition(), record.offset() + 1);
+                }
+
+                if (now - lastCommitAt >= config.getCommitIntervalMs()) {
+                    store.flushDue(now);
+                    consumer.commitAsync(committableOffsets(topic, positions), (committed, ex) -> {
+                        if (ex != null) {
+                            log.error("Ошибка при коммите оффсетов истории {}", committed, ex);
+                        }
+                    });
+                    lastCommitAt = now;
+                }
+            }
+        } catch (WakeupException ignored) {
+            log.info("Consumer истории пробуждён, выходим из цикла");
+        } catch (Exception e) {
+            log.error("Неожиданная ошибка в цикле consumer истории", e);
+        } finally {
+            // открытые сегменты не записываются: после перезапуска они соберутся из топика заново
+            try {
+                consumer.commitSync(committableOffsets(topic, positions));
+            } catch (Exception e) {
+                log.error("Ошибка при коммите финальных оффсетов истории", e);
+            } finally {
+                consumer.close();
+            }
+        }
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> committableOffsets(String topic, Map<Integer, Long> positions) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        store.committableOffsets(positions).forEach((partition, offset) ->
+                offsets.put(new TopicPartition(topic, partition), new OffsetAndMetadata(offset)));
+        return offsets;
+    }
+}
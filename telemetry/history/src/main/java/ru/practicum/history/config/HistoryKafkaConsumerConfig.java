@@ -0,0 +1,82 @@
+package ru.practicum.history.config;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.FieldDefaults;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import ru.practicum.kafka.deserializer.BaseAvroDeserializer;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+
+import java.util.Properties;
+
+@Configuration
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Getter
+public class HistoryKafkaConsumerConfig {
+    @Value("${spring.kafka.consumer.bootstrap-servers}")
+    String bootstrapServers;
+
+    @Value("${spring.kafka.consumer.key-deserializer}")
+    String keyDeserializer;
+
+    @Value("${spring.kafka.consumer.value-deserializer}")
+    String valueDeserializer;
+
+    @Value("${history.kafka.topic.sensors}")
+    String sensorTopic;
+
+    /**
+     * Группа используется только для хранения оффсетов: партиции назначаются вручную
+     */
+    @Value("${spring.kafka.consumer.group-id}")
+    String clientGroupId;
+
+    @Value("${spring.kafka.consumer.auto-offset-reset:earliest}")
+    String autoOffsetReset;
+
+    @Value("${spring.kafka.consumer.properties.max.poll.records}")
+    int maxPollRecords;
+
+    @Value("${spring.kafka.consumer.properties.fetch.min.bytes}")
+    int fetchMinBytes;
+
+    @Value("${spring.kafka.consumer.properties.fetch.max.wait.ms}")
+    int fetchMaxWaitMs;
+
+    @Value("${spring.kafka.consumer.properties.max.partition.fetch.bytes}")
+    int maxPartitionFetchBytes;
+
+    /**
+     * Каталог схем писателей других версий для чтения кадрированных записей
+     */
+    @Value("${history.kafka.schema-registry-dir:}")
+    String schemaRegistryDir;
+
+    /**
+     * Как часто фиксируются оффсеты и проверяются сегменты, готовые к записи
+     */
+    @Value("${history.ingest.commit-interval-ms:1000}")
+    long commitIntervalMs;
+
+    public KafkaConsumer<String, SensorEventAvro> kafkaConsumer() {
+        Properties properties = new Properties();
+
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, clientGroupId);
+        properties.put(ConsumerConfig.CLIENT_ID_CONFIG, clientGroupId + "-ingest");
+        properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, keyDeserializer);
+        properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, valueDeserializer);
+        properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, autoOffsetReset);
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        properties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        properties.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, fetchMinBytes);
+        properties.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, fetchMaxWaitMs);
+        properties.put(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG, maxPartitionFetchBytes);
+        properties.put(BaseAvroDeserializer.SCHEMA_REGISTRY_DIR_CONFIG, schemaRegistryDir);
+
+        return new KafkaConsumer<>(properties);
+    }
+}
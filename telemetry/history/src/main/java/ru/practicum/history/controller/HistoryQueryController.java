@@ -0,0 +1,75 @@
+package ru.practicum.history.controller;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import net.devh.boot.grpc.server.service.GrpcService;
+import org.springframework.beans.factory.annotation.Value;
+import ru.practicum.history.query.HistoryProtoMapper;
+import ru.practicum.history.store.HistoryStore;
+import ru.practicum.history.store.Reading;
+import ru.yandex.practicum.grpc.telemetry.history.HistoryQueryGrpc;
+import ru.yandex.practicum.grpc.telemetry.history.HistoryRangeProto;
+import ru.yandex.practicum.grpc.telemetry.history.HistoryRangeRequestProto;
+
+import java.util.List;
+
+/**
+ * Запросы истории показаний сенсора за интервал. Открытые сегменты читаются из памяти,
+ * записанные - из файлов сегментов
+ */
+@GrpcService
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@SuppressWarnings("unused")
+public class HistoryQueryController extends HistoryQueryGrpc.HistoryQueryImplBase {
+    HistoryStore store;
+    HistoryProtoMapper mapper;
+    int maxReadings;
+
+    public HistoryQueryController(HistoryStore store,
+                                  HistoryProtoMapper mapper,
+                                  @Value("${history.query.max-readings:10000}") int maxReadings) {
+        this.store = store;
+        this.mapper = mapper;
+        this.maxReadings = maxReadings;
+    }
+
+    @Override
+    public void queryRange(HistoryRangeRequestProto request, StreamObserver<HistoryRangeProto> responseObserver) {
+        try {
+            if (request.getHubId().isEmpty() || request.getSensorId().isEmpty()) {
+                throw new StatusRuntimeException(Status.INVALID_ARGUMENT.withDescription(
+                        "Не заданы hub_id и sensor_id"));
+            }
+            long from = request.hasFrom() ? HistoryProtoMapper.epochMillis(request.getFrom()) : 0;
+            long to = request.hasTo() ? HistoryProtoMapper.epochMillis(request.getTo()) : Long.MAX_VALUE;
+            if (from >= to) {
+                throw new StatusRuntimeException(Status.INVALID_ARGUMENT.withDescription(
+                        "Пустой интервал: from должен быть раньше to"));
+            }
+            int limit = request.getLimit() > 0 ? Math.min(request.getLimit(), maxReadings) : maxReadings;
+
+            // на одно показание больше предела, чтобы понять, обрезан ли ответ
+            List<Reading> readings = store.query(request.getHubId(), request.getSensorId(), from, to, limit + 1);
+            boolean truncated = readings.size() > limit;
+            if (truncated) {
+                readings = readings.subList(0, limit);
+            }
+
+            HistoryRangeProto.Builder builder = HistoryRangeProto.newBuilder()
+                    .setHubId(request.getHubId())
+                    .setSensorId(request.getSensorId())
+                    .setTruncated(truncated);
+            readings.forEach(reading -> builder.addReadings(mapper.toProto(reading)));
+            responseObserver.onNext(builder.build());
+            responseObserver.onCompleted();
+        } catch (StatusRuntimeException e) {
+            responseObserver.onError(e);
+        } catch (Exception e) {
+            responseObserver.onError(new StatusRuntimeException(Status.INTERNAL.withDescription(e.getMessage())
+                    .withCause(e)));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ru.practicum.history.query;
+
+import com.google.protobuf.Timestamp;
+import org.springframework.stereotype.Component;
+import ru.practicum.history.store.Reading;
+import ru.yandex.practicum.grpc.telemetry.event.ClimateSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.LightSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.MotionSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.SwitchSensorProto;
+import ru.yandex.practicum.grpc.telemetry.event.TemperatureSensorProto;
+import ru.yandex.practicum.grpc.telemetry.history.SensorReadingProto;
+
+@Component
+public class HistoryProtoMapper {
+
+    public SensorReadingProto toProto(Reading reading) {
+        SensorReadingProto.Builder builder = SensorReadingProto.newBuilder()
+                .setTimestamp(timestamp(reading.timestamp()));
+        int[] values = reading.values();
+
+        switch (reading.type()) {
+            case CLIMATE -> builder.setClimateSensor(ClimateSensorProto.newBuilder()
+                    .setTemperatureC(values[0])
+                    .setHumidity(values[1])
+                    .setCo2Level(values[2]));
+            case LIGHT -> builder.setLightSensor(LightSensorProto.newBuilder()
+                    .setLinkQuality(values[0])
+                    .setLuminosity(values[1]));
+            case MOTION -> builder.setMotionSensor(MotionSensorProto.newBuilder()
+                    .setLinkQuality(values[0])
+                    .setMotion(values[1] != 0)
+                    .setVoltage(values[2]));
+            case SWITCH -> builder.setSwitchSensor(SwitchSensorProto.newBuilder()
+                    .setState(values[0] != 0));
+            case TEMPERATURE -> builder.setTemperatureSensor(TemperatureSensorProto.newBuilder()
+                    .setTemperatureC(values[0])
+                    .setTemperatureF(values[1]));
+        }
+        return builder.build();
+    }
+
+    public static Timestamp timestamp(long epochMillis) {
+        return Timestamp.newBuilder()
+                .setSeconds(Math.floorDiv(epochMillis, 1_000))
+                .setNanos((int) Math.floorMod(epochMillis, 1_000) * 1_000_000)
+                .build();
+    }
+
+    public static long epochMillis(Timestamp timestamp) {
+        return timestamp.getSeconds() * 1_000 + timestamp.getNanos() / 1_000_000;
+    }
+}
@@ -0,0 +1,34 @@
+package ru.practicum.history.store;
+
+/**
+ * Чтение битов, записанных {@link BitWriter}
+ */
+final class BitReader {
+    private final long[] words;
+    private long position;
+
+    BitReader(long[] words) {
+        this.words = words;
+    }
+
+    long read(int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        int index = (int) (position >>> 6);
+        int free = Long.SIZE - (int) (position & 63);
+        long result;
+        if (bits <= free) {
+            result = words[index] >>> (free - bits);
+        } else {
+            int rest = bits - free;
+            result = (words[index] << rest) | (words[index + 1] >>> (Long.SIZE - rest));
+        }
+        position += bits;
+        return bits == Long.SIZE ? result : result & ((1L << bits) - 1);
+    }
+
+    boolean readBit() {
+        return read(1) == 1;
+    }
+}
@@ -0,0 +1,58 @@
+package ru.practicum.history.store;
+
+import java.util.Arrays;
+
+/**
+ * Растущий битовый буфер. Биты пишутся от старшего к младшему в массив long
+ */
+final class BitWriter {
+    private long[] words;
+    private long position;
+
+    BitWriter(int initialWords) {
+        this.words = new long[Math.max(1, initialWords)];
+    }
+
+    /**
+     * Пишет младшие {@code bits} бит значения
+     */
+    void write(long value, int bits) {
+        if (bits == 0) {
+            return;
+        }
+        ensureCapacity(position + bits);
+        long masked = bits == Long.SIZE ? value : value & ((1L << bits) - 1);
+        int index = (int) (position >>> 6);
+        int free = Long.SIZE - (int) (position & 63);
+        if (bits <= free) {
+            words[index] |= masked << (free - bits);
+        } else {
+            int rest = bits - free;
+            words[index] |= masked >>> rest;
+            words[index + 1] |= masked << (Long.SIZE - rest);
+        }
+        position += bits;
+    }
+
+    long bitLength() {
+        return position;
+    }
+
+    /**
+     * Копия заполненной части буфера
+     */
+    long[] copyWords() {
+        return Arrays.copyOf(words, wordCount(position));
+    }
+
+    static int wordCount(long bits) {
+        return (int) ((bits + Long.SIZE - 1) >>> 6);
+    }
+
+    private void ensureCapacity(long bits) {
+        int required = wordCount(bits);
+        if (required > words.length) {
+            words = Arrays.copyOf(words, Math.max(required, words.length * 2));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package ru.practicum.history.store;
+
+/**
+ * Кодирование разностей переменной длины в духе Gorilla: ноль занимает один бит, остальные
+ * значения в zigzag пишутся в самую узкую подходящую корзину с префиксом из единиц.
+ * <p>
+ * Для времени кодируется разность разностей: при равномерной отправке она почти всегда ноль.
+ * Для целых полей - разность с предыдущим значением: повторяющиеся показания тоже занимают один бит
+ */
+final class DeltaCodec {
+    static final int[] TIMESTAMP_BUCKETS = {7, 12, 20, 64};
+    static final int[] VALUE_BUCKETS = {6, 13, 20, 33};
+
+    private DeltaCodec() {
+    }
+
+    static void write(BitWriter writer, long value, int[] buckets) {
+        if (value == 0) {
+            writer.write(0, 1);
+            return;
+        }
+        long zigzag = (value << 1) ^ (value >> 63);
+        int last = buckets.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (zigzag >>> buckets[i] == 0) {
+                // i + 1 единиц и завершающий ноль
+                writer.write(((1L << (i + 1)) - 1) << 1, i + 2);
+                writer.write(zigzag, buckets[i]);
+                return;
+            }
+        }
+        // в последней корзине завершающий ноль не нужен
+        writer.write((1L << buckets.length) - 1, buckets.length);
+        writer.write(zigzag, buckets[last]);
+    }
+
+    static long read(BitReader reader, int[] buckets) {
+        if (!reader.readBit()) {
+            return 0;
+        }
+        int bucket = 0;
+        while (bucket < buckets.length - 1 && reader.readBit()) {
+            bucket++;
+        }
+        long zigzag = reader.read(buckets[bucket]);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
@@ -0,0 +1,92 @@
+package ru.practicum.history.store;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Закодированные колонки серии: время и поля показаний.
+ * <p>
+ * Формат в файле сегмента: тип, количество, минимальное и максимальное время, затем для каждой
+ * колонки количество слов и сами слова
+ */
+record EncodedSeries(ReadingType type, int count, long minTimestamp, long maxTimestamp,
+                     long[] timestamps, long[][] fields) {
+
+    /**
+     * Декодирует показания с временем в полуинтервале [from, to)
+     */
+    void decode(long from, long to, List<Reading> out) {
+        if (count == 0 || maxTimestamp < from || minTimestamp >= to) {
+            return;
+        }
+        BitReader timestampReader = new BitReader(timestamps);
+        BitReader[] fieldReaders = new BitReader[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fieldReaders[i] = new BitReader(fields[i]);
+        }
+
+        int[] values = new int[fields.length];
+        long timestamp = 0;
+        long delta = 0;
+        for (int n = 0; n < count; n++) {
+            if (n == 0) {
+                timestamp = timestampReader.read(Long.SIZE);
+            } else {
+                delta += DeltaCodec.read(timestampReader, DeltaCodec.TIMESTAMP_BUCKETS);
+                timestamp += delta;
+            }
+            for (int i = 0; i < fieldReaders.length; i++) {
+                values[i] += (int) DeltaCodec.read(fieldReaders[i], DeltaCodec.VALUE_BUCKETS);
+            }
+            if (timestamp >= from && timestamp < to) {
+                out.add(new Reading(timestamp, type, values.clone()));
+            }
+        }
+    }
+
+    int serializedSize() {
+        int size = Byte.BYTES + Integer.BYTES + Long.BYTES * 2 + Integer.BYTES + timestamps.length * Long.BYTES;
+        for (long[] column : fields) {
+            size += Integer.BYTES + column.length * Long.BYTES;
+        }
+        return size;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.put((byte) type.ordinal());
+        buffer.putInt(count);
+        buffer.putLong(minTimestamp);
+        buffer.putLong(maxTimestamp);
+        writeColumn(buffer, timestamps);
+        for (long[] column : fields) {
+            writeColumn(buffer, column);
+        }
+    }
+
+    static EncodedSeries readFrom(ByteBuffer buffer) {
+        ReadingType type = ReadingType.of(buffer.get());
+        int count = buffer.getInt();
+        long minTimestamp = buffer.getLong();
+        long maxTimestamp = buffer.getLong();
+        long[] timestamps = readColumn(buffer);
+        long[][] fields = new long[type.fields()][];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = readColumn(buffer);
+        }
+        return new EncodedSeries(type, count, minTimestamp, maxTimestamp, timestamps, fields);
+    }
+
+    private static void writeColumn(ByteBuffer buffer, long[] column) {
+        buffer.putInt(column.length);
+        for (long word : column) {
+            buffer.putLong(word);
+        }
+    }
+
+    private static long[] readColumn(ByteBuffer buffer) {
+        long[] column = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(column);
+        buffer.position(buffer.position() + column.length * Long.BYTES);
+        return column;
+    }
+}
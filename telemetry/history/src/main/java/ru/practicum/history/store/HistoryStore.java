@@ -0,0 +1,334 @@
+package ru.practicum.history.store;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * История показаний сенсоров в сегментах по времени события.
+ * <p>
+ * Показания открытого сегмента копятся в памяти в колонках {@link SeriesChunk}. Сегмент записывается
+ * на диск неизменяемым файлом, когда водяной знак приёма (максимальное время события минус допустимое
+ * опоздание) уходит за его конец. Если поток событий затих, водяной знак сдвигается по часам.
+ * Показание уже записанного сегмента отбрасывается как опоздавшее. Показание из будущего дальше
+ * {@code max-clock-skew} от часов приёма тоже отбрасывается: иначе устройство с убежавшими часами сдвинуло бы
+ * водяной знак всех хабов вперёд, а его открытый сегмент задержал бы фиксацию оффсетов партиции.
+ * <p>
+ * Открытые сегменты не сохраняются, поэтому оффсеты группы фиксируются не дальше самого раннего
+ * показания в открытых сегментах: после перезапуска они собираются заново из топика, а повторно
+ * прочитанные показания записанных сегментов отбрасываются.
+ * <p>
+ * Показания дописывает один поток приёма, запросы выполняются из потоков gRPC
+ */
+@Slf4j
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class HistoryStore {
+    Path directory;
+    long segmentDurationMs;
+    long graceMs;
+    long retentionMs;
+    long maxClockSkewMs;
+    int indexCacheSize;
+
+    NavigableMap<Long, OpenSegment> openSegments = new ConcurrentSkipListMap<>();
+    NavigableMap<Long, Long> persistedSegments = new ConcurrentSkipListMap<>();
+    Map<Long, SegmentFile> indexCache;
+    int[] values = new int[3];
+
+    Counter appended;
+    Counter late;
+    Counter future;
+    Counter typeMismatch;
+    Counter segmentsFlushed;
+    Timer queryLatency;
+
+    @NonFinal
+    long maxEventTime = Long.MIN_VALUE;
+    @NonFinal
+    long lastAppendAt;
+    @NonFinal
+    long closedBefore = Long.MIN_VALUE;
+    @NonFinal
+    volatile long maxPersistedDurationMs;
+
+    public HistoryStore(@Value("${history.store.dir:history-data}") String directory,
+                        @Value("${history.store.segment-duration:2h}") Duration segmentDuration,
+                        @Value("${history.store.grace:10m}") Duration grace,
+                        @Value("${history.store.retention:30d}") Duration retention,
+                        @Value("${history.store.index-cache-size:256}") int indexCacheSize,
+                        @Value("${history.store.max-clock-skew:1m}") Duration maxClockSkew,
+                        MeterRegistry meterRegistry) {
+        this.directory = Path.of(directory);
+        this.segmentDurationMs = segmentDuration.toMillis();
+        this.graceMs = grace.toMillis();
+        this.retentionMs = retention.toMillis();
+        this.maxClockSkewMs = maxClockSkew.toMillis();
+        if (maxClockSkewMs >= graceMs) {
+            log.warn("Допустимое расхождение часов {} не меньше опоздания {}: показание из будущего может "
+                    + "закрыть сегмент раньше времени", maxClockSkew, grace);
+        }
+        this.indexCacheSize = Math.max(1, indexCacheSize);
+        this.indexCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, SegmentFile> eldest) {
+                return size() > HistoryStore.this.indexCacheSize;
+            }
+        });
+
+        this.appended = Counter.builder("history.readings.appended").register(meterRegistry);
+        this.late = Counter.builder("history.readings.rejected").tag("reason", "late").register(meterRegistry);
+        this.future = Counter.builder("history.readings.rejected").tag("reason", "future").register(meterRegistry);
+        this.typeMismatch = Counter.builder("history.readings.rejected").tag("reason", "type-mismatch")
+                .register(meterRegistry);
+        this.segmentsFlushed = Counter.builder("history.segments.flushed").register(meterRegistry);
+        this.queryLatency = Timer.builder("history.query.latency")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("history.segments.open", openSegments, Map::size).register(meterRegistry);
+        Gauge.builder("history.segments.persisted", persistedSegments, Map::size).register(meterRegistry);
+
+        loadSegments();
+        log.info("Хранилище истории: каталог={}, сегмент={}, опоздание={}, хранение={}",
+                this.directory.toAbsolutePath(), segmentDuration, grace, retention);
+    }
+
+    /**
+     * Добавляет показание в открытый сегмент. Вызывается только потоком приёма
+     */
+    public void append(int partition, long offset, SensorEventAvro event, long now) {
+        ReadingType type = ReadingType.extract(event.getPayload(), values);
+        if (type == null) {
+            return;
+        }
+        long timestamp = event.getTimestamp().toEpochMilli();
+        if (timestamp > now + maxClockSkewMs) {
+            log.debug("Показание сенсора {} хаба {} из будущего: {} при часах приёма {}",
+                    event.getId(), event.getHubId(), timestamp, now);
+            future.increment();
+            return;
+        }
+        long start = Math.floorDiv(timestamp, segmentDurationMs) * segmentDurationMs;
+        if (persistedSegments.containsKey(start) || start + segmentDurationMs <= closedBefore) {
+            late.increment();
+            return;
+        }
+
+        OpenSegment segment = openSegments.computeIfAbsent(start, s -> new OpenSegment(s, s + segmentDurationMs));
+        if (!segment.append(event.getHubId(), event.getId(), type, timestamp, values)) {
+            log.debug("Тип показания сенсора {} хаба {} не совпадает с типом серии: {}",
+                    event.getId(), event.getHubId(), type);
+            typeMismatch.increment();
+            return;
+        }
+        segment.consumed(partition, offset);
+        maxEventTime = Math.max(maxEventTime, timestamp);
+        lastAppendAt = now;
+        appended.increment();
+    }
+
+    /**
+     * Записывает на диск сегменты, конец которых прошёл водяной знак, и удаляет устаревшие файлы
+     */
+    public void flushDue(long now) {
+        long watermark = maxEventTime == Long.MIN_VALUE ? Long.MIN_VALUE : maxEventTime - graceMs;
+        if (lastAppendAt > 0 && now - lastAppendAt >= graceMs) {
+            watermark = Math.max(watermark, now - graceMs);
+        }
+        closedBefore = Math.max(closedBefore, watermark);
+
+        for (OpenSegment segment : new ArrayList<>(openSegments.values())) {
+            if (segment.end() > closedBefore) {
+                break;
+            }
+            if (!flush(segment)) {
+                break;
+            }
+        }
+        deleteExpired(now);
+    }
+
+    /**
+     * Оффсеты, которые можно зафиксировать: не дальше первого показания открытых сегментов
+     *
+     * @param positions следующий оффсет каждой партиции после обработанных записей
+     */
+    public Map<Integer, Long> committableOffsets(Map<Integer, Long> positions) {
+        Map<Integer, Long> offsets = new HashMap<>(positions);
+        for (OpenSegment segment : openSegments.values()) {
+            offsets.replaceAll((partition, offset) -> {
+                Long minOffset = segment.minOffset(partition);
+                return minOffset == null ? offset : Math.min(offset, minOffset);
+            });
+        }
+        return offsets;
+    }
+
+    /**
+     * Показания сенсора с временем в полуинтервале [from, to) по возрастанию времени.
+     * <p>
+     * Сегменты читаются по порядку начала. Показания внутри сегмента не упорядочены, но все они раньше
+     * начала следующего непересекающегося сегмента, поэтому чтение прекращается, как только набран предел
+     * и следующий сегмент начинается не раньше конца прочитанных
+     *
+     * @param limit предел количества показаний: из найденных возвращаются самые ранние
+     */
+    public List<Reading> query(String hubId, String sensorId, long from, long to, int limit) {
+        return queryLatency.record(() -> {
+            long firstStart = Math.floorDiv(from, segmentDurationMs) * segmentDurationMs;
+
+            // открытые сегменты выбираются первыми: сегмент, записанный во время запроса,
+            // уже есть среди записанных и будет пропущен там как выбранный
+            List<SegmentRef> segments = new ArrayList<>();
+            Set<Long> openStarts = new HashSet<>();
+            for (OpenSegment segment : openSegments.subMap(firstStart, true, to, false).values()) {
+                openStarts.add(segment.start());
+                segments.add(new SegmentRef(segment.start(), segment.end(), segment));
+            }
+            for (Map.Entry<Long, Long> entry : persistedSegments
+                    .subMap(Math.min(firstStart, from - maxPersistedDurationMs), true, to, false).entrySet()) {
+                if (entry.getValue() > from && !openStarts.contains(entry.getKey())) {
+                    segments.add(new SegmentRef(entry.getKey(), entry.getValue(), null));
+                }
+            }
+            segments.sort(Comparator.comparingLong(SegmentRef::start));
+
+            List<Reading> readings = new ArrayList<>();
+            long readUntil = Long.MIN_VALUE;
+            for (SegmentRef segment : segments) {
+                if (readings.size() >= limit && segment.start() >= readUntil) {
+                    break;
+                }
+                if (segment.open() != null) {
+                    SeriesChunk chunk = segment.open().series(hubId, sensorId);
+                    if (chunk != null) {
+                        chunk.encoded().decode(from, to, readings);
+                    }
+                } else {
+                    readPersisted(segment.start(), segment.end(), hubId, sensorId, from, to, readings);
+                }
+                readUntil = Math.max(readUntil, segment.end());
+            }
+
+            readings.sort(Comparator.comparingLong(Reading::timestamp));
+            return readings.size() > limit ? readings.subList(0, limit) : readings;
+        });
+    }
+
+    private void readPersisted(long start, long end, String hubId, String sensorId, long from, long to,
+                               List<Reading> readings) {
+        try {
+            SegmentFile file = indexCache.get(start);
+            if (file == null) {
+                file = SegmentFile.open(directory.resolve(SegmentFile.fileName(start, end)));
+                indexCache.put(start, file);
+            }
+            EncodedSeries series = file.read(hubId, sensorId, from, to);
+            if (series != null) {
+                series.decode(from, to, readings);
+            }
+        } catch (IOException e) {
+            // сегмент мог быть удалён по сроку хранения во время запроса
+            log.warn("Не удалось прочитать сегмент {}-{}: {}", start, end, e.getMessage());
+        }
+    }
+
+    /**
+     * Сначала сегмент появляется среди записанных и только потом пропадает из открытых,
+     * поэтому запрос в любой момент видит его показания
+     */
+    private boolean flush(OpenSegment segment) {
+        long started = System.currentTimeMillis();
+        try {
+            SegmentFile.write(directory, segment);
+        } catch (IOException e) {
+            log.error("Ошибка записи сегмента {}-{}, повтор при следующей проверке",
+                    segment.start(), segment.end(), e);
+            return false;
+        }
+        persistedSegments.put(segment.start(), segment.end());
+        maxPersistedDurationMs = Math.max(maxPersistedDurationMs, segment.end() - segment.start());
+        openSegments.remove(segment.start());
+        segmentsFlushed.increment();
+        log.info("Сегмент {}-{} записан: серий {}, за {} мс",
+                segment.start(), segment.end(), segment.seriesCount(), System.currentTimeMillis() - started);
+        return true;
+    }
+
+    private void deleteExpired(long now) {
+        long expiredBefore = now - retentionMs;
+        Map.Entry<Long, Long> oldest;
+        while ((oldest = persistedSegments.firstEntry()) != null && oldest.getValue() <= expiredBefore) {
+            persistedSegments.remove(oldest.getKey());
+            indexCache.remove(oldest.getKey());
+            Path file = directory.resolve(SegmentFile.fileName(oldest.getKey(), oldest.getValue()));
+            try {
+                Files.deleteIfExists(file);
+                log.info("Сегмент {} удалён по сроку хранения", file.getFileName());
+            } catch (IOException e) {
+                log.warn("Не удалось удалить сегмент {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private void loadSegments() {
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(SegmentFile.TMP_SUFFIX)) {
+                        // запись сегмента оборвалась: его показания будут прочитаны из топика заново
+                        Files.delete(file);
+                    } else if (name.endsWith(SegmentFile.SUFFIX)) {
+                        String[] bounds = name.substring(0, name.length() - SegmentFile.SUFFIX.length()).split("-");
+                        long start = Long.parseLong(bounds[0]);
+                        long end = Long.parseLong(bounds[1]);
+                        persistedSegments.put(start, end);
+                        maxPersistedDurationMs = Math.max(maxPersistedDurationMs, end - start);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть каталог истории: " + directory, e);
+        }
+        // сегменты записываются по порядку: всё до конца последнего записанного уже закрыто,
+        // и повторно прочитанные из топика показания не воссоздадут удалённые по сроку сегменты
+        if (!persistedSegments.isEmpty()) {
+            closedBefore = persistedSegments.lastEntry().getValue();
+        }
+        log.info("Найдено записанных сегментов: {}", persistedSegments.size());
+    }
+
+    /**
+     * Сегмент, выбранный для запроса: открытый - с показаниями в памяти, записанный - без них
+     */
+    private record SegmentRef(long start, long end, OpenSegment open) {
+    }
+}
@@ -0,0 +1,72 @@
+package ru.practicum.history.store;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Сегмент, который ещё принимает показания и живёт в памяти до записи на диск.
+ * <p>
+ * Помимо серий сегмент помнит минимальный оффсет каждой партиции среди своих показаний:
+ * оффсеты группы не должны уходить дальше него, пока сегмент не записан
+ */
+final class OpenSegment {
+    private final long start;
+    private final long end;
+    private final Map<String, Map<String, SeriesChunk>> seriesByHubId = new ConcurrentHashMap<>();
+    /**
+     * Меняется и читается только потоком приёма
+     */
+    private final Map<Integer, Long> minOffsets = new HashMap<>();
+    private int seriesCount;
+
+    OpenSegment(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    long start() {
+        return start;
+    }
+
+    long end() {
+        return end;
+    }
+
+    /**
+     * @return {@code false}, если тип показания не совпал с типом серии
+     */
+    boolean append(String hubId, String sensorId, ReadingType type, long timestamp, int[] values) {
+        SeriesChunk chunk = seriesByHubId.computeIfAbsent(hubId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(sensorId, id -> {
+                    seriesCount++;
+                    return new SeriesChunk(type);
+                });
+        if (chunk.type() != type) {
+            return false;
+        }
+        chunk.append(timestamp, values);
+        return true;
+    }
+
+    void consumed(int partition, long offset) {
+        minOffsets.merge(partition, offset, Math::min);
+    }
+
+    Long minOffset(int partition) {
+        return minOffsets.get(partition);
+    }
+
+    SeriesChunk series(String hubId, String sensorId) {
+        Map<String, SeriesChunk> sensors = seriesByHubId.get(hubId);
+        return sensors == null ? null : sensors.get(sensorId);
+    }
+
+    Map<String, Map<String, SeriesChunk>> series() {
+        return seriesByHubId;
+    }
+
+    int seriesCount() {
+        return seriesCount;
+    }
+}
@@ -0,0 +1,10 @@
+package ru.practicum.history.store;
+
+/**
+ * Показание сенсора из истории
+ *
+ * @param timestamp время события, мс
+ * @param values    поля показания в порядке {@link ReadingType}
+ */
+public record Reading(long timestamp, ReadingType type, int[] values) {
+}
@@ -0,0 +1,74 @@
+package ru.practicum.history.store;
+
+import ru.yandex.practicum.kafka.telemetry.event.ClimateSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.LightSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.MotionSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SwitchSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.TemperatureSensorAvro;
+
+/**
+ * Тип показания и порядок его полей в колонках серии. Логические поля хранятся как 0 и 1.
+ * Порядковый номер записывается в файлы сегментов, поэтому новые типы добавляются только в конец
+ */
+public enum ReadingType {
+    CLIMATE(3),     // temperature_c, humidity, co2_level
+    LIGHT(2),       // link_quality, luminosity
+    MOTION(3),      // link_quality, motion, voltage
+    SWITCH(1),      // state
+    TEMPERATURE(2); // temperature_c, temperature_f
+
+    private static final ReadingType[] VALUES = values();
+
+    private final int fields;
+
+    ReadingType(int fields) {
+        this.fields = fields;
+    }
+
+    public int fields() {
+        return fields;
+    }
+
+    static ReadingType of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * Раскладывает показание по полям
+     *
+     * @return тип показания или {@code null} для неизвестного показания
+     */
+    static ReadingType extract(Object payload, int[] values) {
+        switch (payload) {
+            case ClimateSensorAvro climate -> {
+                values[0] = climate.getTemperatureC();
+                values[1] = climate.getHumidity();
+                values[2] = climate.getCo2Level();
+                return CLIMATE;
+            }
+            case LightSensorAvro light -> {
+                values[0] = light.getLinkQuality();
+                values[1] = light.getLuminosity();
+                return LIGHT;
+            }
+            case MotionSensorAvro motion -> {
+                values[0] = motion.getLinkQuality();
+                values[1] = motion.getMotion() ? 1 : 0;
+                values[2] = motion.getVoltage();
+                return MOTION;
+            }
+            case SwitchSensorAvro sw -> {
+                values[0] = sw.getState() ? 1 : 0;
+                return SWITCH;
+            }
+            case TemperatureSensorAvro temperature -> {
+                values[0] = temperature.getTemperatureC();
+                values[1] = temperature.getTemperatureF();
+                return TEMPERATURE;
+            }
+            case null, default -> {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package ru.practicum.history.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Неизменяемый файл закрытого сегмента.
+ * <p>
+ * Заголовок: магическое число, версия, границы сегмента, количество серий и длина индекса.
+ * Индекс: для каждой серии hubId, id сенсора, диапазон времени, количество показаний, смещение
+ * и длина блока относительно начала данных, CRC32 блока. Данные: блоки серий, каждый - колонки
+ * {@link EncodedSeries}. Индекс читается один раз, при запросе читается только блок нужной серии
+ */
+final class SegmentFile {
+    static final String SUFFIX = ".seg";
+    static final String TMP_SUFFIX = ".seg.tmp";
+
+    private static final int MAGIC = 0x53485453; // SHTS
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES * 2 + Integer.BYTES * 2;
+
+    private final Path path;
+    private final long dataStart;
+    private final Map<String, Map<String, IndexEntry>> index;
+
+    private SegmentFile(Path path, long dataStart, Map<String, Map<String, IndexEntry>> index) {
+        this.path = path;
+        this.dataStart = dataStart;
+        this.index = index;
+    }
+
+    static String fileName(long start, long end) {
+        return start + "-" + end + SUFFIX;
+    }
+
+    /**
+     * Записывает сегмент во временный файл и атомарно переименовывает его
+     */
+    static Path write(Path directory, OpenSegment segment) throws IOException {
+        List<ByteBuffer> blocks = new ArrayList<>(segment.seriesCount());
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(indexBytes);
+        int seriesCount = 0;
+        long offset = 0;
+
+        for (Map.Entry<String, Map<String, SeriesChunk>> hub : segment.series().entrySet()) {
+            for (Map.Entry<String, SeriesChunk> sensor : hub.getValue().entrySet()) {
+                EncodedSeries series = sensor.getValue().encoded();
+                ByteBuffer block = ByteBuffer.allocate(series.serializedSize());
+                series.writeTo(block);
+                block.flip();
+
+                indexOut.writeUTF(hub.getKey());
+                indexOut.writeUTF(sensor.getKey());
+                indexOut.writeLong(series.minTimestamp());
+                indexOut.writeLong(series.maxTimestamp());
+                indexOut.writeInt(series.count());
+                indexOut.writeLong(offset);
+                indexOut.writeInt(block.remaining());
+                indexOut.writeInt(checksum(block));
+
+                blocks.add(block);
+                offset += block.remaining();
+                seriesCount++;
+            }
+        }
+        indexOut.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(segment.start())
+                .putLong(segment.end())
+                .putInt(seriesCount)
+                .putInt(indexBytes.size())
+                .flip();
+
+        Path target = directory.resolve(fileName(segment.start(), segment.end()));
+        Path tmp = directory.resolve(segment.start() + "-" + segment.end() + TMP_SUFFIX);
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out, header);
+            write(out, ByteBuffer.wrap(indexBytes.toByteArray()));
+            for (ByteBuffer block : blocks) {
+                write(out, block);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    /**
+     * Читает заголовок и индекс сегмента
+     */
+    static SegmentFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Файл " + path + " не является сегментом истории");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Неподдерживаемая версия сегмента " + version + ": " + path);
+            }
+            header.getLong();
+            header.getLong();
+            int seriesCount = header.getInt();
+            int indexLength = header.getInt();
+
+            ByteBuffer indexBuffer = readFully(channel, HEADER_SIZE, indexLength);
+            DataInputStream indexIn = new DataInputStream(new ByteArrayInputStream(indexBuffer.array()));
+            Map<String, Map<String, IndexEntry>> index = new HashMap<>();
+            for (int i = 0; i < seriesCount; i++) {
+                String hubId = indexIn.readUTF();
+                String sensorId = indexIn.readUTF();
+                long minTimestamp = indexIn.readLong();
+                long maxTimestamp = indexIn.readLong();
+                int count = indexIn.readInt();
+                long offset = indexIn.readLong();
+                int length = indexIn.readInt();
+                int crc = indexIn.readInt();
+                index.computeIfAbsent(hubId, id -> new HashMap<>())
+                        .put(sensorId, new IndexEntry(minTimestamp, maxTimestamp, count, offset, length, crc));
+            }
+            return new SegmentFile(path, HEADER_SIZE + (long) indexLength, index);
+        }
+    }
+
+    /**
+     * Читает блок серии или возвращает {@code null}, если серии в сегменте нет
+     */
+    EncodedSeries read(String hubId, String sensorId, long from, long to) throws IOException {
+        Map<String, IndexEntry> sensors = index.get(hubId);
+        IndexEntry entry = sensors == null ? null : sensors.get(sensorId);
+        if (entry == null || entry.maxTimestamp() < from || entry.minTimestamp() >= to) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer block = readFully(channel, dataStart + entry.offset(), entry.length());
+            if (checksum(block) != entry.crc()) {
+                throw new IOException("Нарушена контрольная сумма серии " + hubId + "/" + sensorId + " в " + path);
+            }
+            return EncodedSeries.readFrom(block);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Неожиданный конец файла сегмента");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private record IndexEntry(long minTimestamp, long maxTimestamp, int count, long offset, int length, int crc) {
+    }
+}
@@ -0,0 +1,61 @@
+package ru.practicum.history.store;
+
+/**
+ * Показания одного сенсора в открытом сегменте. Время и каждое поле пишутся в свою колонку.
+ * Дописывает поток приёма, читают потоки запросов: обе операции коротко синхронизированы на серии
+ */
+final class SeriesChunk {
+    private final ReadingType type;
+    private final BitWriter timestamps = new BitWriter(2);
+    private final BitWriter[] fields;
+    private final int[] previous;
+    private long previousTimestamp;
+    private long previousDelta;
+    private int count;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    SeriesChunk(ReadingType type) {
+        this.type = type;
+        this.fields = new BitWriter[type.fields()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new BitWriter(1);
+        }
+        this.previous = new int[type.fields()];
+    }
+
+    ReadingType type() {
+        return type;
+    }
+
+    synchronized void append(long timestamp, int[] values) {
+        if (count == 0) {
+            timestamps.write(timestamp, Long.SIZE);
+        } else {
+            long delta = timestamp - previousTimestamp;
+            DeltaCodec.write(timestamps, delta - previousDelta, DeltaCodec.TIMESTAMP_BUCKETS);
+            previousDelta = delta;
+        }
+        previousTimestamp = timestamp;
+
+        for (int i = 0; i < fields.length; i++) {
+            DeltaCodec.write(fields[i], (long) values[i] - previous[i], DeltaCodec.VALUE_BUCKETS);
+            previous[i] = values[i];
+        }
+
+        count++;
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+    }
+
+    /**
+     * Неизменяемая копия закодированных колонок
+     */
+    synchronized EncodedSeries encoded() {
+        long[][] fieldWords = new long[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            fieldWords[i] = fields[i].copyWords();
+        }
+        return new EncodedSeries(type, count, minTimestamp, maxTimestamp, timestamps.copyWords(), fieldWords);
+    }
+}
@@ -3,46 +3,109 @@ package ru.practicum.kafka.deserializer;
 import lombok.AccessLevel;
 import lombok.experimental.FieldDefaults;
 import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryDecoder;
 import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.Decoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.serialization.Deserializer;
+import ru.practicum.kafka.schema.AvroSchemaRegistry;
+import ru.practicum.kafka.schema.SingleObjectFormat;
 
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Потокобезопасный десериализатор записей Avro. Reader создаётся один раз на схему,
+ * бинарный декодер переиспользуется в пределах потока.
+ * <p>
+ * Сообщения с заголовком {@link SingleObjectFormat} читаются по схеме писателя из
+ * {@link AvroSchemaRegistry} с приведением к схеме читателя. Reader на каждую пару схем
+ * кэшируется, а он сам держит готовый ResolvingDecoder, поэтому после прогрева разрешение
+ * схем не стоит ничего. Сообщения без заголовка читаются схемой читателя как раньше
+ */
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class BaseAvroDeserializer <T extends SpecificRecordBase> implements Deserializer<T> {
+    /**
+     * Каталог с файлами *.avsc схем писателей других версий
+     */
+    public static final String SCHEMA_REGISTRY_DIR_CONFIG = "avro.schema-registry.dir";
+
+    Schema readerSchema;
+
     DatumReader<T> datumReader;
 
     DecoderFactory decoderFactory;
 
+    long readerFingerprint;
+
+    Map<Long, DatumReader<T>> resolvingReaders = new ConcurrentHashMap<>();
+
+    ThreadLocal<BinaryDecoder> decoders = new ThreadLocal<>();
+
     public BaseAvroDeserializer(Schema schema) {
         this(DecoderFactory.get(), schema);
     }
 
     public BaseAvroDeserializer(DecoderFactory decoderFactory, Schema schema) {
         this.decoderFactory = decoderFactory;
+        this.readerSchema = schema;
         this.datumReader = new SpecificDatumReader<>(schema);
+        this.readerFingerprint = SingleObjectFormat.fingerprint(schema);
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        Object directory = configs.get(SCHEMA_REGISTRY_DIR_CONFIG);
+        if (directory != null && !directory.toString().isBlank()) {
+            AvroSchemaRegistry.getInstance().registerDirectory(Path.of(directory.toString()));
+        }
     }
 
     @Override
     public T deserialize(String topic, byte[] data) {
+        return deserialize(topic, data, null);
+    }
+
+    /**
+     * Десериализует данные в переданный объект, если он не null. Подходит для потребителей,
+     * которые декодируют и обрабатывают записи по одной: после следующего вызова
+     * содержимое {@code reuse} перезаписывается. Consumer Kafka десериализует всю порцию poll
+     * сразу, поэтому из {@link #deserialize(String, byte[])} переиспользование не включается
+     */
+    public T deserialize(String topic, byte[] data, T reuse) {
         if (data == null) {
             return null;
         }
 
         try {
-            Decoder decoder = decoderFactory.binaryDecoder(data, null);
+            DatumReader<T> reader = datumReader;
+            int offset = 0;
+            if (SingleObjectFormat.isFramed(data)) {
+                reader = reader(SingleObjectFormat.readFingerprint(data));
+                offset = SingleObjectFormat.HEADER_SIZE;
+            }
+
+            BinaryDecoder decoder = decoderFactory.binaryDecoder(data, offset, data.length - offset, decoders.get());
+            decoders.set(decoder);
 
-            return datumReader.read(null, decoder);
+            return reader.read(reuse, decoder);
         } catch (IOException ex) {
             throw new SerializationException(String.format("Ошибка десериализации данных для топика [%s]. Data: %s",
                     topic, Arrays.toString(data)), ex);
         }
     }
+
+    private DatumReader<T> reader(long writerFingerprint) {
+        if (writerFingerprint == readerFingerprint) {
+            return datumReader;
+        }
+        return resolvingReaders.computeIfAbsent(writerFingerprint, fingerprint ->
+                new SpecificDatumReader<>(AvroSchemaRegistry.getInstance().get(fingerprint), readerSchema));
+    }
 }
@@ -0,0 +1,9 @@
+package ru.practicum.kafka.deserializer;
+
+import ru.yandex.practicum.kafka.telemetry.event.SensorRollupAvro;
+
+public class SensorRollupAvroDeserializer extends BaseAvroDeserializer<SensorRollupAvro> {
+    public SensorRollupAvroDeserializer() {
+        super(SensorRollupAvro.getClassSchema());
+    }
+}
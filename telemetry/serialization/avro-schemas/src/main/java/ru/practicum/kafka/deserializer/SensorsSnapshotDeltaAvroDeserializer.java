@@ -0,0 +1,9 @@
+package ru.practicum.kafka.deserializer;
+
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotDeltaAvro;
+
+public class SensorsSnapshotDeltaAvroDeserializer extends BaseAvroDeserializer<SensorsSnapshotDeltaAvro> {
+    public SensorsSnapshotDeltaAvroDeserializer() {
+        super(SensorsSnapshotDeltaAvro.getClassSchema());
+    }
+}
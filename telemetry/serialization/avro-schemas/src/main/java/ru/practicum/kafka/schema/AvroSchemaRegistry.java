@@ -0,0 +1,102 @@
+package ru.practicum.kafka.schema;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.kafka.common.errors.SerializationException;
+import ru.yandex.practicum.kafka.telemetry.event.HubEventAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorRollupAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorsSnapshotDeltaAvro;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Локальная замена реестра схем: сопоставляет отпечаток схемы писателя с самой схемой.
+ * Схемы текущей версии берутся из сгенерированных классов на classpath, схемы других
+ * версий - из файлов *.avsc каталога, заданного в конфигурации десериализатора.
+ * <p>
+ * Прежние версии схем, несовместимые с текущими при чтении без заголовка, поставляются вместе
+ * с модулем в {@code schema-registry/} и регистрируются всегда: кадрированные ими записи
+ * читаются новой версией без настройки каталога
+ */
+@Slf4j
+public final class AvroSchemaRegistry {
+    private static final List<String> PREVIOUS_SCHEMAS = List.of(
+            // до BETWEEN, удержания условий и дерева условий
+            "schema-registry/HubEventAvro-1.avsc"
+    );
+
+    private static final AvroSchemaRegistry INSTANCE = new AvroSchemaRegistry();
+
+    private final Map<Long, Schema> schemas = new ConcurrentHashMap<>();
+    private final Set<Path> loadedDirectories = ConcurrentHashMap.newKeySet();
+
+    private AvroSchemaRegistry() {
+        register(SensorEventAvro.getClassSchema());
+        register(HubEventAvro.getClassSchema());
+        register(SensorsSnapshotAvro.getClassSchema());
+        register(SensorsSnapshotDeltaAvro.getClassSchema());
+        register(SensorRollupAvro.getClassSchema());
+        PREVIOUS_SCHEMAS.forEach(this::registerResource);
+    }
+
+    public static AvroSchemaRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public long register(Schema schema) {
+        long fingerprint = SingleObjectFormat.fingerprint(schema);
+        schemas.putIfAbsent(fingerprint, schema);
+        return fingerprint;
+    }
+
+    /**
+     * Регистрирует схемы из файлов *.avsc каталога. Повторная загрузка того же каталога пропускается
+     */
+    public void registerDirectory(Path directory) {
+        Path normalized = directory.toAbsolutePath().normalize();
+        if (!loadedDirectories.add(normalized)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(normalized, "*.avsc")) {
+            for (Path file : files) {
+                Schema schema = new Schema.Parser().parse(file.toFile());
+                log.info("Зарегистрирована схема {} из {}, отпечаток: {}", schema.getFullName(), file,
+                        Long.toHexString(register(schema)));
+            }
+        } catch (IOException e) {
+            loadedDirectories.remove(normalized);
+            throw new UncheckedIOException("Не удалось загрузить схемы из каталога " + normalized, e);
+        }
+    }
+
+    private void registerResource(String resource) {
+        try (InputStream in = AvroSchemaRegistry.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Схема не найдена на classpath: " + resource);
+            }
+            register(new Schema.Parser().parse(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось загрузить схему " + resource, e);
+        }
+    }
+
+    public Schema get(long fingerprint) {
+        Schema schema = schemas.get(fingerprint);
+        if (schema == null) {
+            throw new SerializationException("Неизвестная схема писателя, отпечаток: " + Long.toHexString(fingerprint));
+        }
+        return schema;
+    }
+}
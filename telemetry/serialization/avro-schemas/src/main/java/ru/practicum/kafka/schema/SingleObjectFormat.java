@@ -0,0 +1,54 @@
+package ru.practicum.kafka.schema;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+/**
+ * Заголовок формата Avro single-object encoding: маркер 0xC3 0x01 и 8 байт отпечатка
+ * CRC-64-AVRO схемы писателя в порядке little-endian, за ними - двоичная запись.
+ * <p>
+ * Записи схем телеметрии начинаются со строки, длина которой не может быть закодирована
+ * байтами маркера, поэтому кадрированные и сырые сообщения различаются однозначно
+ */
+public final class SingleObjectFormat {
+    public static final int HEADER_SIZE = 10;
+
+    private static final byte MARKER_0 = (byte) 0xC3;
+    private static final byte MARKER_1 = (byte) 0x01;
+
+    private SingleObjectFormat() {
+    }
+
+    public static long fingerprint(Schema schema) {
+        return SchemaNormalization.parsingFingerprint64(schema);
+    }
+
+    public static byte[] header(Schema schema) {
+        byte[] header = new byte[HEADER_SIZE];
+        writeHeader(header, 0, fingerprint(schema));
+        return header;
+    }
+
+    public static void writeHeader(byte[] buffer, int offset, long fingerprint) {
+        buffer[offset] = MARKER_0;
+        buffer[offset + 1] = MARKER_1;
+        for (int i = 0; i < Long.BYTES; i++) {
+            buffer[offset + 2 + i] = (byte) (fingerprint >>> (8 * i));
+        }
+    }
+
+    public static boolean isFramed(byte[] data) {
+        return data.length >= HEADER_SIZE && data[0] == MARKER_0 && data[1] == MARKER_1;
+    }
+
+    /**
+     * Отпечаток схемы писателя из заголовка. Вызывается только для данных, прошедших {@link #isFramed}
+     */
+    public static long readFingerprint(byte[] data) {
+        long fingerprint = 0;
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            fingerprint = (fingerprint << 8) | (data[2 + i] & 0xFF);
+        }
+        return fingerprint;
+    }
+}
@@ -7,26 +7,76 @@ import org.apache.avro.specific.SpecificDatumWriter;
 import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.serialization.Serializer;
+import ru.practicum.kafka.schema.SingleObjectFormat;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Потокобезопасный сериализатор записей Avro. Writer'ы кэшируются по классу записи,
+ * буфер и энкодер переиспользуются в пределах потока.
+ * <p>
+ * При {@value #SINGLE_OBJECT_CONFIG}=true запись предваряется заголовком {@link SingleObjectFormat}
+ * с отпечатком схемы, что позволяет читателю со своей версией схемы разрешить схему писателя
+ */
 public class GeneralAvroSerializer implements Serializer<SpecificRecordBase> {
-    private final EncoderFactory encoderFactory = EncoderFactory.get();
-    private BinaryEncoder encoder;
+    public static final String SINGLE_OBJECT_CONFIG = "avro.single-object-encoding";
+
+    /**
+     * Буфер, выросший больше этого размера, не удерживается потоком после сериализации
+     */
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
+    private static final Map<Class<?>, CachedWriter> WRITERS = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<EncodingBuffer> BUFFERS = ThreadLocal.withInitial(EncodingBuffer::new);
+
+    private boolean singleObject;
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        Object value = configs.get(SINGLE_OBJECT_CONFIG);
+        singleObject = value != null && Boolean.parseBoolean(value.toString());
+    }
 
     public byte[] serialize(String topic, SpecificRecordBase data) {
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            if (data != null) {
-                DatumWriter<SpecificRecordBase> writer = new SpecificDatumWriter<>(data.getSchema());
-                encoder = encoderFactory.binaryEncoder(out, encoder);
-                writer.write(data, encoder);
-                encoder.flush();
-                return out.toByteArray();
-            }
+        if (data == null) {
             return new byte[0];
+        }
+
+        CachedWriter writer = writer(data);
+        EncodingBuffer buffer = BUFFERS.get();
+        try {
+            if (singleObject) {
+                buffer.out.write(writer.header);
+            }
+            buffer.encoder = EncoderFactory.get().binaryEncoder(buffer.out, buffer.encoder);
+            writer.writer.write(data, buffer.encoder);
+            buffer.encoder.flush();
+            return buffer.out.toByteArray();
         } catch (IOException ex) {
             throw new SerializationException(String.format("Ошибка сериализации данных для топика [%s]", topic), ex);
+        } finally {
+            if (buffer.out.size() > MAX_RETAINED_BUFFER) {
+                BUFFERS.remove();
+            } else {
+                buffer.out.reset();
+            }
         }
     }
+
+    private static CachedWriter writer(SpecificRecordBase data) {
+        return WRITERS.computeIfAbsent(data.getClass(), type -> new CachedWriter(
+                new SpecificDatumWriter<>(data.getSchema()), SingleObjectFormat.header(data.getSchema())));
+    }
+
+    private record CachedWriter(DatumWriter<SpecificRecordBase> writer, byte[] header) {
+    }
+
+    private static final class EncodingBuffer {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        BinaryEncoder encoder;
+    }
 }
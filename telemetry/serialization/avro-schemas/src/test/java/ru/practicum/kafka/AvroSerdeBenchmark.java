@@ -0,0 +1,114 @@
+package ru.practicum.kafka;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.kafka.deserializer.SensorEventAvroDeserializer;
+import ru.practicum.kafka.serializer.GeneralAvroSerializer;
+import ru.yandex.practicum.kafka.telemetry.event.ClimateSensorAvro;
+import ru.yandex.practicum.kafka.telemetry.event.SensorEventAvro;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сериализация и десериализация события сенсора: текущие GeneralAvroSerializer и BaseAvroDeserializer
+ * против прежнего пути, где writer и буфер создавались на каждый вызов, а декодер и запись не переиспользовались.
+ * <p>
+ * Запуск: {@code mvn -Pjmh -pl serialization/avro-schemas -am test}; байты на операцию -
+ * {@code gc.alloc.rate.norm} профилировщика {@code -prof gc}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvroSerdeBenchmark {
+    private static final String TOPIC = "telemetry.sensors.v1";
+
+    SensorEventAvro event;
+    byte[] payload;
+    SensorEventAvro reuse;
+
+    GeneralAvroSerializer serializer;
+    SensorEventAvroDeserializer deserializer;
+
+    DatumReader<SensorEventAvro> baselineReader;
+    BinaryEncoder baselineEncoder;
+
+    @Setup
+    public void setUp() {
+        event = SensorEventAvro.newBuilder()
+                .setId("climate-sensor-1")
+                .setHubId("hub-kitchen-1")
+                .setTimestamp(Instant.ofEpochMilli(1_700_000_000_000L))
+                .setPayload(new ClimateSensorAvro(22, 45, 600))
+                .build();
+        serializer = new GeneralAvroSerializer();
+        deserializer = new SensorEventAvroDeserializer();
+        baselineReader = new SpecificDatumReader<>(SensorEventAvro.getClassSchema());
+        payload = serializer.serialize(TOPIC, event);
+        reuse = deserializer.deserialize(TOPIC, payload);
+    }
+
+    @TearDown
+    public void tearDown() {
+        serializer.close();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(TOPIC, event);
+    }
+
+    /**
+     * Прежний GeneralAvroSerializer: SpecificDatumWriter и ByteArrayOutputStream на каждый вызов
+     */
+    @Benchmark
+    public byte[] serializeBaseline() throws IOException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            DatumWriter<SpecificRecordBase> writer = new SpecificDatumWriter<>(event.getSchema());
+            baselineEncoder = EncoderFactory.get().binaryEncoder(out, baselineEncoder);
+            writer.write(event, baselineEncoder);
+            baselineEncoder.flush();
+            return out.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public SensorEventAvro deserialize() {
+        return deserializer.deserialize(TOPIC, payload);
+    }
+
+    @Benchmark
+    public SensorEventAvro deserializeReuse() {
+        return deserializer.deserialize(TOPIC, payload, reuse);
+    }
+
+    /**
+     * Прежний BaseAvroDeserializer: новый декодер и новая запись на каждый вызов
+     */
+    @Benchmark
+    public SensorEventAvro deserializeBaseline() throws IOException {
+        return baselineReader.read(null, DecoderFactory.get().binaryDecoder(payload, null));
+    }
+}